@@ -17,21 +17,26 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.io.File;
-import java.util.AbstractMap;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 
 import javax.annotation.CheckForNull;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Maps;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.pyx4j.log4j.MavenLogAppender;
 
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Model;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -39,6 +44,8 @@ import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.settings.Settings;
+import org.basepom.mojo.propertyhelper.PersistOptions.FsyncPolicy;
+import org.basepom.mojo.propertyhelper.beans.AbstractDefinition;
 import org.basepom.mojo.propertyhelper.beans.DateDefinition;
 import org.basepom.mojo.propertyhelper.beans.IgnoreWarnFail;
 import org.basepom.mojo.propertyhelper.beans.MacroDefinition;
@@ -69,6 +76,12 @@ public abstract class AbstractPropertyHelperMojo
     @Component
     private Settings settings;
 
+    /**
+     * The current build session. Used to share state between the executions in a reactor build.
+     */
+    @Component
+    private MavenSession session;
+
     @Parameter(required=true, readonly=true, defaultValue="${project.basedir}")
     private File basedir;
 
@@ -90,6 +103,44 @@ public abstract class AbstractPropertyHelperMojo
     @Parameter(defaultValue="fail")
     private String onMissingProperty = "fail";
 
+    /**
+     * If set to true, property files are locked from loading until they have been persisted,
+     * so that concurrent builds (e.g. on a shared file system) can not hand out the same values.
+     */
+    @Parameter(defaultValue="false")
+    private boolean lockPropertyFiles = false;
+
+    /**
+     * Maximum time in milliseconds to wait for a property file lock.
+     */
+    @Parameter(defaultValue="30000")
+    private long lockTimeout = 30000L;
+
+    /**
+     * Time in milliseconds to wait before trying to lock a property file again. Doubles after every attempt.
+     */
+    @Parameter(defaultValue="10")
+    private long lockBackoff = 10L;
+
+    /**
+     * What to force to disk when writing a property file. "none" leaves it to the operating system,
+     * "file" forces the file contents and "directory" also forces the folder that contains the file.
+     */
+    @Parameter(defaultValue="none")
+    private String fsyncPolicy = "none";
+
+    /**
+     * If set to true, the previous version of a property file is kept as a ".bak" file.
+     */
+    @Parameter(defaultValue="true")
+    private boolean backupPropertyFiles = true;
+
+    /**
+     * Size in bytes above which the journal of a property file in journal format is compacted.
+     */
+    @Parameter(defaultValue="65536")
+    private long journalCompactionSize = 65536L;
+
     /**
      * List of the property group ids to activate for a plugin execution.
      */
@@ -133,15 +184,37 @@ public abstract class AbstractPropertyHelperMojo
     @Parameter
     private UuidDefinition[] uuids = new UuidDefinition[0];
 
+    /**
+     * If true, only evaluate elements that are exported or referenced by an active property group. Elements
+     * that are stored in a property file are always evaluated when the execution writes the files back.
+     */
+    @Parameter(defaultValue="false")
+    private boolean evaluateOnDemand = false;
+
+    /**
+     * If true, evaluate all macros concurrently instead of one after another. Macros must be thread safe.
+     */
+    @Parameter(defaultValue="false")
+    private boolean asyncMacros = false;
+
+    /**
+     * Maximum number of macros that run at the same time, across all modules of a build. 0 uses the number of
+     * processors. The first execution of a build that runs macros sets this limit.
+     */
+    @Parameter(defaultValue="0")
+    private int macroThreads = 0;
+
     protected final Log LOG = Log.findLog();
 
-    protected final ValueCache valueCache = new ValueCache();
-    private final Map<String, String> values = Maps.newHashMap();
+    protected ValueCache valueCache = null;
+    private final LazyPropertyValues values = new LazyPropertyValues();
 
     private List<NumberField> numberFields = null;
 
     private PlexusContainer container = null;
 
+    private MacroRegistry macroRegistry = null;
+
     private boolean isSnapshot;
 
     @Override
@@ -153,6 +226,19 @@ public abstract class AbstractPropertyHelperMojo
         LOG.debug("Project is a %s.", isSnapshot ? "snapshot" : "release");
         LOG.trace("%s on duplicate, %s on missing", onDuplicateProperty, onMissingProperty);
 
+        final ValueFileCache valueFileCache = ValueFileCache.forSession(session);
+        final PersistOptions persistOptions = new PersistOptions()
+            .setLock(lockPropertyFiles && isPersist())
+            .setLockTimeout(lockTimeout)
+            .setLockBackoff(lockBackoff)
+            .setFsyncPolicy(FsyncPolicy.forString(fsyncPolicy))
+            .setBackup(backupPropertyFiles)
+            .setJournalCompactionSize(journalCompactionSize);
+        LOG.trace("Persist options: %s", persistOptions);
+
+        valueCache = new ValueCache(valueFileCache, persistOptions, NumberLeases.forSession(session));
+        macroRegistry = MacroRegistry.forSession(session);
+
         try {
             if (skip) {
                 LOG.debug("Skipping execution!");
@@ -167,6 +253,19 @@ public abstract class AbstractPropertyHelperMojo
             throw new MojoExecutionException("While running mojo: ", e);
         }
         finally {
+            try {
+                valueCache.close();
+            }
+            catch (final IOException e) {
+                LOG.warn(e, "Could not release property file locks!");
+            }
+
+            LOG.debug("Property element values: %d hits, %d misses", valueCache.getTracker().getHitCount(), valueCache.getTracker().getMissCount());
+
+            final CacheStats stats = valueFileCache.getStats();
+            LOG.debug("Property file cache: %d hits, %d misses, %d files loaded (session total)", stats.hitCount(), stats.missCount(), stats.loadSuccessCount());
+            LOG.debug("Property files: %d file system metadata lookups (session total)", valueFileCache.getStatCalls());
+            LOG.debug("Macro registry: %d macros requested, %d resolved, about %d us saved (session total)", macroRegistry.getLookupCount(), macroRegistry.getResolveCount(), macroRegistry.getSavedNanos() / 1000L);
             LOG.debug("Ended %s mojo run!", this.getClass().getSimpleName());
             MavenLogAppender.endPluginLog(this);
         }
@@ -184,6 +283,12 @@ public abstract class AbstractPropertyHelperMojo
         return settings;
     }
 
+    public MavenSession getSession()
+    {
+        checkNotNull(session, "session is null");
+        return session;
+    }
+
     public File getBasedir()
     {
         checkNotNull(basedir, "basedir is null");
@@ -196,6 +301,18 @@ public abstract class AbstractPropertyHelperMojo
         return container;
     }
 
+    public MacroExecutor getMacroExecutor()
+    {
+        checkNotNull(session, "session is null");
+        return MacroExecutor.forSession(session, macroThreads);
+    }
+
+    public MacroRegistry getMacroRegistry()
+    {
+        checkNotNull(macroRegistry, "macroRegistry is null");
+        return macroRegistry;
+    }
+
     @CheckForNull
     public List<NumberField> getNumbers()
     {
@@ -213,21 +330,43 @@ public abstract class AbstractPropertyHelperMojo
      */
     protected abstract void doExecute() throws Exception;
 
+    /**
+     * Returns true if this execution writes the property files back to disk.
+     */
+    protected abstract boolean isPersist();
+
     protected void loadPropertyElements()
         throws Exception
     {
         final ImmutableList.Builder<PropertyElement> propertyElements = ImmutableList.builder();
 
-        numberFields = NumberField.createNumbers(valueCache, numbers);
+        numberFields = NumberField.createNumbers(valueCache, numbers, isPersist());
         propertyElements.addAll(numberFields);
         propertyElements.addAll(StringField.createStrings(valueCache, strings));
         propertyElements.addAll(DateField.createDates(valueCache, dates));
-        propertyElements.addAll(MacroField.createMacros(valueCache, macros, this));
+        final List<MacroField> macroFields = MacroField.createMacros(valueCache, macros, this);
+        propertyElements.addAll(macroFields);
         propertyElements.addAll(UuidField.createUuids(valueCache, uuids));
 
+        final Set<String> persistedElements = evaluateOnDemand && isPersist() ? findPersistedElements() : ImmutableSet.<String>of();
+
+        if (asyncMacros) {
+            // Start all macros now, they are collected in order below.
+            for (final MacroField macroField : macroFields) {
+                if (!isDeferred(macroField, persistedElements)) {
+                    macroField.start();
+                }
+            }
+        }
+
         for (final PropertyElement pe : propertyElements.build()) {
-            final Optional<String> value = pe.getPropertyValue();
-            values.put(pe.getPropertyName(), value.orNull());
+            if (isDeferred(pe, persistedElements)) {
+                // Evaluated when an active property group refers to it.
+                values.defer(pe);
+                continue;
+            }
+
+            final Optional<String> value = values.evaluate(pe);
 
             if (pe.isExport()) {
                 final String result = value.or("");
@@ -239,34 +378,66 @@ public abstract class AbstractPropertyHelperMojo
             }
         }
 
-        // Now generate the property groups.
-        final ImmutableMap.Builder<String, Map.Entry<PropertyGroup, List<PropertyElement>>> builder = ImmutableMap.builder();
-
-        final Set<String> propertyNames = Sets.newHashSet();
+        // Now generate the property groups. Only groups that are active are evaluated.
+        final ImmutableMap.Builder<String, PropertyGroup> builder = ImmutableMap.builder();
 
         if (propertyGroups != null) {
             for (final PropertyGroup propertyGroup : propertyGroups) {
-                final List<PropertyElement> propertyFields = PropertyField.createProperties(project.getModel(), values, propertyGroup);
-                builder.put(propertyGroup.getId(), new AbstractMap.SimpleImmutableEntry<>(propertyGroup, propertyFields));
+                builder.put(propertyGroup.getId(), propertyGroup);
             }
         }
 
-        final Map<String, Map.Entry<PropertyGroup, List<PropertyElement>>> propertyPairs = builder.build();
+        final Map<String, PropertyGroup> groups = builder.build();
+        final Set<String> evaluatedGroups = evaluatePropertyGroups(groups, activeGroups, isSnapshot, project.getModel(), values, project.getProperties());
+
+        if (LOG.isDebugEnabled()) {
+            int skippedProperties = 0;
+            for (final Map.Entry<String, PropertyGroup> group : groups.entrySet()) {
+                if (!evaluatedGroups.contains(group.getKey())) {
+                    skippedProperties += group.getValue().getPropertyNames().size();
+                }
+            }
+            LOG.debug("Evaluated %d property groups, skipped %d groups with %d properties", evaluatedGroups.size(), groups.size() - evaluatedGroups.size(), skippedProperties);
+            LOG.debug("Evaluated %d elements, skipped %d unreferenced elements", values.getEvaluatedCount(), values.getPendingCount());
+        }
+    }
+
+    /**
+     * Sets the properties of the active groups that apply to a snapshot or release build. Groups that are not
+     * active are never evaluated. Returns the ids of the evaluated groups.
+     */
+    @VisibleForTesting
+    Set<String> evaluatePropertyGroups(final Map<String, PropertyGroup> groups,
+                                       final String[] activeGroups,
+                                       final boolean isSnapshot,
+                                       final Model model,
+                                       final Map<String, String> values,
+                                       final Properties properties)
+        throws Exception
+    {
+        final Set<String> evaluatedGroups = Sets.newHashSet();
+        final Set<String> propertyNames = Sets.newHashSet();
+        InterpolatorFactory interpolatorFactory = null;
 
         if (activeGroups != null) {
             for (final String activeGroup : activeGroups) {
-                final Map.Entry<PropertyGroup, List<PropertyElement>> propertyElement = propertyPairs.get(activeGroup);
-                checkState(propertyElement != null, "activated group '%s' does not exist", activeGroup);
+                final PropertyGroup propertyGroup = groups.get(activeGroup);
+                checkState(propertyGroup != null, "activated group '%s' does not exist", activeGroup);
 
-                final PropertyGroup propertyGroup = propertyElement.getKey();
                 if ((propertyGroup.isActiveOnRelease() && !isSnapshot) || (propertyGroup.isActiveOnSnapshot() && isSnapshot)) {
-                    for (final PropertyElement pe : propertyElement.getValue()) {
+                    if (interpolatorFactory == null) {
+                        // One interpolator for all groups of this execution.
+                        interpolatorFactory = new InterpolatorFactory(Optional.of(model));
+                    }
+
+                    evaluatedGroups.add(activeGroup);
+                    for (final PropertyElement pe : PropertyField.createProperties(interpolatorFactory, values, propertyGroup)) {
                         final Optional<String> value = pe.getPropertyValue();
                         final String propertyName = pe.getPropertyName();
                         IgnoreWarnFail.checkState(propertyGroup.getOnDuplicateProperty(), !propertyNames.contains(propertyName), "property name '" + propertyName + "'");
                         propertyNames.add(propertyName);
 
-                        project.getProperties().setProperty(propertyName, value.or(""));
+                        properties.setProperty(propertyName, value.or(""));
                     }
                 }
                 else {
@@ -274,5 +445,30 @@ public abstract class AbstractPropertyHelperMojo
                 }
             }
         }
+        return evaluatedGroups;
+    }
+
+    private boolean isDeferred(final PropertyElement propertyElement, final Set<String> persistedElements)
+    {
+        return evaluateOnDemand && !propertyElement.isExport() && !persistedElements.contains(propertyElement.getPropertyName());
+    }
+
+    /**
+     * Returns the ids of all elements whose values are stored in a property file or store. Evaluating these
+     * elements may create values that must be written back, so they are never deferred.
+     */
+    private Set<String> findPersistedElements()
+    {
+        final ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+        for (final AbstractDefinition<?>[] definitions : new AbstractDefinition<?>[][] {numbers, strings, dates, macros, uuids}) {
+            if (definitions != null) {
+                for (final AbstractDefinition<?> definition : definitions) {
+                    if (definition.getPropertyFile().isPresent() || definition.getPropertyStore().isPresent()) {
+                        builder.add(definition.getId());
+                    }
+                }
+            }
+        }
+        return builder.build();
     }
 }
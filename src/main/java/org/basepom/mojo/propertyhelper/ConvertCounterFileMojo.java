@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.basepom.mojo.propertyhelper.util.Log;
+
+/**
+ * Converts a properties file into a counter file or back.
+ */
+@Mojo(name="convert-counter-file", requiresProject=false, threadSafe=true)
+public final class ConvertCounterFileMojo extends AbstractMojo
+{
+    protected final Log LOG = Log.findLog();
+
+    /**
+     * The properties file.
+     */
+    @Parameter(property="propertyFile", required=true)
+    private File propertyFile = null;
+
+    /**
+     * The counter file.
+     */
+    @Parameter(property="counterFile", required=true)
+    private File counterFile = null;
+
+    /**
+     * If true, converts the counter file into the properties file. Otherwise the properties file is converted into the counter file.
+     */
+    @Parameter(property="toProperties", defaultValue="false")
+    private boolean toProperties = false;
+
+    @Override
+    public void execute() throws MojoExecutionException
+    {
+        try {
+            if (toProperties) {
+                CounterFile.toProperties(counterFile, propertyFile);
+                LOG.info("Converted '%s' to '%s'", counterFile, propertyFile);
+            }
+            else {
+                CounterFile.fromProperties(propertyFile, counterFile);
+                LOG.info("Converted '%s' to '%s'", propertyFile, counterFile);
+            }
+        }
+        catch (final IOException | IllegalStateException e) {
+            throw new MojoExecutionException("While converting counter file", e);
+        }
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.Striped;
+
+import org.basepom.mojo.propertyhelper.PersistOptions.FsyncPolicy;
+
+/**
+ * A binary file of named 64 bit counters. The file starts with a header, followed by the index of
+ * counter names and one 8 byte slot per counter:
+ * <pre>
+ * int   magic ("PHCF")
+ * int   version
+ * long  generation, changes whenever the index changes
+ * int   number of counters
+ * int   length of the index in bytes
+ * index counter names, in modified UTF-8 (see {@link java.io.DataOutput#writeUTF(String)})
+ * ...   padding to a multiple of 8
+ * long  one slot per counter, in index order
+ * </pre>
+ *
+ * The file is memory mapped. A counter is changed in place while holding a lock on its slot, so builds
+ * that change different counters do not block each other. Adding or removing counters writes a new file
+ * and renames it over the old one while holding a lock on the whole old file, so a crash never leaves a
+ * partially written index behind. The old file is then marked as replaced, so that builds which still
+ * have it open write their changes to the new file.
+ */
+public final class CounterFile implements Closeable
+{
+    private static final int MAGIC = 0x50484346;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int GENERATION_OFFSET = 8;
+    private static final int SLOT_SIZE = 8;
+
+    /** Generation of a file that has been replaced by a new file. */
+    private static final long REPLACED = -1L;
+
+    /**
+     * File locks are held by the JVM and overlapping locks from the same JVM fail instead of waiting.
+     * Threads in the same JVM are serialized with a regular lock first.
+     */
+    private static final Striped<Lock> JVM_LOCKS = Striped.lock(64);
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long generation;
+
+    /** Counter name to slot offset, in index order. */
+    private final Map<String, Integer> slots;
+
+    /**
+     * Opens and maps an existing counter file. Returns {@link Optional#absent()} if the file does not exist.
+     */
+    public static Optional<CounterFile> open(final File file)
+        throws IOException
+    {
+        checkNotNull(file, "file is null");
+
+        for (;;) {
+            final FileChannel channel;
+            try {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            catch (final NoSuchFileException e) {
+                return Optional.absent();
+            }
+
+            CounterFile counterFile = null;
+            try {
+                final Lock jvmLock = jvmLock(file);
+                jvmLock.lock();
+                try {
+                    // The header and index must not change while they are read.
+                    final FileLock lock = channel.lock(0, HEADER_SIZE, true);
+                    try {
+                        if (!isReplaced(channel)) {
+                            counterFile = new CounterFile(file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+                        }
+                    }
+                    finally {
+                        lock.release();
+                    }
+                }
+                finally {
+                    jvmLock.unlock();
+                }
+            }
+            catch (final IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+
+            if (counterFile != null) {
+                return Optional.of(counterFile);
+            }
+
+            // Replaced while it was opened, open the new file.
+            channel.close();
+        }
+    }
+
+    private CounterFile(final File file, final FileChannel channel, final MappedByteBuffer buffer)
+        throws IOException
+    {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+
+        checkState(buffer.limit() >= HEADER_SIZE && buffer.getInt(0) == MAGIC, "'%s' is not a counter file!", file);
+        checkState(buffer.getInt(4) == VERSION, "'%s' has unknown version %d!", file, buffer.getInt(4));
+
+        this.generation = buffer.getLong(GENERATION_OFFSET);
+        final int count = buffer.getInt(16);
+        final int indexLength = buffer.getInt(20);
+
+        final byte[] index = new byte[indexLength];
+        final ByteBuffer indexBuffer = buffer.duplicate();
+        indexBuffer.position(HEADER_SIZE);
+        indexBuffer.get(index);
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+        final Map<String, Integer> slots = Maps.newLinkedHashMap();
+        int offset = slotsOffset(indexLength);
+        for (int i = 0; i < count; i++) {
+            slots.put(in.readUTF(), offset);
+            offset += SLOT_SIZE;
+        }
+        checkState(offset <= buffer.limit(), "'%s' is truncated!", file);
+        this.slots = Collections.unmodifiableMap(slots);
+    }
+
+    /**
+     * Returns the current values of all counters, in index order.
+     */
+    public Map<String, Long> getValues()
+    {
+        final ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+        for (final Map.Entry<String, Integer> slot : slots.entrySet()) {
+            builder.put(slot.getKey(), buffer.getLong(slot.getValue()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Adds a value to a counter in place. Returns false if the counter does not exist or the counters
+     * were added or removed since this file was opened; the change must then be applied with
+     * {@link CounterFile#update(File, Map, Map, Set, boolean)}.
+     */
+    public boolean add(final String name, final long delta)
+        throws IOException
+    {
+        final Integer offset = slots.get(name);
+        if (offset == null) {
+            return false;
+        }
+
+        final Lock jvmLock = jvmLock(file);
+        jvmLock.lock();
+        try {
+            final FileLock lock = channel.lock(offset, SLOT_SIZE, false);
+            try {
+                if (buffer.getLong(GENERATION_OFFSET) != generation) {
+                    return false;
+                }
+                buffer.putLong(offset, buffer.getLong(offset) + delta);
+                return true;
+            }
+            finally {
+                lock.release();
+            }
+        }
+        finally {
+            jvmLock.unlock();
+        }
+    }
+
+    /**
+     * Writes all changes to the storage device.
+     */
+    public void force()
+    {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Changes a counter file while holding a lock on the whole file. Adds the deltas to existing counters, sets
+     * counters to the given values and removes counters. If replace is true, all counters that are not set are
+     * removed. Creates the file if it does not exist. The changed counters are written to a new file, which
+     * replaces the existing file.
+     */
+    public static void update(final File file,
+                              final Map<String, Long> deltas,
+                              final Map<String, Long> values,
+                              final Set<String> removals,
+                              final boolean replace)
+        throws IOException
+    {
+        checkNotNull(file, "file is null");
+        checkNotNull(deltas, "deltas is null");
+        checkNotNull(values, "values is null");
+        checkNotNull(removals, "removals is null");
+
+        final Lock jvmLock = jvmLock(file);
+        jvmLock.lock();
+        try {
+            for (;;) {
+                // The file is created empty if it does not exist, so that there is something to lock.
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    final FileLock lock = channel.lock();
+                    try {
+                        if (isReplaced(channel)) {
+                            continue;
+                        }
+
+                        final Map<String, Long> counters = Maps.newLinkedHashMap();
+                        long generation = 0;
+
+                        if (channel.size() > 0) {
+                            final CounterFile counterFile = new CounterFile(file, channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                            generation = counterFile.generation + 1;
+                            if (!replace) {
+                                counters.putAll(counterFile.getValues());
+                            }
+                        }
+
+                        for (final Map.Entry<String, Long> delta : deltas.entrySet()) {
+                            final Long value = counters.get(delta.getKey());
+                            counters.put(delta.getKey(), (value == null ? 0L : value) + delta.getValue());
+                        }
+                        counters.putAll(values);
+                        counters.keySet().removeAll(removals);
+
+                        replaceFile(file.toPath(), encode(counters, generation));
+                        markReplaced(channel);
+                        return;
+                    }
+                    finally {
+                        lock.release();
+                    }
+                }
+            }
+        }
+        finally {
+            jvmLock.unlock();
+        }
+    }
+
+    /**
+     * Converts a properties file into a counter file. All values must be numbers. Replaces an existing counter file.
+     */
+    public static void fromProperties(final File propertiesFile, final File counterFile)
+        throws IOException
+    {
+        checkNotNull(propertiesFile, "propertiesFile is null");
+        checkNotNull(counterFile, "counterFile is null");
+
+        final PropertiesFile properties;
+        try (InputStream in = new FileInputStream(propertiesFile)) {
+            properties = PropertiesFile.read(in);
+        }
+
+        final Map<String, Long> values = Maps.newLinkedHashMap();
+        for (final Map.Entry<String, String> entry : properties.getValues().entrySet()) {
+            final Long value = Longs.tryParse(entry.getValue());
+            checkState(value != null, "Value '%s' for '%s' in '%s' is not a number!", entry.getValue(), entry.getKey(), propertiesFile);
+            values.put(entry.getKey(), value);
+        }
+
+        update(counterFile, ImmutableMap.<String, Long>of(), values, ImmutableSet.<String>of(), true);
+    }
+
+    /**
+     * Converts a counter file into a properties file. Keeps the comments and the order of an existing properties file,
+     * which is locked and replaced atomically like any other property file.
+     */
+    public static void toProperties(final File counterFile, final File propertiesFile)
+        throws IOException
+    {
+        checkNotNull(counterFile, "counterFile is null");
+        checkNotNull(propertiesFile, "propertiesFile is null");
+
+        final Map<String, String> values = Maps.newLinkedHashMap();
+        final Optional<CounterFile> counters = open(counterFile);
+        checkState(counters.isPresent(), "Counter file '%s' does not exist!", counterFile);
+        try (CounterFile file = counters.get()) {
+            for (final Map.Entry<String, Long> entry : file.getValues().entrySet()) {
+                values.put(entry.getKey(), Long.toString(entry.getValue()));
+            }
+        }
+
+        final PersistOptions persistOptions = new PersistOptions()
+            .setLock(true)
+            .setFsyncPolicy(FsyncPolicy.FILE)
+            .setBackup(false);
+        try (FileValueStore store = new FileValueStore(propertiesFile.getCanonicalFile(), new ValueFileCache(), persistOptions)) {
+            store.load();
+            store.store(values, ImmutableSet.<String>of());
+        }
+    }
+
+    /**
+     * Writes the content to a new file and renames it over the target.
+     */
+    private static void replaceFile(final Path path, final ByteBuffer content)
+        throws IOException
+    {
+        final Path tempFile = FileValueStore.createTempFile(path);
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+                channel.force(true);
+            }
+            FileValueStore.replaceFile(tempFile, path);
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+        FileValueStore.forceFolder(path.toAbsolutePath().getParent());
+    }
+
+    private static boolean isReplaced(final FileChannel channel)
+        throws IOException
+    {
+        if (channel.size() < HEADER_SIZE) {
+            return false;
+        }
+        final ByteBuffer generation = ByteBuffer.allocate(8);
+        while (generation.hasRemaining()) {
+            if (channel.read(generation, GENERATION_OFFSET + generation.position()) < 0) {
+                return false;
+            }
+        }
+        return generation.getLong(0) == REPLACED;
+    }
+
+    /**
+     * Marks a file that has been replaced. An empty file gets a complete header, so that it can be told apart
+     * from a file that is still being created.
+     */
+    private static void markReplaced(final FileChannel channel)
+        throws IOException
+    {
+        final ByteBuffer content;
+        final long position;
+        if (channel.size() < HEADER_SIZE) {
+            content = encode(ImmutableMap.<String, Long>of(), REPLACED);
+            position = 0;
+        }
+        else {
+            content = ByteBuffer.allocate(8);
+            content.putLong(0, REPLACED);
+            position = GENERATION_OFFSET;
+        }
+        while (content.hasRemaining()) {
+            channel.write(content, position + content.position());
+        }
+    }
+
+    private static ByteBuffer encode(final Map<String, Long> counters, final long generation)
+        throws IOException
+    {
+        final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(index);
+        for (final String name : counters.keySet()) {
+            out.writeUTF(name);
+        }
+        out.flush();
+
+        final int slotsOffset = slotsOffset(index.size());
+        final ByteBuffer content = ByteBuffer.allocate(slotsOffset + counters.size() * SLOT_SIZE);
+        content.putInt(MAGIC);
+        content.putInt(VERSION);
+        content.putLong(generation);
+        content.putInt(counters.size());
+        content.putInt(index.size());
+        content.put(index.toByteArray());
+        content.position(slotsOffset);
+        for (final Long value : counters.values()) {
+            content.putLong(value);
+        }
+        content.flip();
+        return content;
+    }
+
+    private static int slotsOffset(final int indexLength)
+    {
+        return (HEADER_SIZE + indexLength + SLOT_SIZE - 1) & -SLOT_SIZE;
+    }
+
+    private static Lock jvmLock(final File file)
+    {
+        return JVM_LOCKS.get(file.getAbsolutePath());
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Longs;
+
+import org.basepom.mojo.propertyhelper.PersistOptions.FsyncPolicy;
+import org.basepom.mojo.propertyhelper.util.Log;
+
+/**
+ * Stores numbers in a {@link CounterFile}. Changes to existing counters are written in place; adding or
+ * removing counters rewrites the file. A change is always recorded as a difference to the loaded value, so
+ * concurrent builds do not lose increments. If locking is enabled, the file stays locked from loading until
+ * the store is closed, so that concurrent builds do not hand out the same numbers either.
+ */
+public final class CounterValueStore implements ValueStore
+{
+    private static final Log LOG = Log.findLog();
+
+    private final File file;
+
+    private final PersistOptions persistOptions;
+
+    /** The values as they were loaded or last written. */
+    private Map<String, String> storedValues = ImmutableMap.of();
+
+    private CounterFile counterFile = null;
+
+    private PropertyFileLock lock = null;
+
+    public CounterValueStore(final File canonicalFile, final PersistOptions persistOptions)
+    {
+        this.file = checkNotNull(canonicalFile, "canonicalFile is null");
+        this.persistOptions = checkNotNull(persistOptions, "persistOptions is null");
+    }
+
+    @Override
+    public Optional<Map<String, String>> load()
+        throws IOException
+    {
+        closeFile();
+
+        if (persistOptions.isLock() && lock == null) {
+            lock = PropertyFileLock.acquire(file, persistOptions.getLockTimeout(), persistOptions.getLockBackoff());
+        }
+
+        final Optional<CounterFile> counters = CounterFile.open(file);
+        if (!counters.isPresent()) {
+            storedValues = ImmutableMap.of();
+            return Optional.absent();
+        }
+
+        counterFile = counters.get();
+        final Map<String, String> values = Maps.newLinkedHashMap();
+        for (final Map.Entry<String, Long> entry : counterFile.getValues().entrySet()) {
+            values.put(entry.getKey(), Long.toString(entry.getValue()));
+        }
+        storedValues = ImmutableMap.copyOf(values);
+        return Optional.of(values);
+    }
+
+    @Override
+    public boolean store(final Map<String, String> values, final Set<String> counters)
+        throws IOException
+    {
+        checkNotNull(values, "values is null");
+        checkNotNull(counters, "counters is null");
+
+        if (counterFile != null && storedValues.equals(values)) {
+            LOG.debug("Values for '%s' are unchanged, not writing them", file);
+            return false;
+        }
+
+        final Map<String, Long> deltas = Maps.newLinkedHashMap();
+        final Map<String, Long> newValues = Maps.newLinkedHashMap();
+        final Set<String> removals = Sets.newHashSet();
+
+        for (final String key : Sets.union(storedValues.keySet(), values.keySet())) {
+            final String oldValue = storedValues.get(key);
+            final String newValue = values.get(key);
+
+            if (newValue == null) {
+                removals.add(key);
+                continue;
+            }
+
+            final Long newNumber = Longs.tryParse(newValue);
+            checkState(newNumber != null, "Counter file '%s' can only store numbers, value '%s' for '%s' is not a number!", file, newValue, key);
+
+            if (oldValue == null) {
+                newValues.put(key, newNumber);
+            }
+            else if (!oldValue.equals(newValue)) {
+                deltas.put(key, newNumber - Long.parseLong(oldValue));
+            }
+        }
+
+        if (counterFile != null && newValues.isEmpty() && removals.isEmpty()) {
+            // Only existing counters changed, update them in place.
+            for (final Iterator<Map.Entry<String, Long>> it = deltas.entrySet().iterator(); it.hasNext(); ) {
+                final Map.Entry<String, Long> delta = it.next();
+                if (!counterFile.add(delta.getKey(), delta.getValue())) {
+                    break;
+                }
+                it.remove();
+            }
+
+            if (persistOptions.getFsyncPolicy() != FsyncPolicy.NONE) {
+                counterFile.force();
+            }
+        }
+
+        if (counterFile == null || !deltas.isEmpty() || !newValues.isEmpty() || !removals.isEmpty()) {
+            if (counterFile == null) {
+                Files.createDirectories(file.toPath().toAbsolutePath().getParent());
+            }
+            CounterFile.update(file, deltas, newValues, removals, false);
+            LOG.debug("Rewrote counter file '%s'", file);
+
+            // The layout changed, map the new file.
+            closeFile();
+            counterFile = CounterFile.open(file).get();
+        }
+
+        storedValues = ImmutableMap.copyOf(values);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            closeFile();
+        }
+        finally {
+            if (lock != null) {
+                lock.close();
+                lock = null;
+            }
+        }
+    }
+
+    private void closeFile() throws IOException
+    {
+        if (counterFile != null) {
+            counterFile.close();
+            counterFile = null;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return file.getPath();
+    }
+}
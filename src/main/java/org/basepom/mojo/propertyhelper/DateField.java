@@ -31,6 +31,7 @@ public class DateField implements PropertyElement
 {
     private final DateDefinition dateDefinition;
     private final ValueProvider valueProvider;
+    private final MemoizedValue memoizedValue;
 
     public static List<DateField> createDates(final ValueCache valueCache, final DateDefinition[] dateDefinitions)
         throws IOException
@@ -53,6 +54,7 @@ public class DateField implements PropertyElement
     {
         this.dateDefinition = dateDefinition;
         this.valueProvider = valueProvider;
+        this.memoizedValue = new MemoizedValue(this.valueProvider);
     }
 
     @Override
@@ -63,6 +65,14 @@ public class DateField implements PropertyElement
 
     @Override
     public Optional<String> getPropertyValue()
+    {
+        if (memoizedValue.isValid()) {
+            return memoizedValue.get();
+        }
+        return memoizedValue.set(computePropertyValue());
+    }
+
+    private Optional<String> computePropertyValue()
     {
         final DateTimeZone timeZone = dateDefinition.getTimezone().isPresent()
                         ? DateTimeZone.forID(dateDefinition.getTimezone().get())
@@ -98,7 +108,7 @@ public class DateField implements PropertyElement
         }
 
         if (dateDefinition.getTransformers().isPresent()) {
-            result = TransformerRegistry.applyTransformers(dateDefinition.getTransformers().get(), result);
+            result = TransformerRegistry.compile(dateDefinition.getTransformers().get()).apply(result);
         }
         return Optional.fromNullable(result);
     }
@@ -0,0 +1,379 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import org.basepom.mojo.propertyhelper.PersistOptions.FsyncPolicy;
+import org.basepom.mojo.propertyhelper.util.Log;
+
+/**
+ * Stores values in a java properties file. This is the default store.
+ */
+public final class FileValueStore implements ValueStore
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final String FILE_COMMENT = "created by property-helper-maven-plugin";
+
+    private static final Pattern NUMBER_GROUPS = Pattern.compile("\\d+|[^\\d]+");
+
+    private final File file;
+
+    /** Session wide cache, shared with all other executions. */
+    private final ValueFileCache valueFileCache;
+
+    private final PersistOptions persistOptions;
+
+    /** The file as it was loaded or last written. Null if it does not exist. */
+    private PropertiesFile propertiesFile = null;
+
+    /** Only used if the persist options ask for locking. */
+    private PropertyFileLock lock = null;
+
+    public FileValueStore(final File canonicalFile, final ValueFileCache valueFileCache, final PersistOptions persistOptions)
+    {
+        this.file = checkNotNull(canonicalFile, "canonicalFile is null");
+        this.valueFileCache = checkNotNull(valueFileCache, "valueFileCache is null");
+        this.persistOptions = checkNotNull(persistOptions, "persistOptions is null");
+    }
+
+    @Override
+    public Optional<Map<String, String>> load()
+        throws IOException
+    {
+        final Optional<PropertiesFile> loadedFile;
+        if (persistOptions.isLock()) {
+            // Keep the file locked until it has been persisted, so that no other
+            // build can hand out the same values. Read the current contents under the lock.
+            lock = PropertyFileLock.acquire(file, persistOptions.getLockTimeout(), persistOptions.getLockBackoff());
+            loadedFile = valueFileCache.loadFile(file);
+            if (loadedFile.isPresent()) {
+                valueFileCache.update(file, loadedFile.get());
+            }
+        }
+        else {
+            // The file contents come from the session cache. An absent value means that the file does not exist.
+            loadedFile = valueFileCache.getFile(file);
+        }
+
+        propertiesFile = loadedFile.orNull();
+        return loadedFile.isPresent() ? Optional.of(propertiesFile.getValues()) : Optional.<Map<String, String>>absent();
+    }
+
+    @Override
+    public boolean store(final Map<String, String> values, final Set<String> counters)
+        throws IOException
+    {
+        checkNotNull(values, "values is null");
+        checkNotNull(counters, "counters is null");
+
+        // Writers that do not lock may have changed the file since it was loaded. If the file
+        // is locked, re-read it. Otherwise, pick up at least the changes made in this session.
+        // Apply only the changes from this execution.
+        Map<String, String> newValues = values;
+        final PropertiesFile currentFile = lock != null ? valueFileCache.loadFile(file).orNull() : valueFileCache.getFile(file).orNull();
+        if (currentFile != propertiesFile) {
+            newValues = mergeChanges(getValues(currentFile), getValues(propertiesFile), values, counters);
+            propertiesFile = currentFile;
+        }
+
+        boolean written = false;
+
+        // Rewriting a file with the same values only changes its timestamp,
+        // which triggers incremental builds and file watchers for no reason.
+        if (propertiesFile != null && propertiesFile.getValues().equals(newValues)) {
+            LOG.debug("Values for '%s' are unchanged, not writing it", file);
+        }
+        else {
+            final boolean exists = propertiesFile != null;
+            propertiesFile = writeFile(exists ? propertiesFile : PropertiesFile.create(FILE_COMMENT), newValues, exists);
+            written = true;
+        }
+
+        valueFileCache.update(file, propertiesFile);
+        return written;
+    }
+
+    /**
+     * Releases the file lock, if any.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (lock != null) {
+            lock.close();
+            lock = null;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return file.getPath();
+    }
+
+    private static Map<String, String> getValues(final PropertiesFile propertiesFile)
+    {
+        return propertiesFile == null ? ImmutableMap.<String, String>of() : propertiesFile.getValues();
+    }
+
+    /**
+     * Writes the values to a temporary file in the same folder and moves it in place with a
+     * single atomic rename, so the property file is never missing or partially written.
+     */
+    private PropertiesFile writeFile(final PropertiesFile propertiesFile, final Map<String, String> values, final boolean exists)
+        throws IOException
+    {
+        final Path path = file.toPath();
+        final FsyncPolicy fsyncPolicy = persistOptions.getFsyncPolicy();
+
+        // If the file exists, so does its folder. Saves a round trip on network file systems.
+        final Path folder = path.toAbsolutePath().getParent();
+        if (!exists) {
+            Files.createDirectories(folder);
+        }
+
+        final Path tempFile = createTempFile(path);
+        final PropertiesFile newFile;
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                final OutputStream stream = Channels.newOutputStream(channel);
+                newFile = propertiesFile.write(stream, values);
+                if (fsyncPolicy != FsyncPolicy.NONE) {
+                    channel.force(true);
+                }
+            }
+
+            if (exists && persistOptions.isBackup()) {
+                backupFile(path);
+            }
+
+            replaceFile(tempFile, path);
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+
+        if (fsyncPolicy == FsyncPolicy.DIRECTORY) {
+            forceFolder(folder);
+        }
+
+        return newFile;
+    }
+
+    /**
+     * Creates an empty file in the folder of the target, to be moved in place of the target. The file
+     * is created with the default permissions, or the permissions of the target if it exists, so that
+     * replacing a shared file does not change who can read it.
+     */
+    static Path createTempFile(final Path target)
+        throws IOException
+    {
+        final Path folder = target.toAbsolutePath().getParent();
+
+        // Files#createTempFile always restricts the file to its owner.
+        Path tempFile;
+        for (;;) {
+            tempFile = folder.resolve(target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE) + ".tmp");
+            try {
+                Files.createFile(tempFile);
+                break;
+            }
+            catch (final FileAlreadyExistsException e) {
+                LOG.trace("'%s' exists, trying another name", tempFile);
+            }
+        }
+
+        try {
+            if (Files.exists(target) && Files.getFileAttributeView(target, PosixFileAttributeView.class) != null) {
+                Files.setPosixFilePermissions(tempFile, Files.getPosixFilePermissions(target));
+            }
+        }
+        catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        return tempFile;
+    }
+
+    /**
+     * Replaces a file with a single atomic rename, if the file system supports it.
+     */
+    static void replaceFile(final Path source, final Path target)
+        throws IOException
+    {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (final AtomicMoveNotSupportedException e) {
+            LOG.debug("Atomic move not supported for '%s', falling back to regular move", target);
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Makes a rename in the folder durable. Not all platforms can open a folder for this.
+     */
+    static void forceFolder(final Path folder)
+    {
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (final IOException e) {
+            LOG.debug(e, "Could not force folder '%s'", folder);
+        }
+    }
+
+    /**
+     * Keeps the current contents of a file as ".bak". A hard link is used where possible, so
+     * the current file stays in place until it is replaced.
+     */
+    private static void backupFile(final Path path)
+        throws IOException
+    {
+        final Path backupPath = path.resolveSibling(path.getFileName() + ".bak");
+        Files.deleteIfExists(backupPath);
+        try {
+            Files.createLink(backupPath, path);
+        }
+        catch (final IOException | UnsupportedOperationException e) {
+            LOG.trace("Could not link '%s', copying it", backupPath);
+            Files.copy(path, backupPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+
+    /**
+     * Applies the changes between base and current to the values in target. Keys that were
+     * not changed keep the value from target. If a counter was changed both in target and in
+     * current and all values are made up of the same non-numeric parts (e.g. two builds
+     * incremented the same version number), the numeric difference between base and current
+     * is added to target. Otherwise the value from current wins. Only counters are merged, other
+     * values that look like numbers (dates, zero padded ids) would be corrupted by adding up changes.
+     */
+    @VisibleForTesting
+    static Map<String, String> mergeChanges(final Map<String, String> target,
+                                            final Map<String, String> base,
+                                            final Map<String, String> current,
+                                            final Set<String> counters)
+    {
+        final Map<String, String> result = Maps.newLinkedHashMap(target);
+
+        for (final String key : Sets.union(base.keySet(), current.keySet())) {
+            final String baseValue = base.get(key);
+            final String currentValue = current.get(key);
+            final String targetValue = target.get(key);
+
+            if (Objects.equal(baseValue, currentValue) || Objects.equal(targetValue, currentValue)) {
+                // not changed by this execution or changed to the same value.
+                continue;
+            }
+
+            String value = currentValue;
+            if (!Objects.equal(targetValue, baseValue)) {
+                final Optional<String> mergedValue = counters.contains(key)
+                    ? mergeNumbers(targetValue, baseValue, currentValue)
+                    : Optional.<String>absent();
+                if (mergedValue.isPresent()) {
+                    LOG.debug("Merged concurrent change of '%s': %s -> %s, stored %s", key, baseValue, currentValue, mergedValue.get());
+                    value = mergedValue.get();
+                }
+                else {
+                    LOG.warn("Property '%s' was changed concurrently (%s -> %s), overwriting it with %s!", key, baseValue, targetValue, currentValue);
+                }
+            }
+
+            if (value == null) {
+                result.remove(key);
+            }
+            else {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    private static Optional<String> mergeNumbers(final String targetValue, final String baseValue, final String currentValue)
+    {
+        if (targetValue == null || baseValue == null || currentValue == null) {
+            return Optional.absent();
+        }
+
+        final List<String> targetElements = splitNumbers(targetValue);
+        final List<String> baseElements = splitNumbers(baseValue);
+        final List<String> currentElements = splitNumbers(currentValue);
+
+        if (targetElements.size() != baseElements.size() || baseElements.size() != currentElements.size()) {
+            return Optional.absent();
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        try {
+            for (int i = 0; i < baseElements.size(); i++) {
+                final String baseElement = baseElements.get(i);
+                if (Character.isDigit(baseElement.charAt(0))) {
+                    final long delta = Long.parseLong(currentElements.get(i)) - Long.parseLong(baseElement);
+                    sb.append(Long.parseLong(targetElements.get(i)) + delta);
+                }
+                else if (baseElement.equals(targetElements.get(i)) && baseElement.equals(currentElements.get(i))) {
+                    sb.append(baseElement);
+                }
+                else {
+                    return Optional.absent();
+                }
+            }
+        }
+        catch (NumberFormatException e) {
+            return Optional.absent();
+        }
+        return Optional.of(sb.toString());
+    }
+
+    private static List<String> splitNumbers(final String value)
+    {
+        final List<String> result = Lists.newArrayList();
+        final Matcher m = NUMBER_GROUPS.matcher(value);
+        while (m.find()) {
+            result.add(m.group());
+        }
+        return result;
+    }
+}
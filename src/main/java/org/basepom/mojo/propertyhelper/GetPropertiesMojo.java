@@ -30,6 +30,12 @@ public final class GetPropertiesMojo extends AbstractPropertyHelperMojo
     @Parameter(defaultValue="false")
     private boolean persist = false;
 
+    @Override
+    protected boolean isPersist()
+    {
+        return persist;
+    }
+
     @Override
     protected void doExecute() throws Exception
     {
@@ -30,6 +30,12 @@ public final class IncrementNumbersMojo extends AbstractPropertyHelperMojo
     @Parameter(defaultValue="true")
     private boolean persist = true;
 
+    @Override
+    protected boolean isPersist()
+    {
+        return persist;
+    }
+
     @Override
     protected void doExecute() throws Exception
     {
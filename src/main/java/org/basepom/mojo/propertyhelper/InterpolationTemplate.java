@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
+
+/**
+ * A value split into literal text and <tt>#{...}</tt> expressions. Values are parsed once; evaluating a
+ * template appends its parts in order, see {@link InterpolatorFactory#interpolate(InterpolationTemplate, org.basepom.mojo.propertyhelper.beans.IgnoreWarnFail, java.util.Map)}.
+ */
+public final class InterpolationTemplate
+{
+    static final String PREFIX = "#{";
+    static final String POSTFIX = "}";
+
+    /** Values that are resolved from value sources are parsed over and over again. */
+    private static final LoadingCache<String, InterpolationTemplate> TEMPLATES = CacheBuilder.newBuilder()
+        .maximumSize(1000)
+        .build(new CacheLoader<String, InterpolationTemplate>() {
+            @Override
+            public InterpolationTemplate load(final String value)
+            {
+                return parse(value);
+            }
+        });
+
+    private final String value;
+
+    /** Literal text or the expression without prefix and postfix. */
+    private final String[] parts;
+    private final boolean[] expressions;
+    private final boolean constant;
+
+    /**
+     * Returns the template for a value, from a cache of recently used templates.
+     */
+    public static InterpolationTemplate forValue(final String value)
+    {
+        checkNotNull(value, "value is null");
+        return TEMPLATES.getUnchecked(value);
+    }
+
+    public static InterpolationTemplate parse(final String value)
+    {
+        checkNotNull(value, "value is null");
+
+        final List<String> parts = Lists.newArrayList();
+        final List<Boolean> expressions = Lists.newArrayList();
+
+        int start = 0;
+        while (start < value.length()) {
+            final int prefix = value.indexOf(PREFIX, start);
+            final int postfix = prefix < 0 ? -1 : value.indexOf(POSTFIX, prefix + PREFIX.length());
+            if (postfix < 0) {
+                break;
+            }
+
+            if (prefix > start) {
+                parts.add(value.substring(start, prefix));
+                expressions.add(Boolean.FALSE);
+            }
+
+            String expression = value.substring(prefix + PREFIX.length(), postfix);
+            // Same as the plexus interpolator, "#{.foo}" is "#{foo}".
+            if (expression.startsWith(".")) {
+                expression = expression.substring(1);
+            }
+            parts.add(expression);
+            expressions.add(Boolean.TRUE);
+
+            start = postfix + POSTFIX.length();
+        }
+
+        if (start < value.length()) {
+            parts.add(value.substring(start));
+            expressions.add(Boolean.FALSE);
+        }
+
+        final boolean[] expressionFlags = new boolean[expressions.size()];
+        for (int i = 0; i < expressionFlags.length; i++) {
+            expressionFlags[i] = expressions.get(i);
+        }
+
+        return new InterpolationTemplate(value, parts.toArray(new String[parts.size()]), expressionFlags);
+    }
+
+    private InterpolationTemplate(final String value, final String[] parts, final boolean[] expressions)
+    {
+        this.value = value;
+        this.parts = parts;
+        this.expressions = expressions;
+
+        boolean constant = true;
+        for (final boolean expression : expressions) {
+            constant &= !expression;
+        }
+        this.constant = constant;
+    }
+
+    /**
+     * True if the value contains no expressions.
+     */
+    public boolean isConstant()
+    {
+        return constant;
+    }
+
+    int size()
+    {
+        return parts.length;
+    }
+
+    String getPart(final int index)
+    {
+        return parts[index];
+    }
+
+    boolean isExpression(final int index)
+    {
+        return expressions[index];
+    }
+
+    @Override
+    public String toString()
+    {
+        return value;
+    }
+}
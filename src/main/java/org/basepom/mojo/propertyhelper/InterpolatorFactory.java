@@ -18,62 +18,234 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.Properties;
+import java.util.Set;
 
 import org.apache.maven.model.Model;
 import org.basepom.mojo.propertyhelper.beans.IgnoreWarnFail;
+import org.codehaus.plexus.interpolation.AbstractValueSource;
 import org.codehaus.plexus.interpolation.EnvarBasedValueSource;
+import org.codehaus.plexus.interpolation.InterpolationCycleException;
 import org.codehaus.plexus.interpolation.InterpolationException;
-import org.codehaus.plexus.interpolation.Interpolator;
-import org.codehaus.plexus.interpolation.MapBasedValueSource;
-import org.codehaus.plexus.interpolation.ObjectBasedValueSource;
 import org.codehaus.plexus.interpolation.PrefixAwareRecursionInterceptor;
 import org.codehaus.plexus.interpolation.PrefixedValueSourceWrapper;
 import org.codehaus.plexus.interpolation.PropertiesBasedValueSource;
-import org.codehaus.plexus.interpolation.StringSearchInterpolator;
+import org.codehaus.plexus.interpolation.RecursionInterceptor;
+import org.codehaus.plexus.interpolation.ValueSource;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
 
+/**
+ * Interpolates property values. The value sources are built once and reused for every value.
+ * Environment, system and model properties are snapshots taken when the factory is created.
+ * <br>
+ * Values are evaluated as {@link InterpolationTemplate}s. Expressions are resolved like the plexus
+ * {@link org.codehaus.plexus.interpolation.StringSearchInterpolator} does: the first value source that
+ * knows an expression wins and its value is interpolated again. Unresolved expressions are dropped.
+ */
 public final class InterpolatorFactory
 {
     private static final List<String> SYNONYM_PREFIXES = ImmutableList.of("project", "pom");
-    private static final String PREFIX = "#{";
-    private static final String POSTFIX = "}";
 
-    private final Optional<Model> model;
+    /** The environment can not change while the JVM runs, so it is read only once. */
+    private static final Supplier<ValueSource> ENVIRONMENT = Suppliers.memoize(new Supplier<ValueSource>() {
+        @Override
+        public ValueSource get()
+        {
+            try {
+                return new EnvarBasedValueSource();
+            }
+            catch (final IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    });
+
+    private final List<ValueSource> valueSources;
+
+    /** The value sources without their prefix wrappers, which do not report the feedback of the wrapped source. */
+    private final List<ValueSource> feedbackSources;
+
+    private final CurrentValueSource currentValues = new CurrentValueSource();
 
     public InterpolatorFactory(final Optional<Model> model)
     {
-        this.model = checkNotNull(model, "model is null");
+        checkNotNull(model, "model is null");
+
+        final ImmutableList.Builder<ValueSource> builder = ImmutableList.builder();
+        final ImmutableList.Builder<ValueSource> feedbackBuilder = ImmutableList.builder();
+        builder.add(ENVIRONMENT.get());
+        final ValueSource systemProperties = new PropertiesBasedValueSource(snapshot(System.getProperties()));
+        builder.add(systemProperties);
+        feedbackBuilder.add(ENVIRONMENT.get(), systemProperties);
+
+        if (model.isPresent()) {
+            final Model pomModel = model.get();
+            final ValueSource modelValues = new ModelValueSource(pomModel);
+            builder.add(new PrefixedValueSourceWrapper(modelValues,
+                                                       SYNONYM_PREFIXES,
+                                                       true));
+
+            final ValueSource modelProperties = new PropertiesBasedValueSource(snapshot(pomModel.getProperties()));
+            builder.add(new PrefixedValueSourceWrapper(modelProperties,
+                                                       SYNONYM_PREFIXES,
+                                                       true));
+            feedbackBuilder.add(modelValues, modelProperties);
+        }
+
+        builder.add(currentValues);
+        feedbackBuilder.add(currentValues);
+        valueSources = builder.build();
+        feedbackSources = feedbackBuilder.build();
     }
 
     public String interpolate(final String value, final IgnoreWarnFail onMissingProperty, final Map<String, String> properties)
                     throws IOException, InterpolationException
     {
         checkNotNull(value, "value is null");
+        return interpolate(InterpolationTemplate.forValue(value), onMissingProperty, properties);
+    }
+
+    public synchronized String interpolate(final InterpolationTemplate template, final IgnoreWarnFail onMissingProperty, final Map<String, String> properties)
+                    throws IOException, InterpolationException
+    {
+        checkNotNull(template, "template is null");
         checkNotNull(properties, "properties is null");
 
-        final Interpolator interpolator = new StringSearchInterpolator(PREFIX, POSTFIX);
-        interpolator.addValueSource(new EnvarBasedValueSource());
-        interpolator.addValueSource(new PropertiesBasedValueSource(System.getProperties()));
+        if (template.isConstant()) {
+            return template.toString();
+        }
 
-        if (model.isPresent()) {
-            final Model pomModel = model.get();
-            interpolator.addValueSource(new PrefixedValueSourceWrapper(new ObjectBasedValueSource(pomModel),
-                                                                       SYNONYM_PREFIXES,
-                                                                       true));
+        final Evaluation evaluation = new Evaluation();
+        currentValues.setValues(properties);
+        try {
+            evaluate(template, evaluation);
+        }
+        finally {
+            currentValues.setValues(null);
+            // Value sources collect feedback for every failed lookup. Do not let it pile up.
+            for (final ValueSource valueSource : feedbackSources) {
+                valueSource.clearFeedback();
+            }
+        }
 
-            interpolator.addValueSource(new PrefixedValueSourceWrapper(new PropertiesBasedValueSource(pomModel.getProperties()),
-                                                                       SYNONYM_PREFIXES,
-                                                                       true));
+        IgnoreWarnFail.checkState(onMissingProperty, !evaluation.missing, "property");
+        return evaluation.result.toString();
+    }
+
+    /**
+     * Returns the feedback that the value sources collected and have not cleared.
+     */
+    @VisibleForTesting
+    synchronized List<?> getFeedback()
+    {
+        final ImmutableList.Builder<Object> feedback = ImmutableList.builder();
+        for (final ValueSource valueSource : feedbackSources) {
+            final List<?> sourceFeedback = valueSource.getFeedback();
+            if (sourceFeedback != null) {
+                feedback.addAll(sourceFeedback);
+            }
         }
+        return feedback.build();
+    }
 
-        interpolator.addValueSource(new MapBasedValueSource(properties));
+    private void evaluate(final InterpolationTemplate template, final Evaluation evaluation)
+        throws InterpolationException
+    {
+        for (int i = 0; i < template.size(); i++) {
+            if (template.isExpression(i)) {
+                resolve(template.getPart(i), evaluation);
+            }
+            else {
+                evaluation.result.append(template.getPart(i));
+            }
+        }
+    }
+
+    private void resolve(final String expression, final Evaluation evaluation)
+        throws InterpolationException
+    {
+        final String wholeExpression = InterpolationTemplate.PREFIX + expression + InterpolationTemplate.POSTFIX;
+
+        if (evaluation.unresolvable.contains(expression)) {
+            evaluation.missing = true;
+            return;
+        }
+
+        final RecursionInterceptor recursionInterceptor = evaluation.recursionInterceptor;
+        if (recursionInterceptor.hasRecursiveExpression(expression)) {
+            throw new InterpolationCycleException(recursionInterceptor, expression, wholeExpression);
+        }
+
+        recursionInterceptor.expressionResolutionStarted(expression);
+        try {
+            for (final ValueSource valueSource : valueSources) {
+                final Object value = valueSource.getValue(expression);
+                if (value != null) {
+                    final String stringValue = String.valueOf(value);
+                    if (stringValue.contains(wholeExpression)) {
+                        throw new InterpolationCycleException(recursionInterceptor, expression, wholeExpression);
+                    }
+                    evaluate(InterpolationTemplate.forValue(stringValue), evaluation);
+                    return;
+                }
+            }
+
+            evaluation.unresolvable.add(expression);
+            evaluation.missing = true;
+        }
+        finally {
+            recursionInterceptor.expressionResolutionFinished(expression);
+        }
+    }
+
+    private static Properties snapshot(final Properties properties)
+    {
+        final Properties result = new Properties();
+        for (final String name : properties.stringPropertyNames()) {
+            result.setProperty(name, properties.getProperty(name));
+        }
+        return result;
+    }
 
-        final String result = interpolator.interpolate(value, new PrefixAwareRecursionInterceptor(SYNONYM_PREFIXES, true));
-        final String stripped = result.replaceAll(Pattern.quote(PREFIX) + ".*?" + Pattern.quote(POSTFIX), "");
-        IgnoreWarnFail.checkState(onMissingProperty, stripped.equals(result), "property");
-        return stripped;
+    /**
+     * The state of a single call to interpolate.
+     */
+    private static final class Evaluation
+    {
+        private final StringBuilder result = new StringBuilder();
+        private final RecursionInterceptor recursionInterceptor = new PrefixAwareRecursionInterceptor(SYNONYM_PREFIXES, true);
+        private final Set<String> unresolvable = Sets.newHashSet();
+        private boolean missing = false;
+    }
+
+    /**
+     * Resolves from the properties passed to the current call of {@link InterpolatorFactory#interpolate}.
+     */
+    private static final class CurrentValueSource extends AbstractValueSource
+    {
+        private Map<String, String> values = null;
+
+        private CurrentValueSource()
+        {
+            super(false);
+        }
+
+        private void setValues(final Map<String, String> values)
+        {
+            this.values = values;
+        }
+
+        @Override
+        public Object getValue(final String expression)
+        {
+            return values == null ? null : values.get(expression);
+        }
     }
 }
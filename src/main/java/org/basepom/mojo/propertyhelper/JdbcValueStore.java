@@ -0,0 +1,307 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static java.lang.String.format;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Longs;
+
+import org.basepom.mojo.propertyhelper.util.Log;
+
+/**
+ * Stores values in a database table, one row per value. If the persist options ask for locking, every row
+ * that the execution reads is read again with "SELECT ... FOR UPDATE" and stays locked until the changed
+ * values are committed or the store is closed. A concurrent build waits for the lock and then reads the
+ * new value, so two builds never hand out the same number. Rows that are added by concurrent builds are
+ * not locked; the second insert of the same value fails.
+ * <p>
+ * Counters are written as the difference to the loaded value, so concurrent builds that do not lock never
+ * lose an increment. Other values are overwritten. The JDBC driver must be added to the plugin dependencies.
+ */
+public final class JdbcValueStore implements ValueStore
+{
+    private static final Log LOG = Log.findLog();
+
+    public static final String TABLE_NAME = "property_values";
+
+    private static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME
+        + " (property_name VARCHAR(255) NOT NULL PRIMARY KEY, property_value VARCHAR(4000) NOT NULL)";
+    private static final String SELECT = "SELECT property_name, property_value FROM " + TABLE_NAME;
+    private static final String SELECT_FOR_UPDATE = "SELECT property_value FROM " + TABLE_NAME + " WHERE property_name = ? FOR UPDATE";
+    private static final String INSERT = "INSERT INTO " + TABLE_NAME + " (property_name, property_value) VALUES (?, ?)";
+    private static final String UPDATE = "UPDATE " + TABLE_NAME + " SET property_value = ? WHERE property_name = ?";
+    private static final String INCREMENT = "UPDATE " + TABLE_NAME
+        + " SET property_value = CAST(CAST(property_value AS BIGINT) + ? AS VARCHAR(4000)) WHERE property_name = ?";
+    private static final String DELETE = "DELETE FROM " + TABLE_NAME + " WHERE property_name = ?";
+
+    private final String url;
+
+    private final PersistOptions persistOptions;
+
+    /** The values as they were loaded or last written. */
+    private Map<String, String> storedValues = ImmutableMap.of();
+
+    /** Names of the rows locked in the current transaction. */
+    private final Set<String> lockedNames = Sets.newHashSet();
+
+    private boolean exists = false;
+
+    /** Open from load until close. Holds the row locks while a transaction is active. */
+    private Connection connection = null;
+
+    public JdbcValueStore(final String url, final PersistOptions persistOptions)
+    {
+        checkNotNull(url, "url is null");
+        checkArgument(url.startsWith("jdbc:"), "'%s' is not a JDBC url!", url);
+        this.url = url;
+        this.persistOptions = checkNotNull(persistOptions, "persistOptions is null");
+    }
+
+    @Override
+    public Optional<Map<String, String>> load()
+        throws IOException
+    {
+        try {
+            close();
+            connection = DriverManager.getConnection(url);
+            connection.setAutoCommit(false);
+
+            exists = tableExists(connection);
+            if (!exists) {
+                return Optional.absent();
+            }
+
+            final Map<String, String> values = Maps.newLinkedHashMap();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(SELECT)) {
+                while (resultSet.next()) {
+                    values.put(resultSet.getString(1), resultSet.getString(2));
+                }
+            }
+
+            LOG.debug("Loaded %d values from %s", values.size(), this);
+            storedValues = ImmutableMap.copyOf(values);
+            return Optional.of(storedValues);
+        }
+        catch (final SQLException e) {
+            close();
+            throw new IOException(format("Could not load values from %s", this), e);
+        }
+    }
+
+    /**
+     * Locks the row of a value that the execution reads, if the persist options ask for locking. The row
+     * stays locked until the values are stored or the store is closed.
+     *
+     * @return True if the row was locked by this call. The loaded value may have been changed by a concurrent
+     *         build, {@link #getStoredValue(String)} returns the current one. False if nothing was locked.
+     */
+    public boolean lockValue(final String name)
+        throws IOException
+    {
+        checkNotNull(name, "name is null");
+        checkState(connection != null, "%s was not loaded", this);
+
+        if (!persistOptions.isLock() || !exists || !lockedNames.add(name)) {
+            return false;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_FOR_UPDATE)) {
+            statement.setQueryTimeout(getLockTimeoutSeconds());
+            statement.setString(1, name);
+            final Map<String, String> values = Maps.newLinkedHashMap(storedValues);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    values.put(name, resultSet.getString(1));
+                }
+                else {
+                    values.remove(name);
+                }
+            }
+            LOG.debug("Locked '%s' in %s", name, this);
+            storedValues = ImmutableMap.copyOf(values);
+            return true;
+        }
+        catch (final SQLException e) {
+            throw new IOException(format("Could not lock '%s' in %s", name, this), e);
+        }
+    }
+
+    public Optional<String> getStoredValue(final String name)
+    {
+        return Optional.fromNullable(storedValues.get(name));
+    }
+
+    @Override
+    public boolean store(final Map<String, String> values, final Set<String> counters)
+        throws IOException
+    {
+        checkNotNull(values, "values is null");
+        checkNotNull(counters, "counters is null");
+        checkState(connection != null, "%s was not loaded", this);
+
+        try {
+            if (exists && storedValues.equals(values)) {
+                LOG.debug("Values for %s are unchanged, not writing them", this);
+                // Release the row locks.
+                commit();
+                return false;
+            }
+
+            try {
+                if (!tableExists(connection)) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.executeUpdate(CREATE_TABLE);
+                    }
+                }
+
+                for (final String name : Sets.union(storedValues.keySet(), values.keySet())) {
+                    storeValue(connection, name, storedValues.get(name), values.get(name), counters.contains(name));
+                }
+                commit();
+            }
+            catch (final SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        catch (final SQLException e) {
+            throw new IOException(format("Could not store values in %s", this), e);
+        }
+
+        exists = true;
+        storedValues = ImmutableMap.copyOf(values);
+        return true;
+    }
+
+    /**
+     * Rolls back anything that was not stored and releases the row locks.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        if (connection == null) {
+            return;
+        }
+
+        try (Connection openConnection = connection) {
+            connection = null;
+            lockedNames.clear();
+            openConnection.rollback();
+        }
+        catch (final SQLException e) {
+            throw new IOException(format("Could not close %s", this), e);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        // The url may contain credentials.
+        final int index = CharMatcher.anyOf(";?").indexIn(url);
+        return index < 0 ? url : url.substring(0, index);
+    }
+
+    private void commit()
+        throws SQLException
+    {
+        connection.commit();
+        lockedNames.clear();
+    }
+
+    private int getLockTimeoutSeconds()
+    {
+        // 0 means no timeout for JDBC, round up to wait at least one second.
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1L, (persistOptions.getLockTimeout() + 999L) / 1000L));
+    }
+
+    private static void storeValue(final Connection connection, final String name, final String oldValue, final String newValue, final boolean counter)
+        throws SQLException
+    {
+        if (Objects.equal(oldValue, newValue)) {
+            return;
+        }
+
+        if (newValue == null) {
+            try (PreparedStatement statement = connection.prepareStatement(DELETE)) {
+                statement.setString(1, name);
+                statement.executeUpdate();
+            }
+            return;
+        }
+
+        final Long oldNumber = counter && oldValue != null ? Longs.tryParse(oldValue) : null;
+        final Long newNumber = counter ? Longs.tryParse(newValue) : null;
+
+        final int rows;
+        if (oldNumber != null && newNumber != null) {
+            try (PreparedStatement statement = connection.prepareStatement(INCREMENT)) {
+                statement.setLong(1, newNumber - oldNumber);
+                statement.setString(2, name);
+                rows = statement.executeUpdate();
+            }
+        }
+        else {
+            try (PreparedStatement statement = connection.prepareStatement(UPDATE)) {
+                statement.setString(1, newValue);
+                statement.setString(2, name);
+                rows = statement.executeUpdate();
+            }
+        }
+
+        if (rows == 0) {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+                statement.setString(1, name);
+                statement.setString(2, newValue);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    private static boolean tableExists(final Connection connection)
+        throws SQLException
+    {
+        // Databases differ in how they store unquoted names.
+        for (final String tableName : new String[] {TABLE_NAME, TABLE_NAME.toUpperCase(Locale.ENGLISH)}) {
+            try (ResultSet resultSet = connection.getMetaData().getTables(null, null, tableName, new String[] {"TABLE"})) {
+                if (resultSet.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
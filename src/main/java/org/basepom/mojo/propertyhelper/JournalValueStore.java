@@ -0,0 +1,348 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static java.lang.String.format;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Longs;
+
+import org.basepom.mojo.propertyhelper.PersistOptions.FsyncPolicy;
+import org.basepom.mojo.propertyhelper.util.Log;
+
+/**
+ * Stores values in a journal file. Every change is appended as a single record, so persisting a
+ * value never rewrites the file. A record is a line that starts with "set", "inc" or "del", followed
+ * by a property in the format of a java properties file and ends with a line feed. A change to a counter
+ * is recorded as an increment, so concurrent builds do not lose changes; all other changes are recorded
+ * as "set". Loading replays all complete records; an incomplete record left at the end by a crash is
+ * ignored and dropped by the next write.
+ * <br>
+ * Once the journal is larger than the compaction size, the write that crossed it replaces the journal
+ * with one that contains one "set" record for each value. This happens under the lock, so that no
+ * concurrent append is lost, and only once per compaction size of appended records.
+ */
+public final class JournalValueStore implements ValueStore
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final String FILE_COMMENT = "#journal created by property-helper-maven-plugin";
+
+    private static final String SET = "set";
+    private static final String INC = "inc";
+    private static final String DEL = "del";
+
+    private static final Splitter RECORD_SPLITTER = Splitter.on('\n').omitEmptyStrings();
+
+    private final File file;
+
+    private final PersistOptions persistOptions;
+
+    /** The values as they were loaded or last written. */
+    private Map<String, String> storedValues = ImmutableMap.of();
+
+    private boolean exists = false;
+
+    /** Only held between load and close if the persist options ask for locking. */
+    private PropertyFileLock lock = null;
+
+    public JournalValueStore(final File canonicalFile, final PersistOptions persistOptions)
+    {
+        this.file = checkNotNull(canonicalFile, "canonicalFile is null");
+        this.persistOptions = checkNotNull(persistOptions, "persistOptions is null");
+    }
+
+    @Override
+    public Optional<Map<String, String>> load()
+        throws IOException
+    {
+        final PropertyFileLock fileLock = acquireLock();
+        try {
+            final Optional<Map<String, String>> values = readJournal();
+            exists = values.isPresent();
+            storedValues = values.or(ImmutableMap.<String, String>of());
+            return values;
+        }
+        finally {
+            if (persistOptions.isLock()) {
+                lock = fileLock;
+            }
+            else {
+                fileLock.close();
+            }
+        }
+    }
+
+    @Override
+    public boolean store(final Map<String, String> values, final Set<String> counters)
+        throws IOException
+    {
+        checkNotNull(values, "values is null");
+        checkNotNull(counters, "counters is null");
+
+        if (exists && storedValues.equals(values)) {
+            LOG.debug("Values for '%s' are unchanged, not writing them", file);
+            return false;
+        }
+
+        final StringBuilder records = new StringBuilder();
+        if (!exists) {
+            records.append(FILE_COMMENT).append('\n');
+        }
+
+        for (final String key : Sets.union(storedValues.keySet(), values.keySet())) {
+            final String oldValue = storedValues.get(key);
+            final String newValue = values.get(key);
+            if (Objects.equal(oldValue, newValue)) {
+                continue;
+            }
+
+            final Long oldNumber = counters.contains(key) ? parseNumber(oldValue) : null;
+            final Long newNumber = counters.contains(key) ? parseNumber(newValue) : null;
+
+            if (newValue == null) {
+                records.append(DEL).append(' ').append(PropertiesFile.formatEntry(key, ""));
+            }
+            else if (oldNumber != null && newNumber != null) {
+                records.append(INC).append(' ').append(PropertiesFile.formatEntry(key, Long.toString(newNumber - oldNumber)));
+            }
+            else {
+                records.append(SET).append(' ').append(PropertiesFile.formatEntry(key, newValue));
+            }
+            records.append('\n');
+        }
+
+        final PropertyFileLock fileLock = lock != null ? null : acquireLock();
+        try {
+            final long size;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+                // Appending to an incomplete record would turn it and the first new record into garbage.
+                final long length = completeLength(channel);
+                if (length < channel.size()) {
+                    LOG.warn("Dropping incomplete record at the end of '%s'", file);
+                    channel.truncate(length);
+                }
+
+                final ByteBuffer buffer = StandardCharsets.ISO_8859_1.encode(records.toString());
+                long position = length;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                if (persistOptions.getFsyncPolicy() != FsyncPolicy.NONE) {
+                    channel.force(false);
+                }
+                size = channel.size();
+            }
+
+            if (size > persistOptions.getJournalCompactionSize()) {
+                compact(size);
+            }
+        }
+        finally {
+            if (fileLock != null) {
+                fileLock.close();
+            }
+        }
+
+        exists = true;
+        storedValues = ImmutableMap.copyOf(values);
+        return true;
+    }
+
+    /**
+     * Releases the file lock, if any.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (lock != null) {
+            lock.close();
+            lock = null;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return file.getPath();
+    }
+
+    private PropertyFileLock acquireLock()
+        throws IOException
+    {
+        return PropertyFileLock.acquire(file, persistOptions.getLockTimeout(), persistOptions.getLockBackoff());
+    }
+
+    /**
+     * Replaces the journal with one that only contains the current values. Must be called with the lock held.
+     */
+    private void compact(final long size)
+        throws IOException
+    {
+        final Map<String, String> values = readJournal().get();
+
+        final Path path = file.toPath();
+        final Path folder = path.toAbsolutePath().getParent();
+        final Path tempFile = FileValueStore.createTempFile(path);
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                final OutputStream stream = Channels.newOutputStream(channel);
+                final Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.ISO_8859_1));
+                writer.write(FILE_COMMENT);
+                writer.write('\n');
+                for (final Map.Entry<String, String> entry : values.entrySet()) {
+                    writer.write(SET);
+                    writer.write(' ');
+                    writer.write(PropertiesFile.formatEntry(entry.getKey(), entry.getValue()));
+                    writer.write('\n');
+                }
+                writer.flush();
+                if (persistOptions.getFsyncPolicy() != FsyncPolicy.NONE) {
+                    channel.force(true);
+                }
+            }
+
+            FileValueStore.replaceFile(tempFile, path);
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+
+        if (persistOptions.getFsyncPolicy() == FsyncPolicy.DIRECTORY) {
+            FileValueStore.forceFolder(folder);
+        }
+
+        LOG.debug("Compacted journal '%s' from %d bytes to %d values", file, size, values.size());
+    }
+
+    /**
+     * Replays the journal. Every record ends with a line feed; a crash while appending may leave an
+     * incomplete record at the end, which is ignored.
+     */
+    private Optional<Map<String, String>> readJournal()
+        throws IOException
+    {
+        final String journal;
+        try {
+            journal = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+        }
+        catch (final NoSuchFileException e) {
+            return Optional.absent();
+        }
+
+        final int length = journal.lastIndexOf('\n') + 1;
+        if (length < journal.length()) {
+            LOG.debug("Ignoring incomplete record at the end of '%s'", file);
+        }
+
+        final Map<String, String> values = Maps.newLinkedHashMap();
+        for (final String record : RECORD_SPLITTER.split(journal.substring(0, length))) {
+            final String line = CharMatcher.is('\r').trimTrailingFrom(record);
+            if (!line.isEmpty() && line.charAt(0) != '#') {
+                apply(values, line);
+            }
+        }
+
+        return Optional.of(values);
+    }
+
+    /**
+     * Returns the length of the complete records at the start of the journal.
+     */
+    private static long completeLength(final FileChannel channel)
+        throws IOException
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long position = channel.size();
+        while (position > 0) {
+            final int length = (int) Math.min(buffer.capacity(), position);
+            position -= length;
+            buffer.clear();
+            buffer.limit(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            for (int i = length - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Returns the value as a number, if it is written exactly like the number. Increments of other
+     * values, e.g. "007", would not replay to the same text.
+     */
+    private static Long parseNumber(final String value)
+    {
+        final Long number = value == null ? null : Longs.tryParse(value);
+        return number != null && Long.toString(number).equals(value) ? number : null;
+    }
+
+    private void apply(final Map<String, String> values, final String line)
+    {
+        final int index = line.indexOf(' ');
+        checkState(index > 0, "Invalid record '%s' in '%s'", line, file);
+
+        final String operation = line.substring(0, index);
+        final Map.Entry<String, String> entry = PropertiesFile.parseLine(line.substring(index + 1));
+
+        switch (operation) {
+            case SET:
+                values.put(entry.getKey(), entry.getValue());
+                break;
+            case INC:
+                final String value = values.get(entry.getKey());
+                final Long number = value == null ? Long.valueOf(0L) : Longs.tryParse(value);
+                checkState(number != null, "Can not increment '%s' in '%s', '%s' is not a number!", entry.getKey(), file, value);
+                values.put(entry.getKey(), Long.toString(number + Long.parseLong(entry.getValue())));
+                break;
+            case DEL:
+                values.remove(entry.getKey());
+                break;
+            default:
+                throw new IllegalStateException(format("Unknown record '%s' in '%s'", line, file));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ForwardingMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import org.basepom.mojo.propertyhelper.util.Log;
+
+/**
+ * Values of property elements, by property name. Elements can be added unevaluated; their value is only computed when
+ * it is looked up for the first time, e.g. while interpolating a property group. Values that refer to other elements
+ * are interpolated again, so elements that are referenced transitively are evaluated as well.
+ */
+public final class LazyPropertyValues extends ForwardingMap<String, String>
+{
+    private static final Log LOG = Log.findLog();
+
+    private final Map<String, String> values = Maps.newHashMap();
+    private final Map<String, PropertyElement> pending = Maps.newLinkedHashMap();
+
+    private int evaluated = 0;
+
+    @Override
+    protected Map<String, String> delegate()
+    {
+        return values;
+    }
+
+    /**
+     * Evaluates an element and stores its value.
+     */
+    public Optional<String> evaluate(final PropertyElement propertyElement)
+        throws Exception
+    {
+        checkNotNull(propertyElement, "propertyElement is null");
+
+        pending.remove(propertyElement.getPropertyName());
+        final Optional<String> value = propertyElement.getPropertyValue();
+        values.put(propertyElement.getPropertyName(), value.orNull());
+        evaluated++;
+        return value;
+    }
+
+    /**
+     * Adds an element that is only evaluated if its value is looked up.
+     */
+    public void defer(final PropertyElement propertyElement)
+    {
+        checkNotNull(propertyElement, "propertyElement is null");
+
+        values.remove(propertyElement.getPropertyName());
+        pending.put(propertyElement.getPropertyName(), propertyElement);
+    }
+
+    /**
+     * Returns the number of elements that were evaluated.
+     */
+    public int getEvaluatedCount()
+    {
+        return evaluated;
+    }
+
+    /**
+     * Returns the number of elements that were never looked up and therefore not evaluated.
+     */
+    public int getPendingCount()
+    {
+        return pending.size();
+    }
+
+    @Override
+    public String get(final Object key)
+    {
+        resolve(key);
+        return values.get(key);
+    }
+
+    @Override
+    public boolean containsKey(final Object key)
+    {
+        resolve(key);
+        return values.containsKey(key);
+    }
+
+    @Override
+    public String remove(final Object key)
+    {
+        pending.remove(key);
+        return values.remove(key);
+    }
+
+    @Override
+    public String put(final String key, final String value)
+    {
+        pending.remove(key);
+        return values.put(key, value);
+    }
+
+    @Override
+    public void clear()
+    {
+        pending.clear();
+        values.clear();
+    }
+
+    @Override
+    public int size()
+    {
+        resolveAll();
+        return values.size();
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return values.isEmpty() && pending.isEmpty();
+    }
+
+    @Override
+    public Set<String> keySet()
+    {
+        resolveAll();
+        return values.keySet();
+    }
+
+    @Override
+    public Collection<String> values()
+    {
+        resolveAll();
+        return values.values();
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet()
+    {
+        resolveAll();
+        return values.entrySet();
+    }
+
+    @Override
+    public boolean containsValue(final Object value)
+    {
+        resolveAll();
+        return values.containsValue(value);
+    }
+
+    private void resolve(final Object key)
+    {
+        final PropertyElement propertyElement = pending.get(key);
+        if (propertyElement != null) {
+            try {
+                final Optional<String> value = evaluate(propertyElement);
+                LOG.debug("Evaluated Property name: %s on demand, value: %s", propertyElement.getPropertyName(), value.or("<null>"));
+            }
+            catch (final Exception e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    private void resolveAll()
+    {
+        for (final String key : ImmutableList.copyOf(pending.keySet())) {
+            resolve(key);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ExecutionList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.maven.execution.MavenSession;
+import org.basepom.mojo.propertyhelper.util.Log;
+
+/**
+ * Runs macros off the mojo thread. At most a fixed number of macros run at the same time, across all executions of a
+ * maven session, so a parallel reactor build does not oversubscribe the machine. Uses virtual threads if the JDK
+ * supports them, otherwise a pool of daemon threads that go away when idle. A submitted task waits for its turn
+ * interruptibly, so cancelling its future with {@link java.util.concurrent.Future#cancel(boolean)} also cancels
+ * a task that is still waiting. Macros that split their own work, like the hash macro, fork it onto a single
+ * fork/join pool of the same size, so they never use more threads than the limit either.
+ */
+public final class MacroExecutor extends AbstractExecutorService implements ListeningExecutorService
+{
+    private static final Log LOG = Log.findLog();
+
+    /** One executor per maven session, so all modules of a reactor build share the limit. */
+    private static final Cache<MavenSession, MacroExecutor> SESSION_EXECUTORS = CacheBuilder.newBuilder()
+        .weakKeys()
+        .build();
+
+    /**
+     * Returns the executor for a session. The limit is taken from the first execution that asks for the executor.
+     */
+    public static MacroExecutor forSession(final MavenSession session, final int limit)
+    {
+        checkNotNull(session, "session is null");
+
+        try {
+            return SESSION_EXECUTORS.get(session, new Callable<MacroExecutor>() {
+                @Override
+                public MacroExecutor call()
+                {
+                    return new MacroExecutor(limit);
+                }
+            });
+        }
+        catch (final ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private final int limit;
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+
+    /** Created when a macro asks for it for the first time. */
+    private ForkJoinPool forkJoinPool = null;
+
+    @VisibleForTesting
+    MacroExecutor(final int limit)
+    {
+        this(limit, null);
+    }
+
+    @VisibleForTesting
+    MacroExecutor(final int limit, final ExecutorService delegate)
+    {
+        checkArgument(limit >= 0, "limit must not be negative");
+
+        this.limit = limit == 0 ? Runtime.getRuntime().availableProcessors() : limit;
+        this.permits = new Semaphore(this.limit);
+        this.delegate = delegate == null ? createDelegate(this.limit) : delegate;
+    }
+
+    /**
+     * Returns a view of this executor that hands out {@link ListenableFuture}s.
+     */
+    public ListeningExecutorService asListeningExecutor()
+    {
+        return this;
+    }
+
+    /**
+     * Number of macros that may run at the same time.
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * Returns the fork/join pool for macros that split their work. Its parallelism is the limit of this executor.
+     * It is shared by all macros of the session, its idle threads go away by themselves.
+     */
+    public synchronized ForkJoinPool getForkJoinPool()
+    {
+        if (forkJoinPool == null) {
+            forkJoinPool = new ForkJoinPool(limit);
+        }
+        return forkJoinPool;
+    }
+
+    @Override
+    public <T> ListenableFuture<T> submit(final Callable<T> task)
+    {
+        return (ListenableFuture<T>) super.submit(task);
+    }
+
+    @Override
+    public ListenableFuture<?> submit(final Runnable task)
+    {
+        return (ListenableFuture<?>) super.submit(task);
+    }
+
+    @Override
+    public <T> ListenableFuture<T> submit(final Runnable task, final T result)
+    {
+        return (ListenableFuture<T>) super.submit(task, result);
+    }
+
+    @Override
+    public void execute(final Runnable command)
+    {
+        checkNotNull(command, "command is null");
+
+        if (command instanceof MacroTask) {
+            // Waits for a permit itself.
+            delegate.execute(command);
+            return;
+        }
+
+        delegate.execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    permits.acquire();
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.debug("Interrupted while waiting to run %s", command);
+                    return;
+                }
+                try {
+                    command.run();
+                }
+                finally {
+                    permits.release();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(final Callable<T> callable)
+    {
+        return new MacroTask<>(new Callable<T>() {
+            @Override
+            public T call() throws Exception
+            {
+                // The task runs while it waits, so cancelling it interrupts the wait.
+                permits.acquire();
+                try {
+                    return callable.call();
+                }
+                finally {
+                    permits.release();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(final Runnable runnable, final T value)
+    {
+        return newTaskFor(Executors.callable(runnable, value));
+    }
+
+    @Override
+    public void shutdown()
+    {
+        synchronized (this) {
+            if (forkJoinPool != null) {
+                forkJoinPool.shutdown();
+            }
+        }
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+        synchronized (this) {
+            if (forkJoinPool != null) {
+                forkJoinPool.shutdownNow();
+            }
+        }
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown()
+    {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated()
+    {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException
+    {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * A task that waits for a permit when it runs.
+     */
+    private static final class MacroTask<T> extends FutureTask<T> implements ListenableFuture<T>
+    {
+        private final ExecutionList executionList = new ExecutionList();
+
+        private MacroTask(final Callable<T> callable)
+        {
+            super(callable);
+        }
+
+        @Override
+        public void addListener(final Runnable listener, final Executor executor)
+        {
+            executionList.add(listener, executor);
+        }
+
+        @Override
+        protected void done()
+        {
+            executionList.execute();
+        }
+    }
+
+    private static ExecutorService createDelegate(final int threads)
+    {
+        try {
+            // Java 21 and later.
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            final ExecutorService executorService = (ExecutorService) method.invoke(null);
+            LOG.debug("Running macros on virtual threads, at most %d at a time", threads);
+            return executorService;
+        }
+        catch (final ReflectiveOperationException e) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("property-helper-macro-%d").setDaemon(true).build());
+            executor.allowCoreThreadTimeOut(true);
+            LOG.debug("Running macros on %d threads", threads);
+            return executor;
+        }
+    }
+}
@@ -14,24 +14,38 @@
 package org.basepom.mojo.propertyhelper;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.base.Preconditions.checkState;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.basepom.mojo.propertyhelper.beans.MacroDefinition;
+import org.basepom.mojo.propertyhelper.macros.AsyncMacroType;
 import org.basepom.mojo.propertyhelper.macros.MacroType;
+import org.basepom.mojo.propertyhelper.util.Log;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
 public class MacroField implements PropertyElement
 {
+    private static final Log LOG = Log.findLog();
+
     private final MacroDefinition macroDefinition;
     private final ValueProvider valueProvider;
+    private final MemoizedValue memoizedValue;
     private final AbstractPropertyHelperMojo mojo;
 
+    /** Started on the macro executor, but not yet collected. */
+    private PendingValue pendingValue = null;
+
     public static List<MacroField> createMacros(final ValueCache valueCache,
                                                 final MacroDefinition[] macroDefinitions,
                                                 final AbstractPropertyHelperMojo mojo)
@@ -59,6 +73,7 @@ public class MacroField implements PropertyElement
     {
         this.macroDefinition = macroDefinition;
         this.valueProvider = valueProvider;
+        this.memoizedValue = new MemoizedValue(this.valueProvider);
         this.mojo = mojo;
     }
 
@@ -72,26 +87,148 @@ public class MacroField implements PropertyElement
     public Optional<String> getPropertyValue()
         throws Exception
     {
-        final Optional<String> type = macroDefinition.getMacroType();
-        final MacroType macroType;
+        if (memoizedValue.isValid()) {
+            return memoizedValue.get();
+        }
+        return memoizedValue.set(computePropertyValue());
+    }
+
+    /**
+     * Starts evaluating the macro on the macro executor, so that it runs concurrently with other macros. The value is
+     * collected by {@link #getPropertyValue()}.
+     */
+    void start()
+        throws Exception
+    {
+        if (pendingValue == null) {
+            pendingValue = submit(mojo.getMacroRegistry().getMacroType(macroDefinition, mojo.getContainer()));
+        }
+    }
 
-        if (type.isPresent()) {
-            macroType = MacroType.class.cast(mojo.getContainer().lookup(MacroType.ROLE, type.get()));
+    private Optional<String> computePropertyValue()
+        throws Exception
+    {
+        final PendingValue startedValue = pendingValue;
+        pendingValue = null;
+
+        final Optional<String> result;
+        if (startedValue != null) {
+            result = startedValue.collect();
         }
         else {
-            final Optional<String> macroClassName = macroDefinition.getMacroClass();
-            checkState(macroClassName.isPresent(), "No definition for macro '%s' found!", macroDefinition.getId());
-            final Class<?> macroClass = Class.forName(macroClassName.get());
-            macroType = MacroType.class.cast(macroClass.newInstance());
+            final MacroType macroType = mojo.getMacroRegistry().getMacroType(macroDefinition, mojo.getContainer());
+            if (macroType instanceof AsyncMacroType || macroDefinition.getTimeout() > 0) {
+                result = submit(macroType).collect();
+            }
+            else {
+                result = macroType.getValue(macroDefinition, valueProvider, mojo);
+            }
         }
 
-        Optional<String> result = macroType.getValue(macroDefinition, valueProvider, mojo);
         if (result.isPresent()) {
             return macroDefinition.formatResult(result.get());
         }
         return result;
     }
 
+    private PendingValue submit(final MacroType macroType)
+        throws Exception
+    {
+        // The macro may run on another thread, so it gets a private copy of the value.
+        final ValueProvider.StaticValueProvider macroValue = new ValueProvider.StaticValueProvider();
+        final Optional<String> initialValue = valueProvider.getValue();
+        if (initialValue.isPresent()) {
+            macroValue.setValue(initialValue.get());
+        }
+
+        // Counted down when the macro starts to run. Asynchronous macros schedule their own work, so they
+        // are timed from here.
+        final CountDownLatch started = new CountDownLatch(1);
+
+        final ListenableFuture<Optional<String>> future;
+        if (macroType instanceof AsyncMacroType) {
+            started.countDown();
+            future = ((AsyncMacroType) macroType).getValueAsync(macroDefinition, macroValue, mojo, mojo.getMacroExecutor().asListeningExecutor());
+        }
+        else {
+            future = mojo.getMacroExecutor().asListeningExecutor().submit(new Callable<Optional<String>>() {
+                @Override
+                public Optional<String> call() throws Exception
+                {
+                    started.countDown();
+                    return macroType.getValue(macroDefinition, macroValue, mojo);
+                }
+            });
+
+            // A macro that never runs, e.g. because the executor was shut down, ends without starting.
+            future.addListener(new Runnable() {
+                @Override
+                public void run()
+                {
+                    started.countDown();
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+        return new PendingValue(future, started, macroValue, initialValue);
+    }
+
+    private final class PendingValue
+    {
+        private final ListenableFuture<Optional<String>> future;
+        private final CountDownLatch started;
+        private final ValueProvider macroValue;
+        private final Optional<String> initialValue;
+
+        private PendingValue(final ListenableFuture<Optional<String>> future, final CountDownLatch started, final ValueProvider macroValue, final Optional<String> initialValue)
+        {
+            this.future = future;
+            this.started = started;
+            this.macroValue = macroValue;
+            this.initialValue = initialValue;
+        }
+
+        private Optional<String> collect()
+            throws Exception
+        {
+            final Optional<String> result;
+            try {
+                final long timeout = macroDefinition.getTimeout();
+                if (timeout > 0) {
+                    // Time spent waiting for the macro executor does not count against the macro.
+                    started.await();
+                    result = future.get(timeout, TimeUnit.MILLISECONDS);
+                }
+                else {
+                    result = future.get();
+                }
+            }
+            catch (final TimeoutException e) {
+                future.cancel(true);
+                final String message = String.format("Macro '%s' did not finish within %d ms!", macroDefinition.getId(), macroDefinition.getTimeout());
+                switch (macroDefinition.getOnTimeout()) {
+                    case IGNORE:
+                        return Optional.absent();
+                    case WARN:
+                        LOG.warn(message);
+                        return Optional.absent();
+                    default:
+                        throw new IllegalStateException(message);
+                }
+            }
+            catch (final ExecutionException e) {
+                Throwables.propagateIfPossible(e.getCause(), Exception.class);
+                throw e;
+            }
+
+            // Apply what the macro wrote, on the mojo thread.
+            final Optional<String> value = macroValue.getValue();
+            if (value.isPresent() && !value.equals(initialValue)) {
+                valueProvider.setValue(value.get());
+            }
+            return result;
+        }
+    }
+
     @Override
     public boolean isExport()
     {
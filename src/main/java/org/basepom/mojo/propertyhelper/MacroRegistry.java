@@ -0,0 +1,217 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import org.apache.maven.execution.MavenSession;
+import org.basepom.mojo.propertyhelper.beans.MacroDefinition;
+import org.basepom.mojo.propertyhelper.macros.MacroType;
+import org.basepom.mojo.propertyhelper.macros.Stateless;
+import org.basepom.mojo.propertyhelper.util.Log;
+import org.codehaus.plexus.PlexusContainer;
+import org.codehaus.plexus.component.annotations.Component;
+
+/**
+ * Resolves the macro for a macro definition. Macro types listed in the <tt>META-INF/services</tt> index for
+ * {@link MacroType} are found by the hint of their {@link Component} annotation and instantiated directly; they must
+ * not depend on injected requirements. All other macro types are looked up in the container. Macro classes are
+ * loaded once. Macros that are marked {@link Stateless} are resolved once and shared for the rest of the session.
+ */
+public final class MacroRegistry
+{
+    private static final Log LOG = Log.findLog();
+
+    /** One registry per maven session, so all modules of a reactor build share the macro instances. */
+    private static final LoadingCache<MavenSession, MacroRegistry> SESSION_REGISTRIES = CacheBuilder.newBuilder()
+        .weakKeys()
+        .build(new CacheLoader<MavenSession, MacroRegistry>() {
+            @Override
+            public MacroRegistry load(final MavenSession session)
+            {
+                return new MacroRegistry(MacroType.class.getClassLoader());
+            }
+        });
+
+    public static MacroRegistry forSession(final MavenSession session)
+    {
+        checkNotNull(session, "session is null");
+        return SESSION_REGISTRIES.getUnchecked(session);
+    }
+
+    /** Macro types from the service index, by hint. */
+    private final Map<String, Class<? extends MacroType>> indexedTypes;
+
+    private final LoadingCache<String, Class<? extends MacroType>> macroClasses = CacheBuilder.newBuilder()
+        .build(new CacheLoader<String, Class<? extends MacroType>>() {
+            @Override
+            public Class<? extends MacroType> load(final String macroClassName) throws ClassNotFoundException
+            {
+                return Class.forName(macroClassName).asSubclass(MacroType.class);
+            }
+        });
+
+    /** Shared instances of stateless macros, by macro type or class name. */
+    private final ConcurrentMap<String, MacroType> sharedMacros = Maps.newConcurrentMap();
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong resolves = new AtomicLong();
+    private final AtomicLong resolveNanos = new AtomicLong();
+
+    @VisibleForTesting
+    MacroRegistry(final ClassLoader classLoader)
+    {
+        checkNotNull(classLoader, "classLoader is null");
+
+        final ImmutableMap.Builder<String, Class<? extends MacroType>> builder = ImmutableMap.builder();
+        final Iterator<MacroType> it = ServiceLoader.load(MacroType.class, classLoader).iterator();
+        while (true) {
+            try {
+                if (!it.hasNext()) {
+                    break;
+                }
+                final MacroType macroType = it.next();
+                final Component component = macroType.getClass().getAnnotation(Component.class);
+                if (component == null || component.hint().isEmpty()) {
+                    LOG.debug("Ignoring indexed macro %s, it has no hint", macroType.getClass().getName());
+                    continue;
+                }
+                builder.put(component.hint(), macroType.getClass());
+                if (isStateless(macroType)) {
+                    sharedMacros.put(typeKey(component.hint()), macroType);
+                }
+            }
+            catch (final ServiceConfigurationError e) {
+                LOG.warn(e, "Could not load indexed macro");
+            }
+        }
+        this.indexedTypes = builder.build();
+    }
+
+    /**
+     * Returns the macro for a definition. The container is only used for macro types that are not indexed.
+     */
+    public MacroType getMacroType(final MacroDefinition macroDefinition, @CheckForNull final PlexusContainer container)
+        throws Exception
+    {
+        checkNotNull(macroDefinition, "macroDefinition is null");
+
+        final Optional<String> type = macroDefinition.getMacroType();
+        final Optional<String> macroClassName = macroDefinition.getMacroClass();
+        checkState(type.isPresent() || macroClassName.isPresent(), "No definition for macro '%s' found!", macroDefinition.getId());
+
+        final String key = type.isPresent() ? typeKey(type.get()) : "class:" + macroClassName.get();
+
+        lookups.incrementAndGet();
+        final MacroType sharedMacro = sharedMacros.get(key);
+        if (sharedMacro != null) {
+            return sharedMacro;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            final MacroType macroType;
+            if (type.isPresent()) {
+                final Class<? extends MacroType> indexedType = indexedTypes.get(type.get());
+                if (indexedType != null) {
+                    macroType = indexedType.newInstance();
+                }
+                else {
+                    checkState(container != null, "No container to look up macro type '%s'", type.get());
+                    macroType = MacroType.class.cast(container.lookup(MacroType.ROLE, type.get()));
+                }
+            }
+            else {
+                macroType = loadMacroClass(macroClassName.get()).newInstance();
+            }
+
+            if (isStateless(macroType)) {
+                final MacroType existingMacro = sharedMacros.putIfAbsent(key, macroType);
+                return existingMacro == null ? macroType : existingMacro;
+            }
+            return macroType;
+        }
+        finally {
+            resolves.incrementAndGet();
+            resolveNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Number of macros requested.
+     */
+    public long getLookupCount()
+    {
+        return lookups.get();
+    }
+
+    /**
+     * Number of macros that were looked up or instantiated, as opposed to shared.
+     */
+    public long getResolveCount()
+    {
+        return resolves.get();
+    }
+
+    /**
+     * Estimated time saved by sharing macros, based on the average time to resolve a macro.
+     */
+    public long getSavedNanos()
+    {
+        final long resolveCount = resolves.get();
+        return resolveCount == 0 ? 0L : (lookups.get() - resolveCount) * (resolveNanos.get() / resolveCount);
+    }
+
+    private Class<? extends MacroType> loadMacroClass(final String macroClassName)
+        throws Exception
+    {
+        try {
+            return macroClasses.get(macroClassName);
+        }
+        catch (final ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), Exception.class);
+            throw e;
+        }
+    }
+
+    private static boolean isStateless(final MacroType macroType)
+    {
+        return macroType.getClass().isAnnotationPresent(Stateless.class);
+    }
+
+    private static String typeKey(final String type)
+    {
+        return "type:" + type;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+
+/**
+ * The value of a property element, remembered until the value provider of the element is written to. Only providers
+ * handed out by a {@link Tracker} report writes; the value of an element with any other provider is computed on every
+ * call.
+ */
+final class MemoizedValue
+{
+    private final ValueProvider valueProvider;
+
+    private Optional<String> value = null;
+    private long version = -1L;
+
+    MemoizedValue(final ValueProvider valueProvider)
+    {
+        this.valueProvider = checkNotNull(valueProvider, "valueProvider is null");
+    }
+
+    /**
+     * True if a value was remembered and the provider has not been written to since.
+     */
+    boolean isValid()
+    {
+        if (value != null && valueProvider instanceof TrackedValueProvider) {
+            final TrackedValueProvider trackedValueProvider = (TrackedValueProvider) valueProvider;
+            if (trackedValueProvider.getVersion() == version) {
+                trackedValueProvider.tracker.hits.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Optional<String> get()
+    {
+        checkState(value != null, "no value remembered");
+        return value;
+    }
+
+    /**
+     * Remembers a computed value and returns it.
+     */
+    Optional<String> set(final Optional<String> value)
+    {
+        checkNotNull(value, "value is null");
+
+        if (valueProvider instanceof TrackedValueProvider) {
+            final TrackedValueProvider trackedValueProvider = (TrackedValueProvider) valueProvider;
+            trackedValueProvider.tracker.misses.incrementAndGet();
+            // Computing the value may have written to the provider, so the version is taken afterwards.
+            this.version = trackedValueProvider.getVersion();
+            this.value = value;
+        }
+        return value;
+    }
+
+    /**
+     * Hands out value providers that count writes. Providers that are equal share their count, so writing
+     * through one provider invalidates all elements backed by the same property.
+     */
+    static final class Tracker
+    {
+        private final Map<ValueProvider, AtomicLong> versions = Maps.newHashMap();
+
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        synchronized ValueProvider track(final ValueProvider valueProvider)
+        {
+            checkNotNull(valueProvider, "valueProvider is null");
+
+            AtomicLong version = versions.get(valueProvider);
+            if (version == null) {
+                version = new AtomicLong();
+                versions.put(valueProvider, version);
+            }
+            return new TrackedValueProvider(this, valueProvider, version);
+        }
+
+        /**
+         * Number of element values that were answered from memory.
+         */
+        long getHitCount()
+        {
+            return hits.get();
+        }
+
+        /**
+         * Number of element values that had to be computed.
+         */
+        long getMissCount()
+        {
+            return misses.get();
+        }
+    }
+
+    private static final class TrackedValueProvider implements ValueProvider
+    {
+        private final Tracker tracker;
+        private final ValueProvider delegate;
+        private final AtomicLong version;
+
+        private TrackedValueProvider(final Tracker tracker, final ValueProvider delegate, final AtomicLong version)
+        {
+            this.tracker = tracker;
+            this.delegate = delegate;
+            this.version = version;
+        }
+
+        @Override
+        public Optional<String> getValue()
+        {
+            return delegate.getValue();
+        }
+
+        @Override
+        public void setValue(final String value)
+        {
+            final Optional<String> oldValue = delegate.getValue();
+            delegate.setValue(value);
+            // Writing the same value back (e.g. a date field storing its value) does not invalidate anything.
+            if (!oldValue.equals(delegate.getValue())) {
+                version.incrementAndGet();
+            }
+        }
+
+        private long getVersion()
+        {
+            return version.get();
+        }
+
+        @Override
+        public boolean equals(final Object other)
+        {
+            if (other == this) {
+                return true;
+            }
+            if (other == null || other.getClass() != this.getClass()) {
+                return false;
+            }
+            return delegate.equals(((TrackedValueProvider) other).delegate);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return delegate.hashCode();
+        }
+    }
+}
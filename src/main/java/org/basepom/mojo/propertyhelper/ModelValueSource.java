@@ -0,0 +1,176 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.codehaus.plexus.interpolation.AbstractValueSource;
+import org.codehaus.plexus.interpolation.ObjectBasedValueSource;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Resolves expressions such as <tt>version</tt> or <tt>build.directory</tt> against an object, usually the maven model.
+ * Each distinct expression is resolved once per JVM into a chain of getter method handles; evaluating the expression
+ * only invokes the handles. Expressions that are not a plain chain of properties (indexed or mapped access) are left
+ * to the plexus {@link ObjectBasedValueSource}.
+ */
+public final class ModelValueSource extends AbstractValueSource
+{
+    private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final CharMatcher PLAIN_PATH = CharMatcher.JAVA_LETTER_OR_DIGIT.or(CharMatcher.anyOf("._$"));
+
+    /** Root class and expression to the accessor chain, absent if the expression can not be resolved into a chain. */
+    private static final LoadingCache<Map.Entry<Class<?>, String>, Optional<Accessor>> ACCESSORS = CacheBuilder.newBuilder()
+        .maximumSize(1000)
+        .build(new CacheLoader<Map.Entry<Class<?>, String>, Optional<Accessor>>() {
+            @Override
+            public Optional<Accessor> load(final Map.Entry<Class<?>, String> key)
+            {
+                return Accessor.resolve(key.getKey(), key.getValue());
+            }
+        });
+
+    private final Object root;
+    private final ObjectBasedValueSource fallback;
+
+    public ModelValueSource(final Object root)
+    {
+        super(true);
+        this.root = checkNotNull(root, "root is null");
+        this.fallback = new ObjectBasedValueSource(root);
+    }
+
+    @Override
+    public Object getValue(final String expression)
+    {
+        if (expression == null || expression.isEmpty()) {
+            return null;
+        }
+
+        final Optional<Accessor> accessor = ACCESSORS.getUnchecked(Maps.<Class<?>, String>immutableEntry(root.getClass(), expression));
+        if (!accessor.isPresent()) {
+            return fallback.getValue(expression);
+        }
+
+        try {
+            return accessor.get().evaluate(root);
+        }
+        catch (final Throwable t) {
+            addFeedback("Failed to extract '" + expression + "' from: " + root, t);
+            return null;
+        }
+    }
+
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public List getFeedback()
+    {
+        final List feedback = Lists.newArrayList(super.getFeedback());
+        feedback.addAll(fallback.getFeedback());
+        return feedback;
+    }
+
+    @Override
+    public void clearFeedback()
+    {
+        super.clearFeedback();
+        fallback.clearFeedback();
+    }
+
+    private static final class Accessor
+    {
+        private final List<MethodHandle> getters;
+
+        private Accessor(final List<MethodHandle> getters)
+        {
+            this.getters = getters;
+        }
+
+        private static Optional<Accessor> resolve(final Class<?> rootClass, final String expression)
+        {
+            if (!PLAIN_PATH.matchesAllOf(expression)) {
+                return Optional.absent();
+            }
+
+            final ImmutableList.Builder<MethodHandle> getters = ImmutableList.builder();
+            Class<?> type = rootClass;
+            for (final String property : Splitter.on('.').split(expression)) {
+                final Method getter = findGetter(type, property);
+                if (getter == null) {
+                    return Optional.absent();
+                }
+
+                try {
+                    getters.add(MethodHandles.publicLookup().unreflect(getter).asType(ACCESSOR_TYPE));
+                }
+                catch (final IllegalAccessException e) {
+                    return Optional.absent();
+                }
+                type = getter.getReturnType();
+            }
+            return Optional.of(new Accessor(getters.build()));
+        }
+
+        private static Method findGetter(final Class<?> type, final String property)
+        {
+            if (property.isEmpty()) {
+                return null;
+            }
+
+            final String name = property.substring(0, 1).toUpperCase(Locale.ENGLISH) + property.substring(1);
+            for (final String prefix : ImmutableList.of("get", "is")) {
+                try {
+                    final Method method = type.getMethod(prefix + name);
+                    if (method.getReturnType() != void.class) {
+                        return method;
+                    }
+                }
+                catch (final NoSuchMethodException e) {
+                    // try the next prefix.
+                }
+            }
+            return null;
+        }
+
+        private Object evaluate(final Object root) throws Throwable
+        {
+            Object value = root;
+            for (final MethodHandle getter : getters) {
+                if (value == null) {
+                    return null;
+                }
+                value = (Object) getter.invokeExact(value);
+            }
+            return value;
+        }
+    }
+}
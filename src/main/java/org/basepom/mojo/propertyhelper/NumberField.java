@@ -18,26 +18,27 @@ import static com.google.common.base.Preconditions.checkState;
 
 import java.io.IOException;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
 
 import org.basepom.mojo.propertyhelper.beans.NumberDefinition;
 
-import com.google.common.base.Joiner;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 public class NumberField implements PropertyElement
 {
-    private static final Pattern MATCH_GROUPS = Pattern.compile("\\d+|[^\\d]+");
-
     private final NumberDefinition numberDefinition;
     private final ValueProvider valueProvider;
-
-    private final List<String> elements = Lists.newArrayList();
-    private final List<Integer> numberElements = Lists.newArrayList();
-
-    public static List<NumberField> createNumbers(final ValueCache valueCache, final NumberDefinition [] numberDefinitions)
+    private final MemoizedValue memoizedValue;
+    private final NumberValue.Cache numberCache;
+
+    /**
+     * Creates the number fields. Leased numbers are only taken if the execution persists its values;
+     * otherwise they read the current value like all other numbers.
+     */
+    public static List<NumberField> createNumbers(final ValueCache valueCache, final NumberDefinition [] numberDefinitions, final boolean persist)
         throws IOException
     {
         checkNotNull(valueCache, "valueCache is null");
@@ -45,10 +46,31 @@ public class NumberField implements PropertyElement
 
         final List<NumberField> result = Lists.newArrayList();
 
+        // Fields that map onto the same property share the parsed value.
+        final Map<ValueProvider, NumberValue.Cache> numberCaches = Maps.newHashMap();
+
+        // Reserving leased numbers locks their store. Take them before the other numbers are
+        // loaded, as loading may lock the same store until the end of the execution.
+        final Map<NumberDefinition, ValueProvider> leasedValues = Maps.newIdentityHashMap();
         for (NumberDefinition numberDefinition : numberDefinitions) {
             numberDefinition.check();
-            final ValueProvider numberValue = valueCache.getValueProvider(numberDefinition);
-            final NumberField numberField = new NumberField(numberDefinition, numberValue);
+            if (persist && numberDefinition.getLeaseSize() > 0) {
+                leasedValues.put(numberDefinition, valueCache.getLeasedValueProvider(numberDefinition));
+            }
+        }
+
+        for (NumberDefinition numberDefinition : numberDefinitions) {
+            final ValueProvider numberValue = leasedValues.containsKey(numberDefinition)
+                ? leasedValues.get(numberDefinition)
+                : valueCache.getValueProvider(numberDefinition);
+
+            NumberValue.Cache numberCache = numberCaches.get(numberValue);
+            if (numberCache == null) {
+                numberCache = new NumberValue.Cache();
+                numberCaches.put(numberValue, numberCache);
+            }
+
+            final NumberField numberField = new NumberField(numberDefinition, numberValue, numberCache);
             result.add(numberField);
         }
 
@@ -56,9 +78,22 @@ public class NumberField implements PropertyElement
     }
 
     public NumberField(final NumberDefinition numberDefinition, final ValueProvider valueProvider)
+    {
+        this(numberDefinition, valueProvider, new NumberValue.Cache());
+    }
+
+    NumberField(final NumberDefinition numberDefinition, final ValueProvider valueProvider, final NumberValue.Cache numberCache)
     {
         this.numberDefinition = numberDefinition;
         this.valueProvider = valueProvider;
+        this.memoizedValue = new MemoizedValue(this.valueProvider);
+        this.numberCache = numberCache;
+    }
+
+    @VisibleForTesting
+    NumberValue.Cache getNumberCache()
+    {
+        return numberCache;
     }
 
     @Override
@@ -72,9 +107,16 @@ public class NumberField implements PropertyElement
     @Override
     public Optional<String> getPropertyValue()
     {
-        parse();
-        final String value = Joiner.on("").join(elements);
-        return numberDefinition.formatResult(value);
+        if (memoizedValue.isValid()) {
+            return memoizedValue.get();
+        }
+        return memoizedValue.set(computePropertyValue());
+    }
+
+    private Optional<String> computePropertyValue()
+    {
+        final Optional<NumberValue> value = parse();
+        return numberDefinition.formatResult(value.isPresent() ? value.get().toString() : "");
     }
 
     @Override
@@ -83,34 +125,17 @@ public class NumberField implements PropertyElement
         return numberDefinition.isExport();
     }
 
-    private void parse()
+    private Optional<NumberValue> parse()
     {
         final Optional<String> value = valueProvider.getValue();
 
-        if (value.isPresent()) {
-            final Matcher m = MATCH_GROUPS.matcher(value.get());
-            elements.clear();
-            numberElements.clear();
-
-            while (m.find()) {
-                final String matchValue = m.group();
-                elements.add(matchValue);
-                if (isNumber(matchValue)) {
-                    numberElements.add(elements.size() - 1);
-                }
-            }
-
-            checkState(numberElements.size() > numberDefinition.getFieldNumber(), "Only %d fields in %s, field %d requested.", numberElements.size(), value, numberDefinition.getFieldNumber());
+        if (!value.isPresent()) {
+            return Optional.absent();
         }
-    }
 
-    private boolean isNumber(final CharSequence c) {
-        for (int i = 0 ; i < c.length(); i++) {
-            if (!Character.isDigit(c.charAt(i))) {
-                return false;
-            }
-        }
-        return true;
+        final NumberValue numberValue = numberCache.get(value.get());
+        checkState(numberValue.getFieldCount() > numberDefinition.getFieldNumber(), "Only %d fields in %s, field %d requested.", numberValue.getFieldCount(), value, numberDefinition.getFieldNumber());
+        return Optional.of(numberValue);
     }
 
     public void increment()
@@ -123,17 +148,18 @@ public class NumberField implements PropertyElement
 
     public void setNumberValue(final Long value)
     {
-        parse();
-        if (!numberElements.isEmpty()) {
-            elements.set(numberElements.get(numberDefinition.getFieldNumber()), value.toString());
-            valueProvider.setValue(Joiner.on("").join(elements));
+        final Optional<NumberValue> numberValue = parse();
+        if (numberValue.isPresent()) {
+            final NumberValue newValue = numberValue.get().withField(numberDefinition.getFieldNumber(), value);
+            numberCache.set(newValue);
+            valueProvider.setValue(newValue.toString());
         }
     }
 
     public Long getNumberValue()
     {
-        parse();
-        return numberElements.isEmpty() ? null : Long.valueOf(elements.get(numberElements.get(numberDefinition.getFieldNumber())));
+        final Optional<NumberValue> numberValue = parse();
+        return numberValue.isPresent() ? numberValue.get().getField(numberDefinition.getFieldNumber()) : null;
     }
 
     @Override
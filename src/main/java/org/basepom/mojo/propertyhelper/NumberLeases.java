@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Maps;
+
+import org.apache.maven.execution.MavenSession;
+import org.basepom.mojo.propertyhelper.beans.NumberDefinition;
+import org.basepom.mojo.propertyhelper.util.Log;
+
+/**
+ * Hands out numbers from blocks that were reserved in a property file or store with a single write.
+ * Every number is handed out only once; numbers left over at the end of the session are lost. A block is
+ * reserved while holding the lock of its store: property, journal and counter files are locked from
+ * reading the value until writing it back, and rows in a property store are locked until the transaction
+ * commits. Concurrent builds therefore never reserve the same numbers.
+ */
+public final class NumberLeases
+{
+    private static final Log LOG = Log.findLog();
+
+    /** One set of leases per maven session, so all modules of a reactor build share them. */
+    private static final LoadingCache<MavenSession, NumberLeases> SESSION_LEASES = CacheBuilder.newBuilder()
+        .weakKeys()
+        .build(new CacheLoader<MavenSession, NumberLeases>() {
+            @Override
+            public NumberLeases load(final MavenSession session)
+            {
+                return new NumberLeases();
+            }
+        });
+
+    public static NumberLeases forSession(final MavenSession session)
+    {
+        checkNotNull(session, "session is null");
+        return SESSION_LEASES.getUnchecked(session);
+    }
+
+    /** Store location and property name to lease. */
+    private final Map<String, Lease> leases = Maps.newHashMap();
+
+    /**
+     * Returns the next number from the lease for a definition. Reserves a new block if the lease is used up.
+     */
+    public ValueProvider take(final NumberDefinition definition, final ValueFileCache valueFileCache, final PersistOptions persistOptions)
+        throws IOException
+    {
+        checkNotNull(definition, "definition is null");
+        checkNotNull(valueFileCache, "valueFileCache is null");
+        checkNotNull(persistOptions, "persistOptions is null");
+        checkArgument(definition.getLeaseSize() > 0, "'%s' does not lease numbers", definition.getId());
+
+        final String location = definition.getPropertyStore().isPresent()
+            ? definition.getPropertyStore().get()
+            : valueFileCache.getCanonicalFile(definition.getPropertyFile().get()).getPath();
+        final String key = location + "#" + definition.getPropertyName() + "#" + definition.getFieldNumber();
+
+        final Lease lease;
+        synchronized (leases) {
+            Lease existingLease = leases.get(key);
+            if (existingLease == null) {
+                existingLease = new Lease();
+                leases.put(key, existingLease);
+            }
+            lease = existingLease;
+        }
+
+        final ValueProvider valueProvider = new ValueProvider.StaticValueProvider();
+        valueProvider.setValue(lease.take(definition, valueFileCache, persistOptions));
+        return valueProvider;
+    }
+
+    private static final class Lease
+    {
+        /** The value as it was read when the block was reserved. */
+        private String value = null;
+        private long next = 0;
+        private int remaining = 0;
+
+        synchronized String take(final NumberDefinition definition, final ValueFileCache valueFileCache, final PersistOptions persistOptions)
+            throws IOException
+        {
+            if (remaining == 0) {
+                reserve(definition, valueFileCache, persistOptions);
+            }
+
+            final ValueProvider valueProvider = new ValueProvider.StaticValueProvider();
+            valueProvider.setValue(value);
+            new NumberField(definition, valueProvider).setNumberValue(next);
+
+            next += definition.getIncrement();
+            remaining--;
+            return valueProvider.getValue().get();
+        }
+
+        private void reserve(final NumberDefinition definition, final ValueFileCache valueFileCache, final PersistOptions persistOptions)
+            throws IOException
+        {
+            final PersistOptions reserveOptions = new PersistOptions()
+                .setLock(true)
+                .setLockTimeout(persistOptions.getLockTimeout())
+                .setLockBackoff(persistOptions.getLockBackoff())
+                .setFsyncPolicy(persistOptions.getFsyncPolicy())
+                .setBackup(persistOptions.isBackup());
+
+            try (ValueCache valueCache = new ValueCache(valueFileCache, reserveOptions)) {
+                final ValueProvider valueProvider = valueCache.getValueProvider(definition);
+                final NumberField numberField = new NumberField(definition, valueProvider);
+                final Long first = numberField.getNumberValue();
+                checkState(first != null, "No value for '%s' found, can not lease numbers!", definition.getId());
+
+                value = valueProvider.getValue().get();
+                numberField.setNumberValue(first + (long) definition.getLeaseSize() * definition.getIncrement());
+                valueCache.persist();
+
+                next = first;
+                remaining = definition.getLeaseSize();
+                LOG.debug("Leased %d numbers for '%s', starting at %d", remaining, definition.getId(), first);
+            }
+        }
+    }
+}
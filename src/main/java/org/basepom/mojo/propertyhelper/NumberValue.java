@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+
+/**
+ * A value split into its numeric fields. A field is a run of the digits 0-9; everything between the fields is kept as is.
+ * Instances are immutable and only store the start and end offsets of each field.
+ */
+final class NumberValue
+{
+    private final String value;
+    private final int[] starts;
+    private final int[] ends;
+
+    static NumberValue parse(final String value)
+    {
+        checkNotNull(value, "value is null");
+
+        int[] starts = new int[4];
+        int[] ends = new int[4];
+        int count = 0;
+
+        final int length = value.length();
+        int i = 0;
+        while (i < length) {
+            if (!isDigit(value.charAt(i))) {
+                i++;
+                continue;
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = i;
+            while (i < length && isDigit(value.charAt(i))) {
+                i++;
+            }
+            ends[count++] = i;
+        }
+
+        return new NumberValue(value, Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+    }
+
+    private NumberValue(final String value, final int[] starts, final int[] ends)
+    {
+        this.value = value;
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    int getFieldCount()
+    {
+        return starts.length;
+    }
+
+    long getField(final int field)
+    {
+        long result = 0;
+        for (int i = starts[field]; i < ends[field]; i++) {
+            final int digit = value.charAt(i) - '0';
+            if (result > (Long.MAX_VALUE - digit) / 10) {
+                throw new NumberFormatException("Field " + field + " of " + value + " is too large");
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new value with one field replaced.
+     */
+    NumberValue withField(final int field, final long number)
+    {
+        if (number < 0) {
+            // The sign is not part of the field, so the fields change.
+            return parse(value.substring(0, starts[field]) + number + value.substring(ends[field]));
+        }
+
+        final StringBuilder sb = new StringBuilder(value.length() + 20);
+        sb.append(value, 0, starts[field]).append(number).append(value, ends[field], value.length());
+
+        final int shift = sb.length() - value.length();
+        final int[] newStarts = starts.clone();
+        final int[] newEnds = ends.clone();
+        newEnds[field] += shift;
+        for (int i = field + 1; i < newStarts.length; i++) {
+            newStarts[i] += shift;
+            newEnds[i] += shift;
+        }
+
+        return new NumberValue(sb.toString(), newStarts, newEnds);
+    }
+
+    @Override
+    public String toString()
+    {
+        return value;
+    }
+
+    private static boolean isDigit(final char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Holds the parsed form of the current value of a property. Shared by all number fields that
+     * map onto the same property, so the value is only parsed again when it changes.
+     */
+    static final class Cache
+    {
+        private NumberValue current = null;
+
+        NumberValue get(final String value)
+        {
+            if (current == null || !current.value.equals(value)) {
+                current = parse(value);
+            }
+            return current;
+        }
+
+        void set(final NumberValue value)
+        {
+            this.current = value;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Locale;
+
+import com.google.common.base.Objects;
+
+/**
+ * Controls how the {@link ValueCache} writes property files.
+ */
+public final class PersistOptions
+{
+    /**
+     * Controls which parts of a persisted property file are forced to the storage device.
+     */
+    public enum FsyncPolicy
+    {
+        /** Leave it to the operating system. Fastest, but a crash may lose the last write. */
+        NONE,
+        /** Force the file contents before it replaces the old file. */
+        FILE,
+        /** Force the file contents and the folder entry, so the new file survives a crash. */
+        DIRECTORY;
+
+        public static FsyncPolicy forString(final String value)
+        {
+            checkArgument(value != null, "the value can not be null");
+            return Enum.valueOf(FsyncPolicy.class, value.toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    /** Whether to lock property files from loading until they are persisted. */
+    private boolean lock = false;
+
+    /** Maximum time in milliseconds to wait for a file lock. */
+    private long lockTimeout = 30000L;
+
+    /** Initial time in milliseconds to wait between attempts to get a file lock. */
+    private long lockBackoff = 10L;
+
+    /** What to force to disk when writing a file. */
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.NONE;
+
+    /** Whether to keep the previous version of a file as ".bak". */
+    private boolean backup = true;
+
+    /** Size in bytes above which a journal file is compacted. */
+    private long journalCompactionSize = 65536L;
+
+    public PersistOptions()
+    {
+    }
+
+    public boolean isLock()
+    {
+        return lock;
+    }
+
+    public PersistOptions setLock(final boolean lock)
+    {
+        this.lock = lock;
+        return this;
+    }
+
+    public long getLockTimeout()
+    {
+        return lockTimeout;
+    }
+
+    public PersistOptions setLockTimeout(final long lockTimeout)
+    {
+        checkArgument(lockTimeout >= 0, "lockTimeout must be >= 0");
+        this.lockTimeout = lockTimeout;
+        return this;
+    }
+
+    public long getLockBackoff()
+    {
+        return lockBackoff;
+    }
+
+    public PersistOptions setLockBackoff(final long lockBackoff)
+    {
+        checkArgument(lockBackoff > 0, "lockBackoff must be > 0");
+        this.lockBackoff = lockBackoff;
+        return this;
+    }
+
+    public FsyncPolicy getFsyncPolicy()
+    {
+        return fsyncPolicy;
+    }
+
+    public PersistOptions setFsyncPolicy(final FsyncPolicy fsyncPolicy)
+    {
+        this.fsyncPolicy = checkNotNull(fsyncPolicy, "fsyncPolicy is null");
+        return this;
+    }
+
+    public boolean isBackup()
+    {
+        return backup;
+    }
+
+    public PersistOptions setBackup(final boolean backup)
+    {
+        this.backup = backup;
+        return this;
+    }
+
+    public long getJournalCompactionSize()
+    {
+        return journalCompactionSize;
+    }
+
+    public PersistOptions setJournalCompactionSize(final long journalCompactionSize)
+    {
+        checkArgument(journalCompactionSize > 0, "journalCompactionSize must be > 0");
+        this.journalCompactionSize = journalCompactionSize;
+        return this;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this)
+                        .add("lock", lock)
+                        .add("lockTimeout", lockTimeout)
+                        .add("lockBackoff", lockBackoff)
+                        .add("fsyncPolicy", fsyncPolicy)
+                        .add("backup", backup)
+                        .add("journalCompactionSize", journalCompactionSize)
+                        .toString();
+    }
+}
@@ -0,0 +1,540 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * The contents of a java properties file. Reads and writes the same format as {@link java.util.Properties}
+ * but keeps the order of the keys and all comments. When writing, only entries whose values changed
+ * are rewritten, everything else is copied verbatim.
+ */
+public final class PropertiesFile
+{
+    private final List<Segment> segments;
+
+    /** Segments whose key is defined again further down in the file. */
+    private final BitSet shadowed;
+
+    private final Map<String, String> values;
+
+    private final String lineSeparator;
+
+    /**
+     * Parses a properties file in ISO 8859-1 encoding, like {@link java.util.Properties#load(InputStream)}.
+     */
+    public static PropertiesFile read(final InputStream in) throws IOException
+    {
+        checkNotNull(in, "in is null");
+        return read(new InputStreamReader(in, StandardCharsets.ISO_8859_1));
+    }
+
+    public static PropertiesFile read(final Reader reader) throws IOException
+    {
+        checkNotNull(reader, "reader is null");
+
+        final LineReader lineReader = new LineReader(reader);
+        final ImmutableList.Builder<Segment> segments = ImmutableList.builder();
+        final Map<String, String> values = Maps.newLinkedHashMap();
+
+        final StringBuilder comments = new StringBuilder();
+
+        for (;;) {
+            final StringBuilder text = new StringBuilder();
+            final String line = lineReader.readLine(text);
+            if (line == null) {
+                break;
+            }
+
+            final int start = skipWhitespace(line, 0);
+            if (start == line.length() || line.charAt(start) == '#' || line.charAt(start) == '!') {
+                // comments and blank lines are never continued.
+                comments.append(text);
+                continue;
+            }
+
+            final StringBuilder logicalLine = new StringBuilder(line.length()).append(line, start, line.length());
+            if (logicalLine.length() == 1 && isContinued(logicalLine)) {
+                // A lone backslash continues an empty line. Like java.util.Properties (since Java 9),
+                // treat the next line as the start of a new line, so it may still be a comment or blank.
+                comments.append(text);
+                continue;
+            }
+
+            while (isContinued(logicalLine)) {
+                logicalLine.setLength(logicalLine.length() - 1);
+                final String nextLine = lineReader.readLine(text);
+                if (nextLine == null) {
+                    break;
+                }
+                logicalLine.append(nextLine, skipWhitespace(nextLine, 0), nextLine.length());
+            }
+
+            if (comments.length() > 0) {
+                segments.add(new Segment(null, null, comments.toString()));
+                comments.setLength(0);
+            }
+
+            final Segment segment = parseEntry(logicalLine, text.toString());
+            segments.add(segment);
+            values.put(segment.key, segment.value);
+        }
+
+        if (comments.length() > 0) {
+            segments.add(new Segment(null, null, comments.toString()));
+        }
+
+        return new PropertiesFile(segments.build(), values, lineReader.getLineSeparator());
+    }
+
+    /**
+     * Returns an empty properties file that starts with the given comment.
+     */
+    public static PropertiesFile create(final String comment)
+    {
+        checkNotNull(comment, "comment is null");
+
+        final String lineSeparator = System.lineSeparator();
+        final List<Segment> segments = ImmutableList.of(new Segment(null, null, "#" + comment + lineSeparator));
+        return new PropertiesFile(segments, Collections.<String, String>emptyMap(), lineSeparator);
+    }
+
+    private PropertiesFile(final List<Segment> segments, final Map<String, String> values, final String lineSeparator)
+    {
+        this.segments = segments;
+        this.values = Collections.unmodifiableMap(values);
+        this.lineSeparator = lineSeparator;
+
+        this.shadowed = new BitSet(segments.size());
+        final Set<String> keys = Sets.newHashSet();
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            final String key = segments.get(i).key;
+            if (key != null && !keys.add(key)) {
+                shadowed.set(i);
+            }
+        }
+    }
+
+    /**
+     * The values in this file, in the order in which they appear in the file.
+     */
+    public Map<String, String> getValues()
+    {
+        return values;
+    }
+
+    /**
+     * Writes new values in ISO 8859-1 encoding. Comments and entries whose values did not change are
+     * copied as they are, entries that are not in the new values are removed and new entries are appended
+     * at the end.
+     *
+     * @return The contents of the file that was written.
+     */
+    public PropertiesFile write(final OutputStream out, final Map<String, String> newValues) throws IOException
+    {
+        checkNotNull(out, "out is null");
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.ISO_8859_1));
+        final PropertiesFile result = write(writer, newValues);
+        writer.flush();
+        return result;
+    }
+
+    public PropertiesFile write(final Writer writer, final Map<String, String> newValues) throws IOException
+    {
+        checkNotNull(writer, "writer is null");
+        checkNotNull(newValues, "newValues is null");
+
+        final List<Segment> newSegments = Lists.newArrayListWithCapacity(segments.size() + Math.max(0, newValues.size() - values.size()));
+
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            if (segment.key != null) {
+                final String value = newValues.get(segment.key);
+                if (value == null) {
+                    continue;
+                }
+                if (!shadowed.get(i) && !value.equals(segment.value)) {
+                    segment = new Segment(segment.key, value, formatEntry(segment.key, value) + endOfLine(segment.text));
+                }
+            }
+            writer.write(segment.text);
+            newSegments.add(segment);
+        }
+
+        for (final Map.Entry<String, String> entry : newValues.entrySet()) {
+            if (!values.containsKey(entry.getKey())) {
+                terminateLastLine(writer, newSegments);
+                final Segment segment = new Segment(entry.getKey(), checkNotNull(entry.getValue(), "value for %s is null", entry.getKey()),
+                                                    formatEntry(entry.getKey(), entry.getValue()) + lineSeparator);
+                writer.write(segment.text);
+                newSegments.add(segment);
+            }
+        }
+
+        return new PropertiesFile(newSegments, Maps.newLinkedHashMap(newValues), lineSeparator);
+    }
+
+    /**
+     * Makes sure that the last segment ends with a line separator before another entry is appended. An entry
+     * that ends with a backslash at the end of the file would continue into the appended entry, so it is ended
+     * with a blank line.
+     */
+    private void terminateLastLine(final Writer writer, final List<Segment> newSegments) throws IOException
+    {
+        if (newSegments.isEmpty()) {
+            return;
+        }
+
+        final int last = newSegments.size() - 1;
+        final Segment segment = newSegments.get(last);
+        if (!endOfLine(segment.text).isEmpty()) {
+            return;
+        }
+
+        final String separator = segment.key != null && isContinued(segment.text) ? lineSeparator + lineSeparator : lineSeparator;
+        writer.write(separator);
+        newSegments.set(last, new Segment(segment.key, segment.value, segment.text + separator));
+    }
+
+    @Override
+    public boolean equals(final Object other)
+    {
+        if (other == this) {
+            return true;
+        }
+        if (other == null || other.getClass() != this.getClass()) {
+            return false;
+        }
+        final PropertiesFile that = (PropertiesFile) other;
+        return Objects.equal(this.segments, that.segments);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hashCode(segments);
+    }
+
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this)
+                        .add("values", values)
+                        .toString();
+    }
+
+    /**
+     * Parses a single line that contains an entry. The line must not be continued.
+     */
+    static Map.Entry<String, String> parseLine(final String line)
+    {
+        final Segment segment = parseEntry(line.substring(skipWhitespace(line, 0)), line);
+        return Maps.immutableEntry(segment.key, segment.value);
+    }
+
+    private static Segment parseEntry(final CharSequence line, final String text)
+    {
+        int i = 0;
+        boolean escaped = false;
+        for (; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (escaped) {
+                escaped = false;
+            }
+            else if (c == '\\') {
+                escaped = true;
+            }
+            else if (c == '=' || c == ':' || isWhitespace(c)) {
+                break;
+            }
+        }
+        final int keyEnd = i;
+
+        i = skipWhitespace(line, i);
+        if (i < line.length() && (line.charAt(i) == '=' || line.charAt(i) == ':')) {
+            i = skipWhitespace(line, i + 1);
+        }
+
+        return new Segment(unescape(line, 0, keyEnd), unescape(line, i, line.length()), text);
+    }
+
+    private static boolean isContinued(final CharSequence line)
+    {
+        int backslashes = 0;
+        for (int i = line.length() - 1; i >= 0 && line.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return (backslashes % 2) == 1;
+    }
+
+    private static boolean isWhitespace(final char c)
+    {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+    private static int skipWhitespace(final CharSequence line, final int start)
+    {
+        int i = start;
+        while (i < line.length() && isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static String endOfLine(final String text)
+    {
+        if (text.endsWith("\r\n")) {
+            return "\r\n";
+        }
+        else if (text.endsWith("\n")) {
+            return "\n";
+        }
+        else if (text.endsWith("\r")) {
+            return "\r";
+        }
+        return "";
+    }
+
+    private static String unescape(final CharSequence line, final int start, final int end)
+    {
+        final StringBuilder sb = new StringBuilder(end - start);
+        int i = start;
+        while (i < end) {
+            char c = line.charAt(i++);
+            if (c == '\\' && i < end) {
+                c = line.charAt(i++);
+                switch (c) {
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'u':
+                        if (i + 4 > end) {
+                            throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                        }
+                        try {
+                            c = (char) Integer.parseInt(line.subSequence(i, i + 4).toString(), 16);
+                        }
+                        catch (final NumberFormatException e) {
+                            throw new IllegalArgumentException("Malformed \\uxxxx encoding.", e);
+                        }
+                        i += 4;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats an entry as a single line, without line separator.
+     */
+    static String formatEntry(final String key, final String value)
+    {
+        final StringBuilder sb = new StringBuilder(key.length() + value.length() + 8);
+        escape(sb, key, true);
+        sb.append('=');
+        escape(sb, value, false);
+        return sb.toString();
+    }
+
+    /**
+     * Escapes a key or value in the same way as {@link java.util.Properties#store(OutputStream, String)}.
+     */
+    private static void escape(final StringBuilder sb, final String value, final boolean escapeSpace)
+    {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c > 61 && c < 127) {
+                if (c == '\\') {
+                    sb.append('\\');
+                }
+                sb.append(c);
+                continue;
+            }
+
+            switch (c) {
+                case ' ':
+                    if (i == 0 || escapeSpace) {
+                        sb.append('\\');
+                    }
+                    sb.append(' ');
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    sb.append('\\').append(c);
+                    break;
+                default:
+                    if (c < 0x0020 || c > 0x007e) {
+                        sb.append(String.format("\\u%04X", (int) c));
+                    }
+                    else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * A part of the file. Either a single entry or a block of comments and blank lines (key and value are null).
+     * The text is the exact text from the file, including the line separators.
+     */
+    private static final class Segment
+    {
+        private final String key;
+        private final String value;
+        private final String text;
+
+        Segment(final String key, final String value, final String text)
+        {
+            this.key = key;
+            this.value = value;
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(final Object other)
+        {
+            if (other == this) {
+                return true;
+            }
+            if (other == null || other.getClass() != this.getClass()) {
+                return false;
+            }
+            final Segment that = (Segment) other;
+            return Objects.equal(this.key, that.key)
+                            && Objects.equal(this.value, that.value)
+                            && Objects.equal(this.text, that.text);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(key, value, text);
+        }
+    }
+
+    /**
+     * Reads natural lines from a reader and keeps their exact text.
+     */
+    private static final class LineReader
+    {
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int position = 0;
+        private int limit = 0;
+        private String lineSeparator = null;
+
+        LineReader(final Reader reader)
+        {
+            this.reader = reader;
+        }
+
+        String getLineSeparator()
+        {
+            return Objects.firstNonNull(lineSeparator, System.lineSeparator());
+        }
+
+        /**
+         * Returns the next line without line separator or null at the end of the input. Appends the
+         * text of the line including its line separator to text.
+         */
+        String readLine(final StringBuilder text) throws IOException
+        {
+            if (!fill()) {
+                return null;
+            }
+
+            final StringBuilder line = new StringBuilder();
+            while (fill()) {
+                final char c = buffer[position++];
+                if (c == '\n' || c == '\r') {
+                    String separator = String.valueOf(c);
+                    if (c == '\r' && fill() && buffer[position] == '\n') {
+                        position++;
+                        separator = "\r\n";
+                    }
+                    if (lineSeparator == null) {
+                        lineSeparator = separator;
+                    }
+                    text.append(line).append(separator);
+                    return line.toString();
+                }
+                line.append(c);
+            }
+            text.append(line);
+            return line.toString();
+        }
+
+        private boolean fill() throws IOException
+        {
+            while (position >= limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit < 0) {
+                    limit = 0;
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -19,7 +19,6 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.maven.model.Model;
 import org.basepom.mojo.propertyhelper.beans.PropertyGroup;
 import org.codehaus.plexus.interpolation.InterpolationException;
 
@@ -31,15 +30,13 @@ public class PropertyField implements PropertyElement
     private final String propertyName;
     private final String propertyValue;
 
-    public static List<PropertyElement> createProperties(final Model model, final Map<String, String> values, final PropertyGroup propertyGroup)
+    public static List<PropertyElement> createProperties(final InterpolatorFactory interpolatorFactory, final Map<String, String> values, final PropertyGroup propertyGroup)
         throws IOException, InterpolationException
     {
-        checkNotNull(model, "model is null");
+        checkNotNull(interpolatorFactory, "interpolatorFactory is null");
         checkNotNull(values, "values is null");
         checkNotNull(propertyGroup, "propertyGroup is null");
 
-        final InterpolatorFactory interpolatorFactory = new InterpolatorFactory(Optional.of(model));
-
         final ImmutableList.Builder<PropertyElement> result = ImmutableList.builder();
         final Map<String, String> properties = propertyGroup.getProperties();
 
@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static java.lang.String.format;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import org.basepom.mojo.propertyhelper.util.Log;
+
+/**
+ * Exclusive lock on a property file that works across processes. The lock is held on a
+ * sidecar file (the property file name with ".lock" appended), so that the property file
+ * itself can be replaced while the lock is held.
+ */
+public final class PropertyFileLock implements Closeable
+{
+    private static final Log LOG = Log.findLog();
+
+    /** Longest wait between two attempts, unless the configured backoff is even longer. */
+    private static final long MAX_BACKOFF = 1000L;
+
+    /**
+     * File locks are held by the JVM, so threads in the same JVM (parallel builds) can not
+     * exclude each other with them. Those are serialized with a regular lock first. There is
+     * one lock per canonical path, so unrelated files never wait for each other. A lock is
+     * dropped once nobody holds or waits for it.
+     */
+    private static final LoadingCache<String, Lock> JVM_LOCKS = CacheBuilder.newBuilder()
+        .weakValues()
+        .build(new CacheLoader<String, Lock>() {
+            @Override
+            public Lock load(final String path)
+            {
+                return new ReentrantLock();
+            }
+        });
+
+    private final File lockFile;
+    private final Lock jvmLock;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+
+    /**
+     * Locks the given property file. Waits at most timeout milliseconds and retries with an
+     * exponential backoff, starting with backoff milliseconds.
+     */
+    public static PropertyFileLock acquire(final File file, final long timeout, final long backoff)
+        throws IOException
+    {
+        checkNotNull(file, "file is null");
+
+        final File lockFile = new File(file.getPath() + ".lock");
+        final long startTime = System.nanoTime();
+        // The timeout covers both locks.
+        final long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        final Lock jvmLock = JVM_LOCKS.getUnchecked(lockFile.getCanonicalPath());
+        try {
+            if (!jvmLock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                throw new IllegalStateException(format("Could not lock '%s' within %d ms!", file, timeout));
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(format("Interrupted while locking '%s'", file), e);
+        }
+
+        FileChannel channel = null;
+        try {
+            final File folder = lockFile.getParentFile();
+            if (folder != null && !folder.exists() && !folder.mkdirs() && !folder.exists()) {
+                throw new IllegalStateException(format("Could not create folder '%s'", folder));
+            }
+
+            channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+            long wait = backoff;
+            int attempts = 0;
+            for (;;) {
+                attempts++;
+                final FileLock fileLock = channel.tryLock();
+                if (fileLock != null) {
+                    LOG.debug("Locked '%s' after %d ms (%d attempts)", file, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), attempts);
+                    return new PropertyFileLock(lockFile, jvmLock, channel, fileLock);
+                }
+
+                final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    throw new IllegalStateException(format("Could not lock '%s' within %d ms (%d attempts)!", file, timeout, attempts));
+                }
+
+                Thread.sleep(Math.min(wait, remaining));
+                wait = Math.min(wait * 2, Math.max(MAX_BACKOFF, backoff));
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            release(channel, jvmLock);
+            throw new IOException(format("Interrupted while locking '%s'", file), e);
+        }
+        catch (IOException | RuntimeException e) {
+            release(channel, jvmLock);
+            throw e;
+        }
+    }
+
+    private PropertyFileLock(final File lockFile, final Lock jvmLock, final FileChannel channel, final FileLock fileLock)
+    {
+        this.lockFile = lockFile;
+        this.jvmLock = jvmLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            fileLock.release();
+        }
+        finally {
+            release(channel, jvmLock);
+            LOG.trace("Released '%s'", lockFile);
+        }
+    }
+
+    private static void release(final FileChannel channel, final Lock jvmLock)
+        throws IOException
+    {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        finally {
+            jvmLock.unlock();
+        }
+    }
+}
@@ -29,6 +29,7 @@ public class StringField implements PropertyElement
 {
     private final StringDefinition stringDefinition;
     private final ValueProvider valueProvider;
+    private final MemoizedValue memoizedValue;
 
     public static List<StringField> createStrings(final ValueCache valueCache, final StringDefinition[] stringDefinitions)
         throws IOException
@@ -51,6 +52,7 @@ public class StringField implements PropertyElement
     {
         this.stringDefinition = stringDefinition;
         this.valueProvider = valueProvider;
+        this.memoizedValue = new MemoizedValue(this.valueProvider);
     }
 
     @Override
@@ -63,6 +65,14 @@ public class StringField implements PropertyElement
 
     @Override
     public Optional<String> getPropertyValue()
+    {
+        if (memoizedValue.isValid()) {
+            return memoizedValue.get();
+        }
+        return memoizedValue.set(computePropertyValue());
+    }
+
+    private Optional<String> computePropertyValue()
     {
         final List<String> values = Lists.newArrayList();
 
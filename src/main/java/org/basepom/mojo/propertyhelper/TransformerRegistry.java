@@ -13,20 +13,33 @@
  */
 package org.basepom.mojo.propertyhelper;
 
+import static java.lang.String.format;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.regex.Pattern;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Function;
-import com.google.common.base.Splitter;
+import com.google.common.base.Functions;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 public final class TransformerRegistry
 {
@@ -46,6 +59,50 @@ public final class TransformerRegistry
         REGISTRY = registry.build();
     }
 
+    /** Transformers that can be fused into a single pass, by name. */
+    private static final Map<String, Step> STEPS;
+
+    static {
+        final ImmutableMap.Builder<String, Step> steps = ImmutableMap.builder();
+        for (final Step step : Step.values()) {
+            steps.put(step.name().toLowerCase(Locale.ENGLISH), step);
+        }
+        STEPS = steps.build();
+    }
+
+    private static final LoadingCache<String, Function<String, String>> COMPILED = CacheBuilder.newBuilder()
+        .maximumSize(1000)
+        .build(new CacheLoader<String, Function<String, String>>() {
+            @Override
+            public Function<String, String> load(final String transformerNames)
+            {
+                return doCompile(transformerNames);
+            }
+        });
+
+    /** Regular expressions of replace transformers. Bounded, as every distinct expression stays compiled. */
+    private static final LoadingCache<String, Pattern> PATTERNS = CacheBuilder.newBuilder()
+        .maximumSize(256)
+        .build(new CacheLoader<String, Pattern>() {
+            @Override
+            public Pattern load(final String regex)
+            {
+                return Pattern.compile(regex);
+            }
+        });
+
+    /** Whitespace as defined by {@link CharMatcher#WHITESPACE}, for the ASCII range. */
+    private static final boolean[] ASCII_WHITESPACE = new boolean[128];
+
+    static {
+        for (char c = 0; c < ASCII_WHITESPACE.length; c++) {
+            ASCII_WHITESPACE[c] = CharMatcher.WHITESPACE.matches(c);
+        }
+    }
+
+    /** Whitespace, dashes and underscores, collapsed by the useUnderscore and useDash transformers. */
+    private static final CharMatcher SEPARATORS = CharMatcher.WHITESPACE.or(CharMatcher.anyOf("-_")).precomputed();
+
     private TransformerRegistry()
     {
         throw new AssertionError("Do not instantiate");
@@ -59,7 +116,7 @@ public final class TransformerRegistry
         }
 
         ImmutableList.Builder<Function<String, String>> transformers = ImmutableList.builder();
-        for (String transformerName : Splitter.on(',').omitEmptyStrings().split(transformerNames)) {
+        for (String transformerName : splitTransformers(transformerNames)) {
             transformers.add(forName(transformerName));
         }
 
@@ -68,19 +125,66 @@ public final class TransformerRegistry
 
     public static String applyTransformers(final String transformers, final String value)
     {
-        String res = value;
-        for (Function<String, String> transformer : getTransformers(transformers)) {
-            if (res != null) {
-                res = transformer.apply(res);
+        return compile(transformers).apply(value);
+    }
+
+    /**
+     * Compiles a comma separated list of transformer names into a single transformer that applies all of them
+     * in one pass over the value. The transformer returns its input if nothing changed, and null for null.
+     * Compiled transformers are cached.
+     */
+    public static Function<String, String> compile(@CheckForNull final String transformerNames)
+    {
+        if (transformerNames == null) {
+            return Functions.identity();
+        }
+
+        try {
+            return COMPILED.getUnchecked(transformerNames);
+        }
+        catch (final UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private static Function<String, String> doCompile(final String transformerNames)
+    {
+        final List<Function<String, String>> transformers = getTransformers(transformerNames);
+        if (transformers.isEmpty()) {
+            return Functions.identity();
+        }
+
+        final ImmutableList.Builder<Step> steps = ImmutableList.builder();
+        for (final String transformerName : splitTransformers(transformerNames)) {
+            final Step step = STEPS.get(transformerName.toLowerCase(Locale.ENGLISH));
+            if (step == null) {
+                return new ChainedTransformer(transformers);
             }
+            steps.add(step);
         }
-        return res;
+
+        return new FusedTransformer(steps.build(), transformers);
     }
 
+    /**
+     * Returns a transformer by name. Besides the built-in transformers, these transformers take arguments:
+     * <ul>
+     * <li><tt>replace(/regex/,replacement)</tt> replaces all matches of the regular expression. The replacement may refer to groups with $1 etc.
+     * A slash in the regular expression is written as \/.</li>
+     * <li><tt>substring(begin)</tt> and <tt>substring(begin,end)</tt> return part of the value. Offsets beyond the end of the value are ignored.</li>
+     * <li><tt>truncate(n)</tt> returns at most n characters.</li>
+     * <li><tt>pad_left(n,c)</tt> and <tt>pad_right(n,c)</tt> pad the value to at least n characters with c.</li>
+     * </ul>
+     */
     public static Function<String, String> forName(final String transformerName)
     {
         checkNotNull(transformerName, "transformerName is null");
 
+        final int paren = transformerName.indexOf('(');
+        if (paren >= 0) {
+            return forExpression(transformerName, paren);
+        }
+
         final Function<String, String> transformer = REGISTRY.get(transformerName.toLowerCase(Locale.ENGLISH));
 
         checkState(transformer != null, "Transformer '%s' is unknown.", transformerName);
@@ -88,6 +192,116 @@ public final class TransformerRegistry
         return transformer;
     }
 
+    private static Function<String, String> forExpression(final String expression, final int paren)
+    {
+        checkState(expression.endsWith(")"), "Transformer '%s' is missing a closing parenthesis.", expression);
+
+        final String name = expression.substring(0, paren).toLowerCase(Locale.ENGLISH);
+        final List<String> arguments = split(expression.substring(paren + 1, expression.length() - 1), 0);
+
+        switch (name) {
+            case "replace":
+                checkState(arguments.size() >= 2, "Transformer '%s' needs a regular expression and a replacement.", expression);
+                final String regex = arguments.get(0);
+                checkState(regex.length() >= 2 && regex.startsWith("/") && regex.endsWith("/"), "Transformer '%s' needs a /regular expression/.", expression);
+                // A comma in the replacement splits it, put it back together.
+                final String replacement = Joiner.on(',').join(arguments.subList(1, arguments.size()));
+                return new ReplaceTransformer(getPattern(regex.substring(1, regex.length() - 1).replace("\\/", "/")), replacement);
+
+            case "substring":
+                checkState(arguments.size() == 1 || arguments.size() == 2, "Transformer '%s' needs one or two offsets.", expression);
+                final int begin = getNumber(expression, arguments.get(0));
+                final int end = arguments.size() == 2 ? getNumber(expression, arguments.get(1)) : Integer.MAX_VALUE;
+                checkState(begin <= end, "Transformer '%s' ends before it begins.", expression);
+                return new SubstringTransformer(begin, end);
+
+            case "truncate":
+                checkState(arguments.size() == 1, "Transformer '%s' needs a length.", expression);
+                return new SubstringTransformer(0, getNumber(expression, arguments.get(0)));
+
+            case "pad_left":
+            case "pad_right":
+                checkState(arguments.size() == 2 && arguments.get(1).length() == 1, "Transformer '%s' needs a length and a single padding character.", expression);
+                return new PadTransformer(getNumber(expression, arguments.get(0)), arguments.get(1).charAt(0), name.equals("pad_left"));
+
+            default:
+                throw new IllegalStateException(format("Transformer '%s' is unknown.", expression));
+        }
+    }
+
+    private static int getNumber(final String expression, final String argument)
+    {
+        final Integer number = Ints.tryParse(argument.trim());
+        checkState(number != null && number >= 0, "Transformer '%s' needs a number, found '%s'.", expression, argument);
+        return number;
+    }
+
+    private static Pattern getPattern(final String regex)
+    {
+        try {
+            return PATTERNS.getUnchecked(regex);
+        }
+        catch (final UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Splits a comma separated list of transformers. Commas inside the arguments of a transformer do not split.
+     */
+    @VisibleForTesting
+    static List<String> splitTransformers(final String transformerNames)
+    {
+        return split(transformerNames, 1);
+    }
+
+    /**
+     * Splits on commas outside of parentheses. An argument that starts with a slash at the given depth of parentheses
+     * is a regular expression; it ends at the next slash that is not escaped with a backslash.
+     */
+    private static List<String> split(final String value, final int argumentDepth)
+    {
+        final ImmutableList.Builder<String> result = ImmutableList.builder();
+        int depth = 0;
+        int start = 0;
+        boolean regex = false;
+        char previous = ',';
+
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (regex) {
+                if (c == '\\') {
+                    i++;
+                }
+                else if (c == '/') {
+                    regex = false;
+                }
+            }
+            else if (c == '/' && depth == argumentDepth && (previous == '(' || previous == ',')) {
+                regex = true;
+            }
+            else if (c == '(') {
+                depth++;
+            }
+            else if (c == ')') {
+                depth--;
+            }
+            else if (c == ',' && depth == 0) {
+                // Empty transformer names are skipped, empty arguments are kept.
+                if (i > start || argumentDepth == 0) {
+                    result.add(value.substring(start, i));
+                }
+                start = i + 1;
+            }
+            previous = c;
+        }
+
+        if (value.length() > start || argumentDepth == 0) {
+            result.add(value.substring(start));
+        }
+        return result.build();
+    }
+
     public static class LowercaseTransformer implements Function<String, String>
     {
         @Override
@@ -138,7 +352,7 @@ public final class TransformerRegistry
         @Override
         public String apply(@Nonnull String value)
         {
-            return CharMatcher.WHITESPACE.or(CharMatcher.anyOf("-_")).collapseFrom(value, '_');
+            return SEPARATORS.collapseFrom(value, '_');
         }
     }
 
@@ -147,7 +361,7 @@ public final class TransformerRegistry
         @Override
         public String apply(@Nonnull String value)
         {
-            return CharMatcher.WHITESPACE.or(CharMatcher.anyOf("-_")).collapseFrom(value, '-');
+            return SEPARATORS.collapseFrom(value, '-');
         }
     }
 
@@ -159,4 +373,282 @@ public final class TransformerRegistry
             return CharMatcher.WHITESPACE.trimFrom(value);
         }
     }
+
+    public static class ReplaceTransformer implements Function<String, String>
+    {
+        private final Pattern pattern;
+        private final String replacement;
+
+        public ReplaceTransformer(final Pattern pattern, final String replacement)
+        {
+            this.pattern = checkNotNull(pattern, "pattern is null");
+            this.replacement = checkNotNull(replacement, "replacement is null");
+        }
+
+        @Override
+        public String apply(@Nonnull String value)
+        {
+            return pattern.matcher(value).replaceAll(replacement);
+        }
+    }
+
+    public static class SubstringTransformer implements Function<String, String>
+    {
+        private final int begin;
+        private final int end;
+
+        public SubstringTransformer(final int begin, final int end)
+        {
+            this.begin = begin;
+            this.end = end;
+        }
+
+        @Override
+        public String apply(@Nonnull String value)
+        {
+            final int length = value.length();
+            return value.substring(Math.min(begin, length), Math.min(end, length));
+        }
+    }
+
+    public static class PadTransformer implements Function<String, String>
+    {
+        private final int length;
+        private final char padding;
+        private final boolean left;
+
+        public PadTransformer(final int length, final char padding, final boolean left)
+        {
+            this.length = length;
+            this.padding = padding;
+            this.left = left;
+        }
+
+        @Override
+        public String apply(@Nonnull String value)
+        {
+            return left ? Strings.padStart(value, length, padding) : Strings.padEnd(value, length, padding);
+        }
+    }
+
+    private static boolean isWhitespace(final char c)
+    {
+        return c < ASCII_WHITESPACE.length ? ASCII_WHITESPACE[c] : CharMatcher.WHITESPACE.matches(c);
+    }
+
+    /**
+     * The built-in transformers, as steps of a single pass. The names match the names in the registry.
+     */
+    private enum Step
+    {
+        LOWERCASE,
+        UPPERCASE,
+        REMOVE_WHITESPACE,
+        UNDERSCORE_FOR_WHITESPACE('_', false),
+        DASH_FOR_WHITESPACE('-', false),
+        USE_UNDERSCORE('_', true),
+        USE_DASH('-', true),
+        TRIM;
+
+        /** For the collapsing steps, replaces each run of whitespace (and separators) with this character. */
+        private final char replacement;
+        private final boolean separators;
+
+        Step()
+        {
+            this((char) 0, false);
+        }
+
+        Step(final char replacement, final boolean separators)
+        {
+            this.replacement = replacement;
+            this.separators = separators;
+        }
+
+        private boolean collapses(final char c)
+        {
+            return isWhitespace(c) || (separators && (c == '-' || c == '_'));
+        }
+    }
+
+    /**
+     * Applies transformers one after the other.
+     */
+    private static final class ChainedTransformer implements Function<String, String>
+    {
+        private final List<Function<String, String>> transformers;
+
+        private ChainedTransformer(final List<Function<String, String>> transformers)
+        {
+            this.transformers = transformers;
+        }
+
+        @Override
+        public String apply(final String value)
+        {
+            String res = value;
+            for (Function<String, String> transformer : transformers) {
+                if (res != null) {
+                    res = transformer.apply(res);
+                }
+            }
+            return res;
+        }
+    }
+
+    /**
+     * Applies a list of steps in a single pass. Every character is pushed through all steps before the next one is read.
+     * Case changes are only done for ASCII; any other character falls back to applying the transformers one after the other,
+     * as some characters change their length or depend on their neighbours.
+     */
+    private static final class FusedTransformer implements Function<String, String>
+    {
+        private final Step[] steps;
+        private final ChainedTransformer fallback;
+
+        private FusedTransformer(final List<Step> steps, final List<Function<String, String>> transformers)
+        {
+            this.steps = steps.toArray(new Step[steps.size()]);
+            this.fallback = new ChainedTransformer(transformers);
+        }
+
+        @Override
+        public String apply(final String value)
+        {
+            if (value == null) {
+                return null;
+            }
+
+            final Pass pass = new Pass(value, steps);
+            return pass.run() ? pass.result() : fallback.apply(value);
+        }
+    }
+
+    /**
+     * The state of a single fused transformation.
+     */
+    private static final class Pass
+    {
+        private final String value;
+        private final Step[] steps;
+
+        /** For collapsing steps, in a run. For trim steps, past the leading whitespace. */
+        private final boolean[] flags;
+
+        /** For trim steps, whitespace that is only kept if more characters follow. */
+        private final StringBuilder[] pending;
+
+        /** The output matches the value up to this position. */
+        private int matched = 0;
+        private StringBuilder out = null;
+        private boolean ascii = true;
+
+        private Pass(final String value, final Step[] steps)
+        {
+            this.value = value;
+            this.steps = steps;
+            this.flags = new boolean[steps.length];
+            this.pending = new StringBuilder[steps.length];
+        }
+
+        private boolean run()
+        {
+            for (int i = 0; i < value.length() && ascii; i++) {
+                push(0, value.charAt(i));
+            }
+            // Trailing whitespace pending in trim steps is dropped.
+            return ascii;
+        }
+
+        private String result()
+        {
+            if (out != null) {
+                return out.toString();
+            }
+            return matched == value.length() ? value : value.substring(0, matched);
+        }
+
+        private void push(final int index, final char c)
+        {
+            if (index == steps.length) {
+                emit(c);
+                return;
+            }
+
+            final Step step = steps[index];
+            switch (step) {
+                case LOWERCASE:
+                    if (c >= 128) {
+                        ascii = false;
+                    }
+                    else {
+                        push(index + 1, c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+                    }
+                    break;
+
+                case UPPERCASE:
+                    if (c >= 128) {
+                        ascii = false;
+                    }
+                    else {
+                        push(index + 1, c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c);
+                    }
+                    break;
+
+                case REMOVE_WHITESPACE:
+                    if (!isWhitespace(c)) {
+                        push(index + 1, c);
+                    }
+                    break;
+
+                case TRIM:
+                    if (isWhitespace(c)) {
+                        if (flags[index]) {
+                            if (pending[index] == null) {
+                                pending[index] = new StringBuilder();
+                            }
+                            pending[index].append(c);
+                        }
+                    }
+                    else {
+                        flags[index] = true;
+                        final StringBuilder whitespace = pending[index];
+                        if (whitespace != null) {
+                            for (int i = 0; i < whitespace.length(); i++) {
+                                push(index + 1, whitespace.charAt(i));
+                            }
+                            whitespace.setLength(0);
+                        }
+                        push(index + 1, c);
+                    }
+                    break;
+
+                default:
+                    if (step.collapses(c)) {
+                        if (!flags[index]) {
+                            flags[index] = true;
+                            push(index + 1, step.replacement);
+                        }
+                    }
+                    else {
+                        flags[index] = false;
+                        push(index + 1, c);
+                    }
+                    break;
+            }
+        }
+
+        private void emit(final char c)
+        {
+            if (out == null) {
+                if (matched < value.length() && value.charAt(matched) == c) {
+                    matched++;
+                    return;
+                }
+                out = new StringBuilder(value.length() + 16);
+                out.append(value, 0, matched);
+            }
+            out.append(c);
+        }
+    }
 }
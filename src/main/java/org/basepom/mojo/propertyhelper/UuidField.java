@@ -28,6 +28,7 @@ public class UuidField implements PropertyElement
 {
     private final UuidDefinition uuidDefinition;
     private final ValueProvider valueProvider;
+    private final MemoizedValue memoizedValue;
 
     public static List<UuidField> createUuids(final ValueCache valueCache, final UuidDefinition[] uuidDefinitions)
         throws IOException
@@ -51,6 +52,7 @@ public class UuidField implements PropertyElement
     {
         this.uuidDefinition = checkNotNull(uuidDefinition, "uuidDefinition is null");
         this.valueProvider = checkNotNull(valueProvider, "valueProvider is null");
+        this.memoizedValue = new MemoizedValue(this.valueProvider);
     }
 
     @Override
@@ -61,6 +63,14 @@ public class UuidField implements PropertyElement
 
     @Override
     public Optional<String> getPropertyValue()
+    {
+        if (memoizedValue.isValid()) {
+            return memoizedValue.get();
+        }
+        return memoizedValue.set(computePropertyValue());
+    }
+
+    private Optional<String> computePropertyValue()
     {
         // Only add the value from the provider if it is not null.
         UUID result = null;
@@ -13,19 +13,15 @@
  */
 package org.basepom.mojo.propertyhelper;
 
-import static java.lang.String.format;
-
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 
@@ -33,22 +29,77 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.collect.ForwardingMap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.io.Closer;
 
 import org.basepom.mojo.propertyhelper.beans.AbstractDefinition;
 import org.basepom.mojo.propertyhelper.beans.IgnoreWarnFailCreate;
+import org.basepom.mojo.propertyhelper.beans.NumberDefinition;
 import org.basepom.mojo.propertyhelper.util.Log;
 
-public class ValueCache
+public class ValueCache implements Closeable
 {
     private static final Log LOG = Log.findLog();
 
-    /** Cache for values files loaded from disk */
-    private Map<File, ValueCacheEntry> valueFiles = Maps.newHashMap();
+    /** Cache for values loaded from stores, by store location. */
+    private Map<String, ValueCacheEntry> valueFiles = Maps.newHashMap();
 
     private final Map<String, String> ephemeralValues = Maps.newHashMap();
 
+    /** All stores opened by this cache. */
+    private final List<ValueStore> stores = Lists.newArrayList();
+
+    /** Session wide cache, shared with all other executions. */
+    private final ValueFileCache valueFileCache;
+
+    private final PersistOptions persistOptions;
+
+    /** Session wide number leases, shared with all other executions. */
+    private final NumberLeases numberLeases;
+
+    /** Tracks writes to the providers handed out, so property elements can remember their values. */
+    private final MemoizedValue.Tracker tracker = new MemoizedValue.Tracker();
+
+    public ValueCache()
+    {
+        this(new ValueFileCache());
+    }
+
+    public ValueCache(final ValueFileCache valueFileCache)
+    {
+        this(valueFileCache, new PersistOptions());
+    }
+
+    public ValueCache(final ValueFileCache valueFileCache, final PersistOptions persistOptions)
+    {
+        this(valueFileCache, persistOptions, new NumberLeases());
+    }
+
+    public ValueCache(final ValueFileCache valueFileCache, final PersistOptions persistOptions, final NumberLeases numberLeases)
+    {
+        this.valueFileCache = checkNotNull(valueFileCache, "valueFileCache is null");
+        this.persistOptions = checkNotNull(persistOptions, "persistOptions is null");
+        this.numberLeases = checkNotNull(numberLeases, "numberLeases is null");
+    }
+
+    /**
+     * Returns a provider for the next number leased for the definition. Its value is never persisted by this cache.
+     * Must be called before this cache loads any values from the same store, which may already be locked by this cache.
+     */
+    public ValueProvider getLeasedValueProvider(final NumberDefinition definition)
+        throws IOException
+    {
+        final String location = definition.getPropertyStore().isPresent()
+            ? definition.getPropertyStore().get()
+            : valueFileCache.getCanonicalFile(definition.getPropertyFile().get()).getPath();
+        checkState(!valueFiles.containsKey(location), "Numbers for '%s' must be leased before other values are loaded from '%s'!", definition.getId(), location);
+
+        return tracker.track(numberLeases.take(definition, valueFileCache, persistOptions));
+    }
+
     public ValueProvider getValueProvider(final AbstractDefinition<?> definition)
         throws IOException
     {
@@ -59,13 +110,18 @@ public class ValueCache
             if (value.isPresent()) {
                 ephemeralValues.put(name, value.get());
             }
-            return new ValueProvider.MapValueProvider(ephemeralValues, name);
+            return tracker.track(new ValueProvider.MapValueProvider(ephemeralValues, name));
         }
         else {
-            return ValueCache.findCurrentValueProvider(values.get(), definition);
+            return tracker.track(ValueCache.findCurrentValueProvider(values.get(), definition));
         }
     }
 
+    MemoizedValue.Tracker getTracker()
+    {
+        return tracker;
+    }
+
     @VisibleForTesting
     static ValueProvider findCurrentValueProvider(final Map<String, String> values, final AbstractDefinition<?> definition)
     {
@@ -94,19 +150,32 @@ public class ValueCache
         throws IOException
     {
         final Optional<File> definitionFile = definition.getPropertyFile();
+        final Optional<String> definitionStore = definition.getPropertyStore();
 
         // Ephemeral, so return null.
-        if (!definitionFile.isPresent()) {
+        if (!definitionFile.isPresent() && !definitionStore.isPresent()) {
             return Optional.absent();
         }
 
-        ValueCacheEntry cacheEntry;
-        final File canonicalFile = definitionFile.get().getCanonicalFile();
+        final File canonicalFile = definitionStore.isPresent() ? null : valueFileCache.getCanonicalFile(definitionFile.get());
+        final String location = definitionStore.isPresent() ? definitionStore.get() : canonicalFile.getPath();
 
-        // Throws an exception if the file must exist and does not.
-        final boolean createFile = IgnoreWarnFailCreate.checkState(definition.getOnMissingFile(), canonicalFile.exists(), definitionFile.get().getCanonicalPath());
+        ValueCacheEntry cacheEntry = valueFiles.get(location);
+        final ValueStore store;
+        final Optional<Map<String, String>> storedValues;
+
+        if (cacheEntry != null) {
+            store = cacheEntry.getStore();
+            storedValues = cacheEntry.isExists() ? Optional.of(cacheEntry.getValues()) : Optional.<Map<String, String>>absent();
+        }
+        else {
+            store = openStore(definition, location, canonicalFile);
+            stores.add(store);
+            storedValues = store.load();
+        }
 
-        cacheEntry = valueFiles.get(canonicalFile);
+        // Throws an exception if the file must exist and does not.
+        final boolean createFile = IgnoreWarnFailCreate.checkState(definition.getOnMissingFile(), storedValues.isPresent(), store.toString());
 
         if (cacheEntry != null) {
             // If there is a cache hit, something either has loaded the file
@@ -117,90 +186,101 @@ public class ValueCache
             }
         }
         else {
-            // Try loading or creating properties.
-            final Properties props = new Properties();
-
-            if (!canonicalFile.exists()) {
-                cacheEntry = new ValueCacheEntry(props, false, createFile); // does not exist
-                valueFiles.put(canonicalFile, cacheEntry);
+            // Try loading or creating properties. The shared values are copied,
+            // so this execution can modify them.
+            if (storedValues.isPresent()) {
+                cacheEntry = new ValueCacheEntry(store, storedValues.get(), true, createFile);
             }
             else {
-                if (canonicalFile.isFile() && canonicalFile.canRead()) {
-                    final Closer closer = Closer.create();
-                    try {
-                        final InputStream stream = closer.register(new FileInputStream(canonicalFile));
-                        props.load(stream);
-                        cacheEntry = new ValueCacheEntry(props, true, createFile);
-                        valueFiles.put(canonicalFile, cacheEntry);
-                    }
-                    finally {
-                        closer.close();
-                    }
-                }
-                else {
-                    throw new IllegalStateException(format("Can not load %s, not a file!", definitionFile.get().getCanonicalPath()));
-                }
+                cacheEntry = new ValueCacheEntry(store, ImmutableMap.<String, String>of(), false, createFile); // does not exist
+            }
+            valueFiles.put(location, cacheEntry);
+        }
+
+        if (store instanceof JdbcValueStore) {
+            // Database stores lock only the rows that are read, the value may have changed since it was loaded.
+            final JdbcValueStore jdbcStore = (JdbcValueStore) store;
+            if (jdbcStore.lockValue(definition.getPropertyName())) {
+                cacheEntry.reload(definition.getPropertyName(), jdbcStore.getStoredValue(definition.getPropertyName()));
             }
         }
 
+        if (definition instanceof NumberDefinition && ((NumberDefinition) definition).getIncrement() != 0) {
+            cacheEntry.addCounter(definition.getPropertyName());
+        }
+
         return Optional.of(cacheEntry.getValues());
     }
 
-    public void persist() throws IOException
+    private ValueStore openStore(final AbstractDefinition<?> definition, final String location, final File canonicalFile)
     {
-        for (final Map.Entry<File, ValueCacheEntry> entries : valueFiles.entrySet())
-        {
-            final ValueCacheEntry entry = entries.getValue();
-            if (!entry.isDirty()) {
-                continue;
-            }
-            final File file = entries.getKey();
-            if (entry.isExists() || entry.isCreate()) {
-                checkNotNull(file, "no file defined, can not persist!");
-                final File oldFile = new File(file.getCanonicalPath() + ".bak");
-
-                if (entry.isExists()) {
-                    checkState(file.exists(), "'%s' should exist!", file.getCanonicalPath());
-                    // unlink an old file if necessary
-                    if (oldFile.exists()) {
-                        checkState(oldFile.delete(), "Could not delete '%s'", file.getCanonicalPath());
-                    }
-                }
+        if (definition.getPropertyStore().isPresent()) {
+            return new JdbcValueStore(location, persistOptions);
+        }
 
-                final File folder = file.getParentFile();
-                if (!folder.exists()) {
-                    checkState(folder.mkdirs(), "Could not create folder '%s'", folder.getCanonicalPath());
-                }
+        switch (definition.getPropertyFileFormat()) {
+            case JOURNAL:
+                return new JournalValueStore(canonicalFile, persistOptions);
+            case COUNTER:
+                return new CounterValueStore(canonicalFile, persistOptions);
+            default:
+                return new FileValueStore(canonicalFile, valueFileCache, persistOptions);
+        }
+    }
 
-                final Closer closer = Closer.create();
+    public void persist() throws IOException
+    {
+        int written = 0;
+        int skipped = 0;
+
+        try {
+            for (final ValueCacheEntry entry : valueFiles.values()) {
+                if (!entry.isDirty() || !(entry.isExists() || entry.isCreate())) {
+                    skipped++;
+                    continue;
+                }
 
-                final File newFile = new File(file.getCanonicalPath() + ".new");
-                try {
-                    final OutputStream stream = closer.register(new FileOutputStream(newFile));
-                    entry.store(stream, "created by property-helper-maven-plugin");
+                if (entry.getStore().store(entry.getValues(), entry.getCounters())) {
+                    written++;
                 }
-                finally {
-                    closer.close();
+                else {
+                    skipped++;
                 }
+            }
+        }
+        finally {
+            close();
+        }
 
-                if (file.exists()) {
-                    if (!file.renameTo(oldFile)) {
-                        LOG.warn("Could not rename '%s' to '%s'!", file, oldFile);
-                    }
-                }
+        LOG.debug("Wrote %d property stores, skipped %d unchanged stores", written, skipped);
+    }
 
-                if (!file.exists()) {
-                    if (!newFile.renameTo(file)) {
-                        LOG.warn("Could not rename '%s' to '%s'!", newFile, file);
-                    }
-                }
+    /**
+     * Closes all stores opened by this cache. This releases any file locks.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        final Closer closer = Closer.create();
+        try {
+            for (final ValueStore store : stores) {
+                closer.register(store);
             }
+            stores.clear();
+        }
+        finally {
+            closer.close();
         }
     }
 
     public static class ValueCacheEntry
     {
-        private final Map<String, String> values = Maps.newHashMap();
+        private final Map<String, String> values = Maps.newLinkedHashMap();
+
+        /** Names of the values that are incremented by number definitions. */
+        private final Set<String> counters = Sets.newHashSet();
+
+        private final ValueStore store;
 
         private final boolean exists;
 
@@ -208,25 +288,26 @@ public class ValueCache
 
         private boolean dirty = false;
 
-        ValueCacheEntry(@Nonnull final Properties props,
-                               final boolean exists,
-                               final boolean create)
+        private Map<String, String> trackedValues = null;
+
+        ValueCacheEntry(@Nonnull final ValueStore store,
+                        @Nonnull final Map<String, String> values,
+                        final boolean exists,
+                        final boolean create)
         {
-            checkNotNull(props, "props is null");
+            checkNotNull(store, "store is null");
+            checkNotNull(values, "values is null");
 
-            values.putAll(Maps.fromProperties(props));
+            this.store = store;
+            this.values.putAll(values);
 
             this.exists = exists;
             this.create = create;
         }
 
-        public void store(final OutputStream out, final String comment) throws IOException
+        ValueStore getStore()
         {
-            final Properties p = new Properties();
-            for (Map.Entry<String, String> entry : values.entrySet()) {
-                p.setProperty(entry.getKey(), entry.getValue());
-            }
-            p.store(out, comment);
+            return store;
         }
 
         public boolean isDirty()
@@ -241,42 +322,74 @@ public class ValueCache
 
         public Map<String, String> getValues()
         {
-            return new ForwardingMap<String, String>() {
-                @Override
-                protected Map<String, String> delegate()
-                {
-                    return values;
-                }
+            // Always the same map, value providers for the same property compare equal.
+            if (trackedValues == null) {
+                trackedValues = new ForwardingMap<String, String>() {
+                    @Override
+                    protected Map<String, String> delegate()
+                    {
+                        return values;
+                    }
 
-                @Override
-                public String remove(Object object) {
-                    dirty();
-                    return super.remove(object);
-                }
+                    @Override
+                    public String remove(Object object) {
+                        if (containsKey(object)) {
+                            dirty();
+                        }
+                        return super.remove(object);
+                    }
 
-                @Override
-                public void clear() {
-                    dirty();
-                    super.clear();
-                }
+                    @Override
+                    public void clear() {
+                        if (!isEmpty()) {
+                            dirty();
+                        }
+                        super.clear();
+                    }
 
-                @Override
-                public String put(String key, String value) {
-                    final String oldValue = super.put(key, value);
-                    if (!Objects.equal(value, oldValue)) {
-                        dirty();
+                    @Override
+                    public String put(String key, String value) {
+                        final String oldValue = super.put(key, value);
+                        if (!Objects.equal(value, oldValue)) {
+                            dirty();
+                        }
+                        return oldValue;
                     }
-                    return oldValue;
-                }
 
-                @Override
-                public void putAll(Map<? extends String, ? extends String> map) {
-                    dirty();
-                    super.putAll(map);
-                }
+                    @Override
+                    public void putAll(Map<? extends String, ? extends String> map) {
+                        for (Map.Entry<? extends String, ? extends String> entry : map.entrySet()) {
+                            put(entry.getKey(), entry.getValue());
+                        }
+                    }
 
 
-            };
+                };
+            }
+            return trackedValues;
+        }
+
+        /**
+         * Replaces a value with the one in the store, without marking the entry dirty.
+         */
+        void reload(final String name, final Optional<String> value)
+        {
+            if (value.isPresent()) {
+                values.put(name, value.get());
+            }
+            else {
+                values.remove(name);
+            }
+        }
+
+        void addCounter(final String name)
+        {
+            counters.add(name);
+        }
+
+        Set<String> getCounters()
+        {
+            return counters;
         }
 
         public boolean isExists()
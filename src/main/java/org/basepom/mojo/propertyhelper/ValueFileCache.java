@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import static java.lang.String.format;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.io.Closer;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import org.apache.maven.execution.MavenSession;
+import org.basepom.mojo.propertyhelper.util.Log;
+
+/**
+ * Caches the contents of property files for a maven session. Every file is loaded at most once
+ * and handed out as an immutable {@link PropertiesFile}, so all plugin executions in a (parallel) reactor build
+ * can share it.
+ */
+public final class ValueFileCache
+{
+    private static final Log LOG = Log.findLog();
+
+    /** One cache per maven session. Sessions are compared by identity and released when the session goes away. */
+    private static final LoadingCache<MavenSession, ValueFileCache> SESSION_CACHES = CacheBuilder.newBuilder()
+        .weakKeys()
+        .build(new CacheLoader<MavenSession, ValueFileCache>() {
+            @Override
+            public ValueFileCache load(final MavenSession session)
+            {
+                return new ValueFileCache();
+            }
+        });
+
+    public static ValueFileCache forSession(final MavenSession session)
+    {
+        checkNotNull(session, "session is null");
+        return SESSION_CACHES.getUnchecked(session);
+    }
+
+    /** Number of file system metadata lookups. */
+    private final AtomicLong statCalls = new AtomicLong();
+
+    /** Configured file to canonical file. Resolving a canonical path costs a stat call for every path element. */
+    private final LoadingCache<File, File> canonicalFiles = CacheBuilder.newBuilder()
+        .build(new CacheLoader<File, File>() {
+            @Override
+            public File load(final File file) throws IOException
+            {
+                statCalls.incrementAndGet();
+                return file.getCanonicalFile();
+            }
+        });
+
+    /** Canonical file to file contents. An absent value means that the file does not exist. */
+    private final LoadingCache<File, Optional<PropertiesFile>> files = CacheBuilder.newBuilder()
+        .recordStats()
+        .build(new CacheLoader<File, Optional<PropertiesFile>>() {
+            @Override
+            public Optional<PropertiesFile> load(final File canonicalFile) throws IOException
+            {
+                return loadFile(canonicalFile);
+            }
+        });
+
+    /**
+     * Returns the canonical file for a file. Every file is resolved only once per session.
+     */
+    public File getCanonicalFile(final File file)
+        throws IOException
+    {
+        checkNotNull(file, "file is null");
+        return get(canonicalFiles, file);
+    }
+
+    /**
+     * Returns the contents of a property file or {@link Optional#absent()} if the file does not exist.
+     */
+    public Optional<PropertiesFile> getFile(final File canonicalFile)
+        throws IOException
+    {
+        checkNotNull(canonicalFile, "canonicalFile is null");
+        return get(files, canonicalFile);
+    }
+
+    /**
+     * Replaces the cached contents of a property file after it was written.
+     */
+    public void update(final File canonicalFile, final PropertiesFile propertiesFile)
+    {
+        checkNotNull(canonicalFile, "canonicalFile is null");
+        checkNotNull(propertiesFile, "propertiesFile is null");
+
+        files.put(canonicalFile, Optional.of(propertiesFile));
+    }
+
+    public CacheStats getStats()
+    {
+        return files.stats();
+    }
+
+    public long getStatCalls()
+    {
+        return statCalls.get();
+    }
+
+    /**
+     * Loads a property file from disk, bypassing the cache. Returns {@link Optional#absent()} if the
+     * file does not exist.
+     */
+    Optional<PropertiesFile> loadFile(final File canonicalFile)
+        throws IOException
+    {
+        final BasicFileAttributes attributes;
+        try {
+            statCalls.incrementAndGet();
+            attributes = Files.readAttributes(canonicalFile.toPath(), BasicFileAttributes.class);
+        }
+        catch (final NoSuchFileException e) {
+            return Optional.absent();
+        }
+
+        if (!attributes.isRegularFile()) {
+            throw new IllegalStateException(format("Can not load %s, not a file!", canonicalFile));
+        }
+
+        LOG.debug("Loading property file %s", canonicalFile);
+
+        final Closer closer = Closer.create();
+        try {
+            final InputStream stream = closer.register(new FileInputStream(canonicalFile));
+            return Optional.of(PropertiesFile.read(stream));
+        }
+        catch (Throwable t) {
+            throw closer.rethrow(t);
+        }
+        finally {
+            closer.close();
+        }
+    }
+
+    private static <K, V> V get(final LoadingCache<K, V> cache, final K key)
+        throws IOException
+    {
+        try {
+            return cache.get(key);
+        }
+        catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
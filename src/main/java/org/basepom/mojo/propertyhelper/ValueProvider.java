@@ -90,6 +90,25 @@ public interface ValueProvider
         {
             return Optional.fromNullable(values.get(valueName));
         }
+
+        @Override
+        public boolean equals(final Object other)
+        {
+            if (other == this) {
+                return true;
+            }
+            if (other == null || other.getClass() != this.getClass()) {
+                return false;
+            }
+            final MapValueProvider that = (MapValueProvider) other;
+            return values == that.values && valueName.equals(that.valueName);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(values) * 31 + valueName.hashCode();
+        }
     }
 
     static class PropertyProvider implements ValueProvider
@@ -115,6 +134,25 @@ public interface ValueProvider
         {
             return Optional.fromNullable(props.getProperty(propertyName));
         }
+
+        @Override
+        public boolean equals(final Object other)
+        {
+            if (other == this) {
+                return true;
+            }
+            if (other == null || other.getClass() != this.getClass()) {
+                return false;
+            }
+            final PropertyProvider that = (PropertyProvider) other;
+            return props == that.props && propertyName.equals(that.propertyName);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(props) * 31 + propertyName.hashCode();
+        }
     }
 }
 
@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Optional;
+
+/**
+ * Loads and persists the values of a property file or another storage location. The {@link ValueCache}
+ * opens a store when a definition uses it for the first time and closes it at the end of the execution.
+ */
+public interface ValueStore extends Closeable
+{
+    /**
+     * Returns the stored values or {@link Optional#absent()} if the storage location does not exist.
+     * Called once, before any other method.
+     */
+    Optional<Map<String, String>> load() throws IOException;
+
+    /**
+     * Persists the values, creating the storage location if necessary. Changes made by others since
+     * the values were loaded are kept where possible.
+     *
+     * @param values The values to store.
+     * @param counters Names of the values that are incremented numbers. Concurrent changes to a counter
+     *                 may be merged by adding up the increments; all other values are only ever replaced.
+     * @return True if anything was written, false if the store already contained these values.
+     */
+    boolean store(Map<String, String> values, Set<String> counters) throws IOException;
+}
@@ -42,6 +42,12 @@ public abstract class AbstractDefinition<T extends AbstractDefinition<T>>
     /** Name of the properties file to persist the count. Field injected by Maven. */
     private File propertyFile = null;
 
+    /** Format of the properties file. Field injected by Maven. */
+    private String propertyFileFormat = "properties";
+
+    /** JDBC url of a database to persist the count, instead of a properties file. Field injected by Maven. */
+    private String propertyStore = null;
+
     /** What to do when the property is missing from the file. Field injected by Maven. */
     private String onMissingFile = "fail";
 
@@ -144,6 +150,33 @@ public abstract class AbstractDefinition<T extends AbstractDefinition<T>>
         return (T) this;
     }
 
+    public PropertyFileFormat getPropertyFileFormat()
+    {
+        return PropertyFileFormat.forString(propertyFileFormat);
+    }
+
+    @SuppressWarnings("unchecked")
+    @VisibleForTesting
+    public T setPropertyFileFormat(final String propertyFileFormat)
+    {
+        PropertyFileFormat.forString(propertyFileFormat);
+        this.propertyFileFormat = propertyFileFormat;
+        return (T) this;
+    }
+
+    public Optional<String> getPropertyStore()
+    {
+        return Optional.fromNullable(propertyStore);
+    }
+
+    @SuppressWarnings("unchecked")
+    @VisibleForTesting
+    public T setPropertyStore(final String propertyStore)
+    {
+        this.propertyStore = checkNotNull(propertyStore, "propertyStore is null").trim();
+        return (T) this;
+    }
+
     public IgnoreWarnFailCreate getOnMissingFile()
     {
         return IgnoreWarnFailCreate.forString(onMissingFile);
@@ -177,7 +210,7 @@ public abstract class AbstractDefinition<T extends AbstractDefinition<T>>
         final Optional<String> format = getFormat();
         String res = format.isPresent() ? format(format.get(), value) : value;
 
-        res = TransformerRegistry.applyTransformers(transformers, res);
+        res = TransformerRegistry.compile(transformers).apply(res);
 
         return Optional.fromNullable(res);
     }
@@ -198,5 +231,7 @@ public abstract class AbstractDefinition<T extends AbstractDefinition<T>>
     public void check()
     {
         checkState(id != null, "the id element must not be empty!");
+        checkState(propertyFile == null || propertyStore == null, "only one of propertyFile and propertyStore can be set for '%s'!", id);
+        checkState(propertyStore == null || propertyStore.startsWith("jdbc:"), "propertyStore for '%s' must be a JDBC url!", id);
     }
 }
@@ -42,6 +42,17 @@ public class MacroDefinition extends AbstractDefinition<MacroDefinition>
      */
     private Properties properties = new Properties();
 
+    /**
+     * Time in milliseconds the macro may take, 0 for no limit. Counts from when the macro starts to run, not while
+     * it waits for other macros to finish. Field injected by Maven.
+     */
+    private long timeout = 0L;
+
+    /**
+     * What to do if the macro takes longer than the timeout. Field injected by Maven.
+     */
+    private String onTimeout = "fail";
+
     public MacroDefinition()
     {
         super();
@@ -83,6 +94,30 @@ public class MacroDefinition extends AbstractDefinition<MacroDefinition>
         return this;
     }
 
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+    @VisibleForTesting
+    public MacroDefinition setTimeout(final long timeout)
+    {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public IgnoreWarnFail getOnTimeout()
+    {
+        return IgnoreWarnFail.forString(onTimeout);
+    }
+
+    @VisibleForTesting
+    public MacroDefinition setOnTimeout(final String onTimeout)
+    {
+        this.onTimeout = checkNotNull(onTimeout, "onTimeout is null");
+        return this;
+    }
+
     @Override
     public boolean equals(final Object other)
     {
@@ -96,7 +131,9 @@ public class MacroDefinition extends AbstractDefinition<MacroDefinition>
         MacroDefinition that = (MacroDefinition) other;
         return Objects.equal(this.macroType, that.macroType)
                         && Objects.equal(this.macroClass, that.macroClass)
-                        && Objects.equal(this.properties, that.properties);
+                        && Objects.equal(this.properties, that.properties)
+                        && this.timeout == that.timeout
+                        && Objects.equal(this.onTimeout, that.onTimeout);
     }
 
     @Override
@@ -105,12 +142,13 @@ public class MacroDefinition extends AbstractDefinition<MacroDefinition>
         super.check();
 
         checkState(macroClass != null || macroType != null, "neither macro class nor macro type is defined!");
+        checkState(timeout >= 0, "timeout must not be negative!");
     }
 
     @Override
     public int hashCode()
     {
-        return Objects.hashCode(macroType, macroClass, properties);
+        return Objects.hashCode(macroType, macroClass, properties, timeout, onTimeout);
     }
 
     @Override
@@ -120,6 +158,8 @@ public class MacroDefinition extends AbstractDefinition<MacroDefinition>
                        .add("macroType", macroType)
                        .add("macroClass", macroClass)
                        .add("properties", properties)
+                       .add("timeout", timeout)
+                       .add("onTimeout", onTimeout)
                        .toString();
     }
 }
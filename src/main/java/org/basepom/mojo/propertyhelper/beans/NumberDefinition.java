@@ -27,6 +27,9 @@ public class NumberDefinition extends AbstractDefinition<NumberDefinition>
     /** Increment of the property when changing it. Field injected by Maven. */
     private int increment = 1;
 
+    /** If larger than 0, reserve this many numbers at once and hand them out one per execution. Field injected by Maven. */
+    private int leaseSize = 0;
+
     public NumberDefinition()
     {
         super();
@@ -57,11 +60,25 @@ public class NumberDefinition extends AbstractDefinition<NumberDefinition>
         return this;
     }
 
+    public int getLeaseSize()
+    {
+        return leaseSize;
+    }
+
+    @VisibleForTesting
+    public NumberDefinition setLeaseSize(final int leaseSize)
+    {
+        this.leaseSize = leaseSize;
+        return this;
+    }
+
     @Override
     public void check()
     {
         super.check();
         checkState(getInitialValue().isPresent(), "the initial value must not be empty");
         checkState(fieldNumber >= 0, "the field number must be >= 0");
+        checkState(leaseSize >= 0, "the lease size must be >= 0");
+        checkState(leaseSize == 0 || getPropertyFile().isPresent() || getPropertyStore().isPresent(), "leased numbers must be persisted in a property file or store");
     }
 }
@@ -17,6 +17,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import javax.annotation.Nonnull;
 
+import org.basepom.mojo.propertyhelper.InterpolationTemplate;
+
 import com.google.common.base.Function;
 
 public class PropertyDefinition
@@ -30,6 +32,9 @@ public class PropertyDefinition
     /** Transformers. Field injected by maven. */
     private String transformers = "";
 
+    /** The parsed value. */
+    private InterpolationTemplate template = null;
+
     public PropertyDefinition()
     {
     }
@@ -53,6 +58,14 @@ public class PropertyDefinition
         return value;
     }
 
+    public InterpolationTemplate getTemplate()
+    {
+        if (template == null) {
+            template = InterpolationTemplate.parse(getValue());
+        }
+        return template;
+    }
+
     public String getTransformers()
     {
         return transformers;
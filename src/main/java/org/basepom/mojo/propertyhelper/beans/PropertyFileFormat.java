@@ -0,0 +1,34 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper.beans;
+
+import java.util.Locale;
+
+import com.google.common.base.Preconditions;
+
+public enum PropertyFileFormat
+{
+    /** A java properties file. */
+    PROPERTIES,
+    /** A journal of changes, see {@link org.basepom.mojo.propertyhelper.JournalValueStore}. */
+    JOURNAL,
+    /** A binary file of numbers, see {@link org.basepom.mojo.propertyhelper.CounterFile}. */
+    COUNTER;
+
+    public static PropertyFileFormat forString(final String value)
+    {
+        Preconditions.checkArgument(value != null, "the value can not be null");
+        return Enum.valueOf(PropertyFileFormat.class, value.toUpperCase(Locale.ENGLISH));
+    }
+}
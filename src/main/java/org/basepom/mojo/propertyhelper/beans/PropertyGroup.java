@@ -26,9 +26,8 @@ import org.basepom.mojo.propertyhelper.InterpolatorFactory;
 import org.basepom.mojo.propertyhelper.TransformerRegistry;
 import org.codehaus.plexus.interpolation.InterpolationException;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 
 public class PropertyGroup
@@ -51,6 +50,9 @@ public class PropertyGroup
     /** Property definitions in this group. Field injected by Maven. */
     private PropertyDefinition [] properties = new PropertyDefinition[0];
 
+    /** Property definitions by name. Built on first use, as maven injects the definitions directly into the field. */
+    private ImmutableMap<String, PropertyDefinition> propertyIndex = null;
+
     // Must be noargs c'tor for maven property injection */
     public PropertyGroup()
     {
@@ -115,37 +117,52 @@ public class PropertyGroup
 
     public Map<String, String> getProperties()
     {
-        return ImmutableMap.copyOf(Maps.transformValues(Maps.uniqueIndex(Arrays.asList(properties), getNameFunction()), getValueFunction()));
+        return ImmutableMap.copyOf(Maps.transformValues(getPropertyIndex(), getValueFunction()));
     }
 
     public PropertyGroup setProperties(final Map<String, String> properties)
     {
         checkNotNull(properties, "properties is null");
-        this.properties = new PropertyDefinition[properties.size()];
+        final PropertyDefinition [] propertyDefinitions = new PropertyDefinition[properties.size()];
 
         int i = 0;
         for (Map.Entry<String, String> entry : properties.entrySet()) {
-            this.properties[i] = new PropertyDefinition(entry.getKey(), entry.getValue());
+            propertyDefinitions[i++] = new PropertyDefinition(entry.getKey(), entry.getValue());
         }
+        return setPropertyDefinitions(propertyDefinitions);
+    }
+
+    @VisibleForTesting
+    public PropertyGroup setPropertyDefinitions(final PropertyDefinition ... properties)
+    {
+        checkNotNull(properties, "properties is null");
+        this.properties = properties.clone();
+        this.propertyIndex = null;
         return this;
     }
 
     public Set<String> getPropertyNames()
     {
-        return ImmutableSet.copyOf(Iterables.transform(Arrays.asList(properties), getNameFunction()));
+        return getPropertyIndex().keySet();
     }
 
     public String getPropertyValue(final InterpolatorFactory interpolatorFactory, final String propertyName, final Map<String, String> propElements) throws IOException, InterpolationException
     {
-        final Map<String, PropertyDefinition> propertyMap = Maps.uniqueIndex(Arrays.asList(properties), getNameFunction());
+        final PropertyDefinition propertyDefinition = getPropertyIndex().get(propertyName);
 
-        if (!propertyMap.keySet().contains(propertyName)) {
+        if (propertyDefinition == null) {
             return "";
         }
 
-        final PropertyDefinition propertyDefinition = propertyMap.get(propertyName);
+        final String result = interpolatorFactory.interpolate(propertyDefinition.getTemplate(), getOnMissingProperty(), propElements);
+        return TransformerRegistry.compile(propertyDefinition.getTransformers()).apply(result);
+    }
 
-        final String result = interpolatorFactory.interpolate(propertyDefinition.getValue(), getOnMissingProperty(), propElements);
-        return TransformerRegistry.applyTransformers(propertyDefinition.getTransformers(), result);
+    private ImmutableMap<String, PropertyDefinition> getPropertyIndex()
+    {
+        if (propertyIndex == null) {
+            propertyIndex = Maps.uniqueIndex(Arrays.asList(properties), getNameFunction());
+        }
+        return propertyIndex;
     }
 }
@@ -0,0 +1,38 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper.macros;
+
+import org.basepom.mojo.propertyhelper.AbstractPropertyHelperMojo;
+import org.basepom.mojo.propertyhelper.ValueProvider;
+import org.basepom.mojo.propertyhelper.beans.MacroDefinition;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * A macro that computes its value without blocking the mojo thread. This method is called on the mojo thread and
+ * should return quickly; blocking work (running processes, reading files) belongs on the executor, which is shared
+ * by all macros of the build and limits how many of them run at the same time.
+ *
+ * The value provider may be written to from any thread. Writes are applied to the property once the value is
+ * collected.
+ */
+public interface AsyncMacroType extends MacroType
+{
+    ListenableFuture<Optional<String>> getValueAsync(MacroDefinition macroDefinition,
+                                                     ValueProvider valueProvider,
+                                                     AbstractPropertyHelperMojo mojo,
+                                                     ListeningExecutorService executor) throws Exception;
+}
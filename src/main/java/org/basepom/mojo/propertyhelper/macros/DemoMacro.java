@@ -25,6 +25,7 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 
 @Component(role = MacroType.class, hint = "demo")
+@Stateless
 public class DemoMacro implements MacroType
 {
     @Override
@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper.macros;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nonnull;
+
+import org.basepom.mojo.propertyhelper.AbstractPropertyHelperMojo;
+import org.basepom.mojo.propertyhelper.ValueProvider;
+import org.basepom.mojo.propertyhelper.beans.MacroDefinition;
+import org.codehaus.plexus.component.annotations.Component;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.ISODateTimeFormat;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Reports the state of the git repository that contains the project, without running git. Properties:
+ *
+ * <ul>
+ * <li><tt>value</tt> - one of <tt>commit</tt> (default), <tt>shortCommit</tt>, <tt>branch</tt>, <tt>head</tt>,
+ * <tt>commitTime</tt> or <tt>dirty</tt>.</li>
+ * <li><tt>abbrev</tt> - length of the short commit id, default 7.</li>
+ * <li><tt>dateFormat</tt> - joda time pattern for the commit time, default ISO 8601 in the committer's time zone.</li>
+ * <li><tt>directory</tt> - a directory in the repository, default the project base directory.</li>
+ * </ul>
+ *
+ * A repository is read once per build; all modules in the same repository share it.
+ */
+@Component(role = MacroType.class, hint = "git")
+@Stateless
+public class GitMacro implements MacroType
+{
+    /** Directory to the repository containing it. */
+    private final LoadingCache<File, Optional<GitRepository>> repositories = CacheBuilder.newBuilder()
+        .build(new CacheLoader<File, Optional<GitRepository>>() {
+            @Override
+            public Optional<GitRepository> load(final File directory) throws IOException
+            {
+                final Optional<GitRepository> repository = GitRepository.find(directory);
+                // All directories of a repository share its instance.
+                if (repository.isPresent() && !repository.get().getWorkTree().equals(directory)) {
+                    return GitMacro.this.repositories.getUnchecked(repository.get().getWorkTree());
+                }
+                return repository;
+            }
+        });
+
+    @Override
+    public Optional<String> getValue(@Nonnull final MacroDefinition macroDefinition,
+                                     @Nonnull final ValueProvider valueProvider,
+                                     @Nonnull final AbstractPropertyHelperMojo mojo)
+        throws IOException
+    {
+        final Map<String, String> properties = macroDefinition.getProperties();
+        final String directory = properties.get("directory");
+        final File dir = directory == null ? mojo.getBasedir() : new File(mojo.getBasedir(), directory);
+
+        final Optional<GitRepository> repository = findRepository(dir.getCanonicalFile());
+        checkState(repository.isPresent(), "No git repository found for %s", dir);
+
+        final String value = Objects.firstNonNull(properties.get("value"), "commit");
+        switch (value.toLowerCase(Locale.ENGLISH)) {
+            case "commit":
+                return repository.get().getCommitId();
+            case "shortcommit": {
+                final Optional<String> commitId = repository.get().getCommitId();
+                final int abbrev = Integer.parseInt(Objects.firstNonNull(properties.get("abbrev"), "7"));
+                return commitId.isPresent() ? Optional.of(commitId.get().substring(0, Math.min(abbrev, commitId.get().length()))) : commitId;
+            }
+            case "head":
+                return Optional.of(repository.get().getHeadRef().or("HEAD"));
+            case "branch": {
+                // Same as "git rev-parse --abbrev-ref HEAD".
+                final Optional<String> ref = repository.get().getHeadRef();
+                return Optional.of(ref.isPresent() ? ref.get().replaceFirst("^refs/heads/", "") : "HEAD");
+            }
+            case "committime": {
+                final Optional<Map.Entry<Long, String>> commitTime = repository.get().getCommitTime();
+                if (!commitTime.isPresent()) {
+                    return Optional.absent();
+                }
+                final DateTime time = new DateTime(commitTime.get().getKey() * 1000L, parseZone(commitTime.get().getValue()));
+                final String dateFormat = properties.get("dateFormat");
+                return Optional.of(dateFormat == null ? ISODateTimeFormat.dateTimeNoMillis().print(time) : DateTimeFormat.forPattern(dateFormat).print(time));
+            }
+            case "dirty":
+                return Optional.of(Boolean.toString(repository.get().isDirty()));
+            default:
+                throw new IllegalStateException(String.format("Unknown git value '%s' for macro '%s'", value, macroDefinition.getId()));
+        }
+    }
+
+    private Optional<GitRepository> findRepository(final File directory)
+        throws IOException
+    {
+        try {
+            return repositories.get(directory);
+        }
+        catch (final ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private static DateTimeZone parseZone(final String zone)
+    {
+        // +hhmm or -hhmm
+        final int minutes = Integer.parseInt(zone.substring(1, 3)) * 60 + Integer.parseInt(zone.substring(3, 5));
+        return DateTimeZone.forOffsetMillis((zone.startsWith("-") ? -minutes : minutes) * 60 * 1000);
+    }
+}
@@ -0,0 +1,1091 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper.macros;
+
+import static java.lang.String.format;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Bytes;
+
+import org.basepom.mojo.propertyhelper.util.Log;
+
+/**
+ * Reads the state of a local git repository from its files: <tt>HEAD</tt>, loose and packed refs, loose and packed
+ * objects and the index. Never runs git. The state is read once; a repository is a snapshot.
+ * <p>
+ * The dirty check honours <tt>core.fileMode</tt> and <tt>core.autocrlf</tt> from the global and the repository
+ * config, and the <tt>text</tt> and <tt>eol</tt> attributes. Clean filters (e.g. git lfs) can not be run; if a
+ * changed file has one, the check fails.
+ */
+final class GitRepository
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+    private static final int OBJ_COMMIT = 1;
+    private static final int OBJ_TREE = 2;
+    private static final int OBJ_BLOB = 3;
+    private static final int OBJ_OFS_DELTA = 6;
+    private static final int OBJ_REF_DELTA = 7;
+
+    private static final int MODE_TYPE_MASK = 0170000;
+    private static final int MODE_TREE = 0040000;
+    private static final int MODE_SYMLINK = 0120000;
+    private static final int MODE_GITLINK = 0160000;
+
+    /** Bytes of inflated delta bases that each pack keeps for the next delta. */
+    private static final long DELTA_BASE_CACHE_SIZE = 4L * 1024L * 1024L;
+
+    private static final Splitter ATTRIBUTE_SPLITTER = Splitter.on(CharMatcher.anyOf(" \t")).omitEmptyStrings();
+
+    private final File workTree;
+    private final File gitDir;
+    private final File commonDir;
+
+    private final Supplier<Head> head = Suppliers.memoize(new Supplier<Head>() {
+        @Override
+        public Head get()
+        {
+            try {
+                return readHead();
+            }
+            catch (final IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    });
+
+    private final Supplier<Boolean> dirty = Suppliers.memoize(new Supplier<Boolean>() {
+        @Override
+        public Boolean get()
+        {
+            try {
+                return readDirty();
+            }
+            catch (final IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    });
+
+    /** Pack index files, opened on first use. */
+    private List<PackFile> packFiles = null;
+
+    /** Number of reads in progress. The pack files stay open until the last one is done. */
+    private int openReads = 0;
+
+    /**
+     * Finds the repository that contains a directory by looking for <tt>.git</tt> in the directory and its parents.
+     */
+    static Optional<GitRepository> find(final File directory)
+        throws IOException
+    {
+        checkNotNull(directory, "directory is null");
+
+        for (File dir = directory.getCanonicalFile(); dir != null; dir = dir.getParentFile()) {
+            final File dotGit = new File(dir, ".git");
+            if (dotGit.isDirectory()) {
+                return Optional.of(new GitRepository(dir, dotGit));
+            }
+            else if (dotGit.isFile()) {
+                // Worktrees and submodules: "gitdir: <path>".
+                final String content = readString(dotGit).trim();
+                checkState(content.startsWith("gitdir:"), "%s is not a git link", dotGit);
+                final File linkedDir = resolve(dir, content.substring("gitdir:".length()).trim());
+                return Optional.of(new GitRepository(dir, linkedDir));
+            }
+        }
+        return Optional.absent();
+    }
+
+    private GitRepository(final File workTree, final File gitDir)
+        throws IOException
+    {
+        this.workTree = workTree;
+        this.gitDir = gitDir.getCanonicalFile();
+
+        final File commonDirFile = new File(this.gitDir, "commondir");
+        this.commonDir = commonDirFile.isFile()
+            ? resolve(this.gitDir, readString(commonDirFile).trim()).getCanonicalFile()
+            : this.gitDir;
+    }
+
+    File getWorkTree()
+    {
+        return workTree;
+    }
+
+    /**
+     * The ref that HEAD points to, e.g. <tt>refs/heads/main</tt>. Absent if HEAD is detached.
+     */
+    Optional<String> getHeadRef()
+    {
+        return head.get().ref;
+    }
+
+    /**
+     * The commit id of HEAD. Absent if the current branch has no commits yet.
+     */
+    Optional<String> getCommitId()
+    {
+        return head.get().commitId;
+    }
+
+    /**
+     * Committer time of HEAD in seconds since the epoch, and the committer's time zone as <tt>+hhmm</tt>.
+     */
+    Optional<Map.Entry<Long, String>> getCommitTime()
+    {
+        return head.get().commitTime;
+    }
+
+    /**
+     * True if a tracked file differs from HEAD, either in the index or in the work tree. Untracked files are ignored,
+     * the same as <tt>git describe --dirty</tt>.
+     */
+    boolean isDirty()
+    {
+        return dirty.get();
+    }
+
+    //
+    // Refs
+    //
+
+    private Head readHead()
+        throws IOException
+    {
+        openPacks();
+        try {
+            return readHeadObjects();
+        }
+        finally {
+            closePacks();
+        }
+    }
+
+    private Head readHeadObjects()
+        throws IOException
+    {
+        final String content = readString(new File(gitDir, "HEAD")).trim();
+        final Optional<String> ref = content.startsWith("ref:") ? Optional.of(content.substring("ref:".length()).trim()) : Optional.<String>absent();
+        final Optional<String> commitId = ref.isPresent() ? resolveRef(ref.get(), 0) : Optional.of(content);
+
+        Optional<Map.Entry<Long, String>> commitTime = Optional.absent();
+        if (commitId.isPresent()) {
+            final GitObject commit = readObject(commitId.get());
+            checkState(commit.type == OBJ_COMMIT, "HEAD %s is not a commit", commitId.get());
+            commitTime = parseCommitTime(commit.data);
+        }
+        return new Head(ref, commitId, commitTime);
+    }
+
+    private Optional<String> resolveRef(final String ref, final int depth)
+        throws IOException
+    {
+        checkState(depth < 10, "too many symbolic refs for %s", ref);
+
+        // Per worktree refs are in the git dir, shared refs in the common dir.
+        for (final File dir : ImmutableList.of(gitDir, commonDir)) {
+            final File refFile = new File(dir, ref);
+            if (refFile.isFile()) {
+                final String content = readString(refFile).trim();
+                return content.startsWith("ref:") ? resolveRef(content.substring("ref:".length()).trim(), depth + 1) : Optional.of(content);
+            }
+        }
+
+        final File packedRefs = new File(commonDir, "packed-refs");
+        if (packedRefs.isFile()) {
+            for (final String line : Files.readAllLines(packedRefs.toPath(), Charsets.UTF_8)) {
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("^")) {
+                    continue;
+                }
+                final int space = line.indexOf(' ');
+                if (space > 0 && line.substring(space + 1).equals(ref)) {
+                    return Optional.of(line.substring(0, space));
+                }
+            }
+        }
+        return Optional.absent();
+    }
+
+    private static Optional<Map.Entry<Long, String>> parseCommitTime(final byte[] commit)
+    {
+        final String content = new String(commit, Charsets.UTF_8);
+        for (final String line : Splitter.on('\n').split(content)) {
+            if (line.isEmpty()) {
+                break;
+            }
+            if (line.startsWith("committer ")) {
+                // committer Name <email> 1234567890 +0100
+                final List<String> fields = Splitter.on(' ').splitToList(line.substring(line.lastIndexOf('>') + 1).trim());
+                if (fields.size() == 2) {
+                    return Optional.of(Maps.immutableEntry(Long.parseLong(fields.get(0)), fields.get(1)));
+                }
+            }
+        }
+        return Optional.absent();
+    }
+
+    //
+    // Dirty state
+    //
+
+    private boolean readDirty()
+        throws IOException
+    {
+        final Optional<String> commitId = getCommitId();
+        final Map<String, String> headTree = Maps.newHashMap();
+        if (commitId.isPresent()) {
+            openPacks();
+            try {
+                final String commit = new String(readObject(commitId.get()).data, Charsets.UTF_8);
+                checkState(commit.startsWith("tree "), "commit %s has no tree", commitId.get());
+                readTree(commit.substring("tree ".length(), "tree ".length() + 40), "", headTree);
+            }
+            finally {
+                closePacks();
+            }
+        }
+
+        final File indexFile = new File(gitDir, "index");
+        final List<IndexEntry> entries = indexFile.isFile() ? readIndex(indexFile) : ImmutableList.<IndexEntry>of();
+        final long indexTime = indexFile.isFile() ? Files.getLastModifiedTime(indexFile.toPath()).to(TimeUnit.NANOSECONDS) : 0L;
+
+        if (entries.size() != headTree.size()) {
+            LOG.debug("Git: index has %d entries, HEAD has %d", entries.size(), headTree.size());
+            return true;
+        }
+
+        final WorkTreeSettings settings = new WorkTreeSettings(readCoreConfig());
+
+        for (final IndexEntry entry : entries) {
+            if (entry.stage != 0 || !entry.id.equals(headTree.get(entry.path))) {
+                LOG.debug("Git: %s is changed in the index", entry.path);
+                return true;
+            }
+            if (isChanged(entry, indexTime, settings)) {
+                LOG.debug("Git: %s is changed in the work tree", entry.path);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void readTree(final String treeId, final String prefix, final Map<String, String> result)
+        throws IOException
+    {
+        final GitObject tree = readObject(treeId);
+        checkState(tree.type == OBJ_TREE, "%s is not a tree", treeId);
+
+        final byte[] data = tree.data;
+        int pos = 0;
+        while (pos < data.length) {
+            // <octal mode> <name>\0<20 byte id>
+            final int space = indexOf(data, (byte) ' ', pos);
+            final int mode = Integer.parseInt(new String(data, pos, space - pos, Charsets.US_ASCII), 8);
+            final int nul = indexOf(data, (byte) 0, space + 1);
+            final String path = prefix + new String(data, space + 1, nul - space - 1, Charsets.UTF_8);
+            final String id = HEX.encode(data, nul + 1, 20);
+            pos = nul + 21;
+
+            if ((mode & MODE_TYPE_MASK) == MODE_TREE) {
+                readTree(id, path + "/", result);
+            }
+            else {
+                result.put(path, id);
+            }
+        }
+    }
+
+    private List<IndexEntry> readIndex(final File indexFile)
+        throws IOException
+    {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(indexFile.toPath()));
+
+        checkState(buffer.getInt() == 0x44495243, "%s is not a git index", indexFile); // "DIRC"
+        final int version = buffer.getInt();
+        checkState(version >= 2 && version <= 4, "git index version %d is not supported", version);
+        final int count = buffer.getInt();
+
+        final List<IndexEntry> entries = Lists.newArrayListWithCapacity(count);
+        byte[] previousName = new byte[0];
+        for (int i = 0; i < count; i++) {
+            final int start = buffer.position();
+            buffer.position(start + 8); // ctime
+            final long mtimeSeconds = buffer.getInt() & 0xffffffffL;
+            final int mtimeNanos = buffer.getInt();
+            buffer.position(buffer.position() + 4 + 4); // dev, ino
+            final int mode = buffer.getInt();
+            buffer.position(buffer.position() + 4 + 4); // uid, gid
+            final long size = buffer.getInt() & 0xffffffffL;
+            final byte[] id = new byte[20];
+            buffer.get(id);
+            final int flags = buffer.getShort() & 0xffff;
+            final boolean assumeValid = (flags & 0x8000) != 0;
+            boolean skipWorktree = false;
+            if ((flags & 0x4000) != 0) {
+                final int extendedFlags = buffer.getShort() & 0xffff;
+                skipWorktree = (extendedFlags & 0x4000) != 0;
+            }
+
+            final byte[] name;
+            if (version == 4) {
+                // Prefix compressed: drop N bytes from the previous name, then append a NUL terminated suffix.
+                final int strip = (int) readOffset(buffer);
+                final int suffixStart = buffer.position();
+                while (buffer.get() != 0) {
+                    // scan for the terminator.
+                }
+                final int suffixLength = buffer.position() - 1 - suffixStart;
+                name = Arrays.copyOf(previousName, previousName.length - strip + suffixLength);
+                System.arraycopy(buffer.array(), suffixStart, name, previousName.length - strip, suffixLength);
+            }
+            else {
+                final int nameStart = buffer.position();
+                while (buffer.get() != 0) {
+                    // scan for the terminator.
+                }
+                name = Arrays.copyOfRange(buffer.array(), nameStart, buffer.position() - 1);
+                // Entries are padded with NULs to a multiple of eight bytes.
+                final int length = buffer.position() - start;
+                buffer.position(start + ((length + 7) & ~7));
+            }
+            previousName = name;
+
+            entries.add(new IndexEntry(new String(name, Charsets.UTF_8), HEX.encode(id), mode, (flags >> 12) & 0x3, mtimeSeconds, mtimeNanos, size, assumeValid || skipWorktree));
+        }
+        return entries;
+    }
+
+    /**
+     * True if a file in the work tree differs from its index entry. The index time is the modification time of
+     * the index file in nanoseconds.
+     */
+    private boolean isChanged(final IndexEntry entry, final long indexTime, final WorkTreeSettings settings)
+        throws IOException
+    {
+        if (entry.skip || (entry.mode & MODE_TYPE_MASK) == MODE_GITLINK) {
+            return false;
+        }
+
+        final Path path = new File(workTree, entry.path).toPath();
+        if ((entry.mode & MODE_TYPE_MASK) == MODE_SYMLINK) {
+            if (!Files.isSymbolicLink(path)) {
+                return true;
+            }
+            return !entry.id.equals(blobId(Files.readSymbolicLink(path).toString().getBytes(Charsets.UTF_8)));
+        }
+
+        if (!Files.isRegularFile(path)) {
+            return true;
+        }
+
+        final PosixFileAttributeView posixView = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+        if (settings.fileMode && posixView != null) {
+            final boolean executable = posixView.readAttributes().permissions().contains(PosixFilePermission.OWNER_EXECUTE);
+            if (executable != ((entry.mode & 0100) != 0)) {
+                return true;
+            }
+        }
+
+        // Same as git, trust the file if size and modification time match the index, unless the file is racily
+        // clean: changed no earlier than the index was written, so it may have changed again after it was added.
+        final long size = Files.size(path);
+        final long mtime = Files.getLastModifiedTime(path).to(TimeUnit.NANOSECONDS);
+        final long seconds = TimeUnit.NANOSECONDS.toSeconds(mtime);
+        final long nanos = mtime - TimeUnit.SECONDS.toNanos(seconds);
+        // Git without nanosecond support records 0.
+        final boolean sameTime = (seconds & 0xffffffffL) == entry.mtimeSeconds && (entry.mtimeNanos == 0 || nanos == entry.mtimeNanos);
+        if ((size & 0xffffffffL) == entry.size && sameTime && mtime < indexTime) {
+            return false;
+        }
+
+        final byte[] content = Files.readAllBytes(path);
+        if (entry.id.equals(blobId(content))) {
+            return false;
+        }
+
+        // Git may store different content than the file has.
+        final Attributes attributes = settings.getAttributes(entry.path);
+        if (attributes.filter.isPresent()) {
+            throw new IllegalStateException(format("Can not check '%s' for changes, the git filter '%s' is not supported!", entry.path, attributes.filter.get()));
+        }
+        if (attributes.text.or(settings.autoCrlf) && !Bytes.contains(content, (byte) 0)) {
+            return !entry.id.equals(blobId(toUnixLineEndings(content)));
+        }
+        return true;
+    }
+
+    private static byte[] toUnixLineEndings(final byte[] content)
+    {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream(content.length);
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] != '\r' || i + 1 >= content.length || content[i + 1] != '\n') {
+                result.write(content[i]);
+            }
+        }
+        return result.toByteArray();
+    }
+
+    //
+    // Config and attributes
+    //
+
+    /**
+     * Reads the <tt>core</tt> section of the global config and then the repository config, so that the repository
+     * wins. Includes are not followed. Keys are lower case.
+     */
+    private Map<String, String> readCoreConfig()
+        throws IOException
+    {
+        final Map<String, String> result = Maps.newHashMap();
+        final List<File> configFiles = Lists.newArrayList();
+        final String home = System.getProperty("user.home");
+        if (home != null) {
+            configFiles.add(new File(home, ".gitconfig"));
+        }
+        configFiles.add(new File(commonDir, "config"));
+
+        for (final File configFile : configFiles) {
+            if (!configFile.isFile()) {
+                continue;
+            }
+            String section = "";
+            for (final String rawLine : Files.readAllLines(configFile.toPath(), Charsets.UTF_8)) {
+                final String line = rawLine.trim();
+                if (line.isEmpty() || line.charAt(0) == '#' || line.charAt(0) == ';') {
+                    continue;
+                }
+                if (line.charAt(0) == '[') {
+                    final int end = line.indexOf(']');
+                    section = (end < 0 ? line.substring(1) : line.substring(1, end)).trim().toLowerCase(Locale.ENGLISH);
+                    continue;
+                }
+                if (section.equals("core")) {
+                    // A key without a value is true.
+                    final int equals = line.indexOf('=');
+                    final String key = (equals < 0 ? line : line.substring(0, equals)).trim().toLowerCase(Locale.ENGLISH);
+                    final String value = equals < 0 ? "true" : stripComment(line.substring(equals + 1));
+                    result.put(key, value);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String stripComment(final String value)
+    {
+        final int comment = CharMatcher.anyOf("#;").indexIn(value);
+        return CharMatcher.is('"').trimFrom((comment < 0 ? value : value.substring(0, comment)).trim());
+    }
+
+    private static boolean parseBoolean(final Map<String, String> config, final String key, final boolean defaultValue)
+    {
+        final String value = config.get(key.toLowerCase(Locale.ENGLISH));
+        if (value == null) {
+            return defaultValue;
+        }
+        switch (value.toLowerCase(Locale.ENGLISH)) {
+            case "true":
+            case "yes":
+            case "on":
+            case "1":
+                return true;
+            case "false":
+            case "no":
+            case "off":
+            case "0":
+            case "":
+                return false;
+            default:
+                throw new IllegalStateException(format("Invalid value '%s' for core.%s in the git config!", value, key));
+        }
+    }
+
+    /**
+     * Settings that change how files in the work tree compare to the index.
+     */
+    private final class WorkTreeSettings
+    {
+        /** False if git ignores the executable bit. */
+        private final boolean fileMode;
+
+        /** True if git converts CRLF to LF for text files that have no <tt>text</tt> attribute. */
+        private final boolean autoCrlf;
+
+        /** Lines of the <tt>.gitattributes</tt> files by directory, relative to the work tree and ending with '/'. */
+        private final Map<String, List<String>> attributeLines = Maps.newHashMap();
+
+        private WorkTreeSettings(final Map<String, String> coreConfig)
+        {
+            this.fileMode = parseBoolean(coreConfig, "fileMode", true);
+            this.autoCrlf = "input".equalsIgnoreCase(coreConfig.get("autocrlf")) || parseBoolean(coreConfig, "autoCrlf", false);
+        }
+
+        /**
+         * Returns the attributes of a file from the <tt>.gitattributes</tt> files from the top of the work tree down
+         * to the file, then <tt>info/attributes</tt>. Later lines win.
+         */
+        private Attributes getAttributes(final String path)
+            throws IOException
+        {
+            final Attributes attributes = new Attributes();
+            int slash = -1;
+            do {
+                final String directory = path.substring(0, slash + 1);
+                attributes.apply(getAttributeLines(directory, new File(workTree, directory + ".gitattributes")), path.substring(slash + 1));
+                slash = path.indexOf('/', slash + 1);
+            } while (slash >= 0);
+            attributes.apply(getAttributeLines("$info", new File(commonDir, "info/attributes")), path);
+            return attributes;
+        }
+
+        private List<String> getAttributeLines(final String key, final File file)
+            throws IOException
+        {
+            List<String> lines = attributeLines.get(key);
+            if (lines == null) {
+                lines = file.isFile() ? Files.readAllLines(file.toPath(), Charsets.UTF_8) : ImmutableList.<String>of();
+                attributeLines.put(key, lines);
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * The attributes that change what git stores for a file.
+     */
+    private static final class Attributes
+    {
+        /** Set by <tt>text</tt>, <tt>eol</tt> or <tt>binary</tt>, otherwise <tt>core.autocrlf</tt> decides. */
+        private Optional<Boolean> text = Optional.absent();
+
+        private Optional<String> filter = Optional.absent();
+
+        /**
+         * Applies the lines of an attributes file. The path is relative to the folder of the file.
+         */
+        private void apply(final List<String> lines, final String path)
+        {
+            final Path relativePath = FileSystems.getDefault().getPath(path);
+            final Path fileName = relativePath.getFileName();
+
+            for (final String line : lines) {
+                final List<String> fields = ATTRIBUTE_SPLITTER.splitToList(line.trim());
+                if (fields.isEmpty() || fields.get(0).startsWith("#")) {
+                    continue;
+                }
+
+                // Patterns without a slash match the file name in any folder.
+                final String pattern = fields.get(0);
+                final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + CharMatcher.is('/').trimLeadingFrom(pattern));
+                if (!matcher.matches(pattern.indexOf('/') < 0 ? fileName : relativePath)) {
+                    continue;
+                }
+
+                for (final String attribute : fields.subList(1, fields.size())) {
+                    if (attribute.equals("text") || attribute.startsWith("text=") || attribute.startsWith("eol=")) {
+                        text = Optional.of(Boolean.TRUE);
+                    }
+                    else if (attribute.equals("-text") || attribute.equals("binary")) {
+                        text = Optional.of(Boolean.FALSE);
+                    }
+                    else if (attribute.equals("!text")) {
+                        text = Optional.absent();
+                    }
+                    else if (attribute.startsWith("filter=")) {
+                        filter = Optional.of(attribute.substring("filter=".length()));
+                    }
+                    else if (attribute.equals("-filter") || attribute.equals("!filter")) {
+                        filter = Optional.absent();
+                    }
+                }
+            }
+        }
+    }
+
+    private static String readString(final File file)
+        throws IOException
+    {
+        return new String(Files.readAllBytes(file.toPath()), Charsets.UTF_8);
+    }
+
+    private static String blobId(final byte[] content)
+    {
+        final Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putBytes(("blob " + content.length + "\0").getBytes(Charsets.US_ASCII));
+        hasher.putBytes(content);
+        return hasher.hash().toString();
+    }
+
+    //
+    // Objects
+    //
+
+    private GitObject readObject(final String id)
+        throws IOException
+    {
+        checkState(id.length() == 40, "%s is not an object id", id);
+
+        final File looseObject = new File(commonDir, "objects/" + id.substring(0, 2) + "/" + id.substring(2));
+        if (looseObject.isFile()) {
+            try (InputStream in = new InflaterInputStream(new FileInputStream(looseObject))) {
+                final byte[] data = ByteStreams.toByteArray(in);
+                // <type> <size>\0<content>
+                final int space = indexOf(data, (byte) ' ', 0);
+                final int nul = indexOf(data, (byte) 0, space + 1);
+                final String type = new String(data, 0, space, Charsets.US_ASCII);
+                return new GitObject(typeCode(type), Arrays.copyOfRange(data, nul + 1, data.length));
+            }
+        }
+
+        final byte[] rawId = HEX.decode(id);
+        for (final PackFile packFile : getPackFiles()) {
+            final long offset = packFile.find(rawId);
+            if (offset >= 0) {
+                return readPackedObject(packFile, offset);
+            }
+        }
+        throw new IOException("git object " + id + " not found in " + commonDir);
+    }
+
+    private synchronized List<PackFile> getPackFiles()
+        throws IOException
+    {
+        if (packFiles == null) {
+            final ImmutableList.Builder<PackFile> builder = ImmutableList.builder();
+            final File[] indexFiles = new File(commonDir, "objects/pack").listFiles();
+            if (indexFiles != null) {
+                for (final File indexFile : indexFiles) {
+                    if (indexFile.getName().endsWith(".idx")) {
+                        final File pack = new File(indexFile.getParentFile(), indexFile.getName().replaceAll("\\.idx$", ".pack"));
+                        if (pack.isFile()) {
+                            builder.add(new PackFile(indexFile, pack));
+                        }
+                    }
+                }
+            }
+            packFiles = builder.build();
+        }
+        return packFiles;
+    }
+
+    /**
+     * Keeps the pack files open until the matching {@link #closePacks()}, so that reading many objects does not
+     * open a pack for each of them.
+     */
+    private synchronized void openPacks()
+    {
+        openReads++;
+    }
+
+    private synchronized void closePacks()
+        throws IOException
+    {
+        openReads--;
+        if (openReads == 0 && packFiles != null) {
+            for (final PackFile packFile : packFiles) {
+                packFile.close();
+            }
+        }
+    }
+
+    private GitObject readPackedObject(final PackFile packFile, final long offset)
+        throws IOException
+    {
+        final FileChannel pack = packFile.getChannel();
+
+        // The type, the size and the delta base fit into the first 32 bytes.
+        final ByteBuffer header = ByteBuffer.allocate(32);
+        while (header.hasRemaining() && pack.read(header, offset + header.position()) >= 0) {
+            // read until the buffer is full or the pack ends.
+        }
+        header.flip();
+
+        // Type in bits 4-6 of the first byte, size as a little endian varint.
+        int c = header.get() & 0xff;
+        final int type = (c >> 4) & 0x7;
+        long size = c & 0xf;
+        int shift = 4;
+        while ((c & 0x80) != 0) {
+            c = header.get() & 0xff;
+            size |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        }
+
+        switch (type) {
+            case OBJ_OFS_DELTA: {
+                final long baseOffset = readOffset(header);
+                final GitObject base = readDeltaBase(packFile, offset - baseOffset);
+                return new GitObject(base.type, applyDelta(base.data, inflate(pack, offset + header.position(), size)));
+            }
+            case OBJ_REF_DELTA: {
+                final byte[] baseId = new byte[20];
+                header.get(baseId);
+                // The base is almost always in the same pack.
+                final long baseOffset = packFile.find(baseId);
+                final GitObject base = baseOffset >= 0 ? readDeltaBase(packFile, baseOffset) : readObject(HEX.encode(baseId));
+                return new GitObject(base.type, applyDelta(base.data, inflate(pack, offset + header.position(), size)));
+            }
+            default:
+                return new GitObject(type, inflate(pack, offset + header.position(), size));
+        }
+    }
+
+    /**
+     * Reads a delta base. Deltas of neighbouring objects often share their base, so recently used bases are kept.
+     */
+    private GitObject readDeltaBase(final PackFile packFile, final long offset)
+        throws IOException
+    {
+        final GitObject cachedBase = packFile.deltaBases.getIfPresent(offset);
+        if (cachedBase != null) {
+            return cachedBase;
+        }
+        final GitObject base = readPackedObject(packFile, offset);
+        packFile.deltaBases.put(offset, base);
+        return base;
+    }
+
+    private static byte[] inflate(final FileChannel pack, final long offset, final long size)
+        throws IOException
+    {
+        checkState(size <= Integer.MAX_VALUE, "object too large");
+
+        final byte[] result = new byte[(int) size];
+        final ByteBuffer buffer = ByteBuffer.allocate(8192);
+        final Inflater inflater = new Inflater();
+        try {
+            long position = offset;
+            int length = 0;
+            while (length < result.length) {
+                if (inflater.needsInput()) {
+                    buffer.clear();
+                    final int read = pack.read(buffer, position);
+                    if (read < 0) {
+                        throw new IOException("unexpected end of pack file");
+                    }
+                    position += read;
+                    inflater.setInput(buffer.array(), 0, read);
+                }
+                final int inflated = inflater.inflate(result, length, result.length - length);
+                if (inflated == 0 && inflater.finished()) {
+                    break;
+                }
+                length += inflated;
+            }
+            checkState(length == result.length, "object size mismatch");
+            return result;
+        }
+        catch (final DataFormatException e) {
+            throw new IOException(e);
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] applyDelta(final byte[] base, final byte[] delta)
+    {
+        final ByteBuffer buffer = ByteBuffer.wrap(delta);
+        final long baseSize = readSize(buffer);
+        checkState(baseSize == base.length, "delta base size mismatch");
+        final ByteArrayOutputStream result = new ByteArrayOutputStream((int) readSize(buffer));
+
+        while (buffer.hasRemaining()) {
+            final int op = buffer.get() & 0xff;
+            if ((op & 0x80) != 0) {
+                // Copy from the base. Offset and size bytes are present if their bit is set.
+                long copyOffset = 0;
+                int copySize = 0;
+                for (int i = 0; i < 4; i++) {
+                    if ((op & (1 << i)) != 0) {
+                        copyOffset |= (long) (buffer.get() & 0xff) << (8 * i);
+                    }
+                }
+                for (int i = 0; i < 3; i++) {
+                    if ((op & (0x10 << i)) != 0) {
+                        copySize |= (buffer.get() & 0xff) << (8 * i);
+                    }
+                }
+                if (copySize == 0) {
+                    copySize = 0x10000;
+                }
+                result.write(base, (int) copyOffset, copySize);
+            }
+            else {
+                checkState(op != 0, "invalid delta");
+                result.write(delta, buffer.position(), op);
+                buffer.position(buffer.position() + op);
+            }
+        }
+        return result.toByteArray();
+    }
+
+    /** Little endian base 128 varint, used for sizes in deltas. */
+    private static long readSize(final ByteBuffer buffer)
+    {
+        long value = 0;
+        int shift = 0;
+        int c;
+        do {
+            c = buffer.get() & 0xff;
+            value |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        return value;
+    }
+
+    /** Big endian varint with an offset added per byte, used for delta offsets and index v4 names. */
+    private static long readOffset(final ByteBuffer buffer)
+    {
+        int c = buffer.get() & 0xff;
+        long value = c & 0x7f;
+        while ((c & 0x80) != 0) {
+            c = buffer.get() & 0xff;
+            value = ((value + 1) << 7) | (c & 0x7f);
+        }
+        return value;
+    }
+
+    private static int typeCode(final String type)
+    {
+        switch (type) {
+            case "commit":
+                return OBJ_COMMIT;
+            case "tree":
+                return OBJ_TREE;
+            case "blob":
+                return OBJ_BLOB;
+            default:
+                return 0;
+        }
+    }
+
+    private static int indexOf(final byte[] data, final byte value, final int start)
+    {
+        for (int i = start; i < data.length; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("corrupt git object");
+    }
+
+    private static File resolve(final File base, final String path)
+    {
+        final File file = new File(path);
+        return file.isAbsolute() ? file : new File(base, path);
+    }
+
+    private static final class Head
+    {
+        private final Optional<String> ref;
+        private final Optional<String> commitId;
+        private final Optional<Map.Entry<Long, String>> commitTime;
+
+        private Head(final Optional<String> ref, final Optional<String> commitId, final Optional<Map.Entry<Long, String>> commitTime)
+        {
+            this.ref = ref;
+            this.commitId = commitId;
+            this.commitTime = commitTime;
+        }
+    }
+
+    private static final class GitObject
+    {
+        private final int type;
+        private final byte[] data;
+
+        private GitObject(final int type, final byte[] data)
+        {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    private static final class IndexEntry
+    {
+        private final String path;
+        private final String id;
+        private final int mode;
+        private final int stage;
+        /** Seconds of the modification time, truncated to 32 bits. */
+        private final long mtimeSeconds;
+        private final int mtimeNanos;
+        private final long size;
+        private final boolean skip;
+
+        private IndexEntry(final String path, final String id, final int mode, final int stage, final long mtimeSeconds, final int mtimeNanos, final long size, final boolean skip)
+        {
+            this.path = path;
+            this.id = id;
+            this.mode = mode;
+            this.stage = stage;
+            this.mtimeSeconds = mtimeSeconds;
+            this.mtimeNanos = mtimeNanos;
+            this.size = size;
+            this.skip = skip;
+        }
+    }
+
+    /**
+     * A version 2 pack index, mapped into memory, and its pack.
+     */
+    private static final class PackFile
+    {
+        private final File pack;
+        private final MappedByteBuffer index;
+        private final int count;
+
+        /** Inflated delta bases by offset. */
+        private final Cache<Long, GitObject> deltaBases = CacheBuilder.newBuilder()
+            .maximumWeight(DELTA_BASE_CACHE_SIZE)
+            .weigher(new Weigher<Long, GitObject>() {
+                @Override
+                public int weigh(final Long offset, final GitObject object)
+                {
+                    return object.data.length;
+                }
+            })
+            .build();
+
+        /** Open while objects are read. */
+        private FileChannel channel = null;
+
+        private PackFile(final File indexFile, final File pack)
+            throws IOException
+        {
+            this.pack = pack;
+            try (RandomAccessFile file = new RandomAccessFile(indexFile, "r")) {
+                this.index = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            }
+            checkState(index.getInt(0) == 0xff744f63 && index.getInt(4) == 2, "%s is not a version 2 pack index", indexFile);
+            this.count = index.getInt(8 + 255 * 4);
+        }
+
+        private synchronized FileChannel getChannel()
+            throws IOException
+        {
+            if (channel == null) {
+                channel = FileChannel.open(pack.toPath(), StandardOpenOption.READ);
+            }
+            return channel;
+        }
+
+        private synchronized void close()
+            throws IOException
+        {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+
+        /**
+         * Returns the offset of an object in the pack, or -1 if the pack does not contain it.
+         */
+        private long find(final byte[] id)
+        {
+            final int first = id[0] & 0xff;
+            int low = first == 0 ? 0 : index.getInt(8 + (first - 1) * 4);
+            int high = index.getInt(8 + first * 4) - 1;
+            final int ids = 8 + 256 * 4;
+
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = compare(ids + mid * 20, id);
+                if (cmp < 0) {
+                    low = mid + 1;
+                }
+                else if (cmp > 0) {
+                    high = mid - 1;
+                }
+                else {
+                    final int offsets = ids + count * 20 + count * 4;
+                    final int offset = index.getInt(offsets + mid * 4);
+                    if ((offset & 0x80000000) == 0) {
+                        return offset;
+                    }
+                    // Large offsets are in a separate table.
+                    return index.getLong(offsets + count * 4 + (offset & 0x7fffffff) * 8);
+                }
+            }
+            return -1;
+        }
+
+        private int compare(final int position, final byte[] id)
+        {
+            for (int i = 0; i < 20; i++) {
+                final int cmp = (index.get(position + i) & 0xff) - (id[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return workTree.getPath();
+    }
+}
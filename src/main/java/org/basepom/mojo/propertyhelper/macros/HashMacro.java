@@ -0,0 +1,290 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper.macros;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.basepom.mojo.propertyhelper.AbstractPropertyHelperMojo;
+import org.basepom.mojo.propertyhelper.ValueProvider;
+import org.basepom.mojo.propertyhelper.beans.MacroDefinition;
+import org.basepom.mojo.propertyhelper.util.Log;
+import org.codehaus.plexus.component.annotations.Component;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Computes a digest over the contents of a set of files, e.g. as a cache key or build id. Properties:
+ *
+ * <ul>
+ * <li><tt>includes</tt> - comma separated globs for the files to hash, relative to the directory. Default <tt>**</tt>.</li>
+ * <li><tt>excludes</tt> - comma separated globs for files to leave out. A directory that matches is not scanned.</li>
+ * <li><tt>algorithm</tt> - any <tt>MessageDigest</tt> algorithm, default <tt>SHA-256</tt>.</li>
+ * <li><tt>directory</tt> - the directory to hash, default the project base directory.</li>
+ * </ul>
+ *
+ * The result only depends on the relative paths and contents of the matching files. Directories are scanned and
+ * hashed in parallel on the fork/join pool of the session's macro executor, so all hash macros of a build together
+ * use at most as many threads as macros may run at the same time (<tt>macroThreads</tt>); the
+ * digest of a file is remembered by path, size and modification time for the rest of the build, so files shared by
+ * several modules are read once.
+ */
+@Component(role = MacroType.class, hint = "hash")
+@Stateless
+public class HashMacro implements MacroType
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+    /** Files larger than this are memory mapped. */
+    private static final long MAP_THRESHOLD = 64 * 1024;
+
+    /** Large files are mapped in chunks of this size. */
+    private static final long MAP_CHUNK = 64 * 1024 * 1024;
+
+    private static final Splitter GLOB_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    /** algorithm, path, size and modification time to the digest of the file. */
+    private final Cache<String, String> fileDigests = CacheBuilder.newBuilder()
+        .maximumSize(100000)
+        .build();
+
+    private final AtomicLong filesRead = new AtomicLong();
+
+    @Override
+    public Optional<String> getValue(@Nonnull final MacroDefinition macroDefinition,
+                                     @Nonnull final ValueProvider valueProvider,
+                                     @Nonnull final AbstractPropertyHelperMojo mojo)
+        throws IOException
+    {
+        final Map<String, String> properties = macroDefinition.getProperties();
+        final String directory = properties.get("directory");
+        final File dir = directory == null ? mojo.getBasedir() : new File(mojo.getBasedir(), directory);
+
+        return Optional.of(hash(dir,
+                                ImmutableList.copyOf(GLOB_SPLITTER.split(Objects.firstNonNull(properties.get("includes"), "**"))),
+                                ImmutableList.copyOf(GLOB_SPLITTER.split(Objects.firstNonNull(properties.get("excludes"), ""))),
+                                Objects.firstNonNull(properties.get("algorithm"), "SHA-256"),
+                                mojo.getMacroExecutor().getForkJoinPool()));
+    }
+
+    @VisibleForTesting
+    String hash(final File directory, final List<String> includes, final List<String> excludes, final String algorithm, final ForkJoinPool pool)
+        throws IOException
+    {
+        checkNotNull(directory, "directory is null");
+        checkNotNull(pool, "pool is null");
+        checkState(directory.isDirectory(), "%s is not a directory", directory);
+        final MessageDigest digest = newDigest(algorithm);
+
+        final List<PathMatcher> includeMatchers = matchers(includes);
+        final List<PathMatcher> excludeMatchers = matchers(excludes);
+
+        final long start = System.nanoTime();
+        final long readBefore = filesRead.get();
+        final SortedMap<String, String> digests;
+        try {
+            digests = pool.invoke(new DirectoryTask(directory.getCanonicalFile(), "", includeMatchers, excludeMatchers, algorithm));
+        }
+        catch (final RuntimeException e) {
+            // Fork/join may rethrow a copy of the exception, look for the I/O problem anywhere in the chain.
+            for (final Throwable cause : Throwables.getCausalChain(e)) {
+                Throwables.propagateIfInstanceOf(cause, IOException.class);
+            }
+            throw e;
+        }
+
+        // Sorted by relative path, so the result does not depend on the order in which files were hashed.
+        for (final Map.Entry<String, String> entry : digests.entrySet()) {
+            digest.update(entry.getKey().getBytes(Charsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(entry.getValue().getBytes(Charsets.US_ASCII));
+            digest.update((byte) '\n');
+        }
+
+        LOG.debug("Hashed %d files in %s (%d read) in %d ms", digests.size(), directory, filesRead.get() - readBefore, (System.nanoTime() - start) / 1000000L);
+        return HEX.encode(digest.digest());
+    }
+
+    @VisibleForTesting
+    long getFilesRead()
+    {
+        return filesRead.get();
+    }
+
+    private String fileDigest(final File file, final String algorithm)
+        throws IOException
+    {
+        final long size = file.length();
+        final long mtime = file.lastModified();
+        final String key = algorithm + ":" + file.getPath() + ":" + size + ":" + mtime;
+
+        final String cachedDigest = fileDigests.getIfPresent(key);
+        if (cachedDigest != null) {
+            return cachedDigest;
+        }
+
+        final MessageDigest digest = newDigest(algorithm);
+        if (size > MAP_THRESHOLD) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                final long length = channel.size();
+                for (long position = 0; position < length; position += MAP_CHUNK) {
+                    final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_CHUNK, length - position));
+                    digest.update(buffer);
+                }
+            }
+        }
+        else {
+            final byte[] buffer = new byte[(int) Math.max(size, 1)];
+            try (InputStream in = new FileInputStream(file)) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+        filesRead.incrementAndGet();
+
+        final String result = HEX.encode(digest.digest());
+        fileDigests.put(key, result);
+        return result;
+    }
+
+    private static MessageDigest newDigest(final String algorithm)
+    {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        }
+        catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(String.format("Unknown digest algorithm '%s'", algorithm), e);
+        }
+    }
+
+    private static List<PathMatcher> matchers(final List<String> globs)
+    {
+        final List<PathMatcher> matchers = Lists.newArrayListWithCapacity(globs.size());
+        for (final String glob : globs) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        }
+        return matchers;
+    }
+
+    private static boolean matches(final List<PathMatcher> matchers, final String path)
+    {
+        final Path relativePath = FileSystems.getDefault().getPath(path);
+        for (final PathMatcher matcher : matchers) {
+            if (matcher.matches(relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hashes the matching files in a directory and forks a task for every subdirectory. Returns the file digests
+     * by relative path, with '/' as separator on all platforms.
+     */
+    private final class DirectoryTask extends RecursiveTask<SortedMap<String, String>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final File directory;
+        private final String prefix;
+        private final List<PathMatcher> includes;
+        private final List<PathMatcher> excludes;
+        private final String algorithm;
+
+        private DirectoryTask(final File directory, final String prefix, final List<PathMatcher> includes, final List<PathMatcher> excludes, final String algorithm)
+        {
+            this.directory = directory;
+            this.prefix = prefix;
+            this.includes = includes;
+            this.excludes = excludes;
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        protected SortedMap<String, String> compute()
+        {
+            final SortedMap<String, String> result = Maps.newTreeMap();
+            final File[] children = directory.listFiles();
+            if (children == null) {
+                return result;
+            }
+
+            final List<DirectoryTask> subTasks = Lists.newArrayList();
+            try {
+                for (final File child : children) {
+                    final String path = prefix + child.getName();
+                    if (Files.isSymbolicLink(child.toPath()) && child.isDirectory()) {
+                        // Do not follow links to directories, they may form cycles.
+                        continue;
+                    }
+                    if (child.isDirectory()) {
+                        if (!matches(excludes, path)) {
+                            final DirectoryTask subTask = new DirectoryTask(child, path + "/", includes, excludes, algorithm);
+                            subTask.fork();
+                            subTasks.add(subTask);
+                        }
+                    }
+                    else if (child.isFile() && matches(includes, path) && !matches(excludes, path)) {
+                        result.put(path, fileDigest(child, algorithm));
+                    }
+                }
+            }
+            catch (final IOException e) {
+                throw Throwables.propagate(e);
+            }
+
+            for (final DirectoryTask subTask : subTasks) {
+                result.putAll(subTask.join());
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper.macros;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+import org.basepom.mojo.propertyhelper.AbstractPropertyHelperMojo;
+import org.basepom.mojo.propertyhelper.ValueProvider;
+import org.basepom.mojo.propertyhelper.beans.MacroDefinition;
+import org.codehaus.plexus.component.annotations.Component;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Extracts a value from a file with a regular expression, e.g. a version constant from a C header. Properties:
+ *
+ * <ul>
+ * <li><tt>file</tt> - the file to scan, relative to the project base directory. Required.</li>
+ * <li><tt>pattern</tt> - the regular expression. <tt>^</tt> and <tt>$</tt> match at line boundaries. Required.</li>
+ * <li><tt>group</tt> - the capture group that holds the value, default 1.</li>
+ * <li><tt>encoding</tt> - the file encoding, default UTF-8.</li>
+ * </ul>
+ *
+ * The file is memory mapped and scanned up to the first match. Results are remembered by file, modification time and
+ * pattern for the rest of the build.
+ */
+@Component(role = MacroType.class, hint = "regex")
+@Stateless
+public class RegexMacro implements MacroType
+{
+    private final LoadingCache<String, Pattern> patterns = CacheBuilder.newBuilder()
+        .maximumSize(1000)
+        .build(new CacheLoader<String, Pattern>() {
+            @Override
+            public Pattern load(final String pattern)
+            {
+                return Pattern.compile(pattern, Pattern.MULTILINE);
+            }
+        });
+
+    /** File, size, modification time, encoding, pattern and group to the match. */
+    private final Cache<String, Optional<String>> matches = CacheBuilder.newBuilder()
+        .maximumSize(10000)
+        .build();
+
+    private final AtomicLong filesScanned = new AtomicLong();
+
+    @Override
+    public Optional<String> getValue(@Nonnull final MacroDefinition macroDefinition,
+                                     @Nonnull final ValueProvider valueProvider,
+                                     @Nonnull final AbstractPropertyHelperMojo mojo)
+        throws IOException
+    {
+        final Map<String, String> properties = macroDefinition.getProperties();
+        final String fileName = properties.get("file");
+        final String pattern = properties.get("pattern");
+        checkState(fileName != null, "No file for macro '%s'", macroDefinition.getId());
+        checkState(pattern != null, "No pattern for macro '%s'", macroDefinition.getId());
+
+        final File file = new File(fileName).isAbsolute() ? new File(fileName) : new File(mojo.getBasedir(), fileName);
+        final int group = Integer.parseInt(Objects.firstNonNull(properties.get("group"), "1"));
+        final Charset charset = Charset.forName(Objects.firstNonNull(properties.get("encoding"), "UTF-8"));
+
+        return extract(file, pattern, group, charset);
+    }
+
+    @VisibleForTesting
+    Optional<String> extract(final File file, final String pattern, final int group, final Charset charset)
+        throws IOException
+    {
+        checkNotNull(file, "file is null");
+        checkNotNull(pattern, "pattern is null");
+        checkState(file.isFile(), "%s is not a file", file);
+
+        final File canonicalFile = file.getCanonicalFile();
+        final String key = canonicalFile.getPath() + ":" + canonicalFile.length() + ":" + canonicalFile.lastModified() + ":" + charset.name() + ":" + group + ":" + pattern;
+
+        final Optional<String> cachedMatch = matches.getIfPresent(key);
+        if (cachedMatch != null) {
+            return cachedMatch;
+        }
+
+        final Pattern compiledPattern;
+        try {
+            compiledPattern = patterns.getUnchecked(pattern);
+        }
+        catch (final UncheckedExecutionException e) {
+            // Report an invalid pattern as such.
+            throw Throwables.propagate(e.getCause());
+        }
+        checkState(group >= 0 && group <= compiledPattern.matcher("").groupCount(), "Pattern '%s' has no group %d", pattern, group);
+
+        final Optional<String> match = scan(canonicalFile, compiledPattern, group, charset);
+        matches.put(key, match);
+        return match;
+    }
+
+    @VisibleForTesting
+    long getFilesScanned()
+    {
+        return filesScanned.get();
+    }
+
+    private Optional<String> scan(final File file, final Pattern pattern, final int group, final Charset charset)
+        throws IOException
+    {
+        filesScanned.incrementAndGet();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            final long size = channel.size();
+            checkState(size <= Integer.MAX_VALUE, "%s is too large to scan", file);
+            final ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            // ISO-8859-1 maps every byte to the same character and is scanned in place; everything else is decoded first.
+            final CharSequence chars = isSingleByte(charset) ? new ByteCharSequence(bytes) : charset.decode(bytes);
+
+            final Matcher matcher = pattern.matcher(chars);
+            return matcher.find() ? Optional.fromNullable(matcher.group(group)) : Optional.<String>absent();
+        }
+    }
+
+    private static boolean isSingleByte(final Charset charset)
+    {
+        // Not US-ASCII, which decodes bytes above 0x7f as replacement characters.
+        return charset.equals(Charsets.ISO_8859_1);
+    }
+
+    /**
+     * Bytes of a single byte (ISO-8859-1) encoded buffer, as characters. Nothing is copied until a match is extracted.
+     */
+    private static final class ByteCharSequence implements CharSequence
+    {
+        private final ByteBuffer bytes;
+
+        private ByteCharSequence(final ByteBuffer bytes)
+        {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length()
+        {
+            return bytes.limit();
+        }
+
+        @Override
+        public char charAt(final int index)
+        {
+            return (char) (bytes.get(index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end)
+        {
+            final ByteBuffer slice = bytes.duplicate();
+            slice.position(start);
+            slice.limit(end);
+            return new ByteCharSequence(slice.slice());
+        }
+
+        @Override
+        public String toString()
+        {
+            final ByteBuffer copy = bytes.duplicate();
+            copy.position(0);
+            return Charsets.ISO_8859_1.decode(copy).toString();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.basepom.mojo.propertyhelper.beans.NumberDefinition;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitei.testing.lessio.AllowLocalFileAccess;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+@AllowLocalFileAccess(paths= {"*"})
+public class TestCounterFile
+{
+    private static final Set<String> NO_COUNTERS = ImmutableSet.of();
+
+    private File counterFile = null;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        counterFile = File.createTempFile("test", ".counter");
+        Assert.assertTrue(counterFile.delete());
+        counterFile.deleteOnExit();
+    }
+
+    @Test
+    public void testInPlaceUpdate()
+        throws IOException
+    {
+        final CounterValueStore store = new CounterValueStore(counterFile, new PersistOptions());
+        Assert.assertFalse(store.load().isPresent());
+        Assert.assertTrue(store.store(ImmutableMap.of("build", "1", "other", "7"), NO_COUNTERS));
+        final long length = counterFile.length();
+
+        Assert.assertFalse(store.store(ImmutableMap.of("build", "1", "other", "7"), NO_COUNTERS));
+        Assert.assertTrue(store.store(ImmutableMap.of("build", "2", "other", "7"), NO_COUNTERS));
+        Assert.assertEquals(length, counterFile.length());
+        store.close();
+
+        Assert.assertEquals(ImmutableMap.of("build", "2", "other", "7"), load());
+    }
+
+    @Test
+    public void testConcurrentIncrements()
+        throws IOException
+    {
+        try (CounterValueStore initial = new CounterValueStore(counterFile, new PersistOptions())) {
+            initial.load();
+            initial.store(ImmutableMap.of("build", "10"), NO_COUNTERS);
+        }
+
+        try (CounterValueStore first = new CounterValueStore(counterFile, new PersistOptions());
+             CounterValueStore second = new CounterValueStore(counterFile, new PersistOptions())) {
+            Assert.assertEquals("10", first.load().get().get("build"));
+            Assert.assertEquals("10", second.load().get().get("build"));
+
+            first.store(ImmutableMap.of("build", "11"), NO_COUNTERS);
+            // Adds a counter, the first store now has a stale layout.
+            second.store(ImmutableMap.of("build", "11", "added", "1"), NO_COUNTERS);
+            first.store(ImmutableMap.of("build", "12"), NO_COUNTERS);
+        }
+
+        Assert.assertEquals(ImmutableMap.of("build", "13", "added", "1"), load());
+    }
+
+    @Test
+    public void testReplace()
+        throws IOException
+    {
+        CounterFile.update(counterFile, ImmutableMap.<String, Long>of(), ImmutableMap.of("build", 1L), NO_COUNTERS, false);
+
+        try (CounterFile oldFile = CounterFile.open(counterFile).get()) {
+            CounterFile.update(counterFile, ImmutableMap.of("build", 1L), ImmutableMap.of("added", 5L), NO_COUNTERS, false);
+
+            // The old file was replaced, changes must go to the new file.
+            Assert.assertFalse(oldFile.add("build", 1L));
+            Assert.assertEquals(ImmutableMap.of("build", 1L), oldFile.getValues());
+        }
+
+        Assert.assertEquals(ImmutableMap.of("build", "2", "added", "5"), load());
+
+        final File[] tempFiles = counterFile.getParentFile().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name)
+            {
+                return name.startsWith(counterFile.getName()) && name.endsWith(".tmp");
+            }
+        });
+        Assert.assertEquals(0, tempFiles.length);
+    }
+
+    @Test
+    public void testLockUntilClose()
+        throws Exception
+    {
+        final PersistOptions persistOptions = new PersistOptions().setLock(true).setLockTimeout(100L);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (CounterValueStore first = new CounterValueStore(counterFile, persistOptions)) {
+            first.load();
+            first.store(ImmutableMap.of("build", "1"), NO_COUNTERS);
+
+            final Future<?> second = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException
+                {
+                    try (CounterValueStore store = new CounterValueStore(counterFile, persistOptions)) {
+                        store.load();
+                    }
+                    return null;
+                }
+            });
+
+            try {
+                second.get();
+                Assert.fail("Loaded a locked counter file");
+            }
+            catch (final ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(ImmutableMap.of("build", "1"), load());
+    }
+
+    @Test
+    public void testNumberField()
+        throws IOException
+    {
+        final NumberDefinition definition = new NumberDefinition()
+            .setId("build")
+            .setOnMissingFile("CREATE")
+            .setOnMissingProperty("CREATE")
+            .setPropertyFileFormat("counter")
+            .setPropertyFile(counterFile);
+        definition.check();
+
+        for (long i = 0; i < 10; i++) {
+            try (ValueCache valueCache = new ValueCache(new ValueFileCache(), new PersistOptions())) {
+                final NumberField numberField = new NumberField(definition, valueCache.getValueProvider(definition));
+                Assert.assertEquals(Long.valueOf(i), numberField.getNumberValue());
+                numberField.increment();
+                valueCache.persist();
+            }
+        }
+
+        Assert.assertEquals(ImmutableMap.of("build", "10"), load());
+    }
+
+    @Test
+    public void testConversion()
+        throws IOException
+    {
+        final File propFile = File.createTempFile("test", ".properties");
+        propFile.deleteOnExit();
+        new File(propFile.getPath() + ".lock").deleteOnExit();
+        try (Writer writer = new FileWriter(propFile)) {
+            writer.write("# counters\nbuild = 42\nother=-3\n");
+        }
+
+        CounterFile.fromProperties(propFile, counterFile);
+        Assert.assertEquals(ImmutableMap.of("build", "42", "other", "-3"), load());
+
+        try (CounterValueStore store = new CounterValueStore(counterFile, new PersistOptions())) {
+            store.load();
+            store.store(ImmutableMap.of("build", "43", "other", "-3"), NO_COUNTERS);
+        }
+
+        CounterFile.toProperties(counterFile, propFile);
+        final Properties props = new Properties();
+        try (FileReader reader = new FileReader(propFile)) {
+            props.load(reader);
+        }
+        Assert.assertEquals(ImmutableMap.of("build", "43", "other", "-3"), props);
+
+        // The comment of the existing file is kept.
+        Assert.assertTrue(Files.toString(propFile, StandardCharsets.ISO_8859_1).startsWith("# counters\n"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNotANumber()
+        throws IOException
+    {
+        try (CounterValueStore store = new CounterValueStore(counterFile, new PersistOptions())) {
+            store.load();
+            store.store(ImmutableMap.of("build", "1.0"), NO_COUNTERS);
+        }
+    }
+
+    private Map<String, String> load()
+        throws IOException
+    {
+        try (CounterValueStore store = new CounterValueStore(counterFile, new PersistOptions())) {
+            return store.load().get();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import java.util.Map;
+
+import org.apache.maven.model.Model;
+import org.basepom.mojo.propertyhelper.beans.IgnoreWarnFail;
+import org.codehaus.plexus.interpolation.InterpolationCycleException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+public class TestInterpolatorFactory
+{
+    private final Map<String, String> properties = ImmutableMap.of("a", "A", "b", "#{a}-#{project.version}", "self", "x#{self}");
+
+    @Test
+    public void testTemplate()
+    {
+        final InterpolationTemplate template = InterpolationTemplate.parse("x#{a}y#{.b}#{c");
+        Assert.assertFalse(template.isConstant());
+        Assert.assertEquals(5, template.size());
+        Assert.assertEquals("x", template.getPart(0));
+        Assert.assertEquals("a", template.getPart(1));
+        Assert.assertTrue(template.isExpression(1));
+        Assert.assertEquals("b", template.getPart(3));
+        Assert.assertEquals("#{c", template.getPart(4));
+        Assert.assertFalse(template.isExpression(4));
+
+        Assert.assertTrue(InterpolationTemplate.parse("plain").isConstant());
+        Assert.assertSame(InterpolationTemplate.forValue("#{a}"), InterpolationTemplate.forValue("#{a}"));
+    }
+
+    @Test
+    public void testInterpolate() throws Exception
+    {
+        final Model model = new Model();
+        model.setVersion("1.0");
+        final InterpolatorFactory interpolatorFactory = new InterpolatorFactory(Optional.of(model));
+
+        Assert.assertEquals("<A-1.0>", interpolatorFactory.interpolate("<#{b}>", IgnoreWarnFail.FAIL, properties));
+        Assert.assertEquals("1.0", interpolatorFactory.interpolate("#{pom.version}", IgnoreWarnFail.FAIL, properties));
+        Assert.assertEquals("A--", interpolatorFactory.interpolate("#{a}-#{missing}-#{missing}", IgnoreWarnFail.IGNORE, properties));
+    }
+
+    @Test
+    public void testReuse() throws Exception
+    {
+        final InterpolatorFactory interpolatorFactory = new InterpolatorFactory(Optional.<Model>of(new BrokenModel()));
+        final Map<String, String> first = ImmutableMap.of("x", "1", "y", "#{x}");
+        final Map<String, String> second = ImmutableMap.of("x", "2", "z", "3");
+
+        // Looking up the name fails and leaves feedback in the model value source.
+        Assert.assertEquals("1--", interpolatorFactory.interpolate("#{y}-#{z}-#{project.name}", IgnoreWarnFail.IGNORE, first));
+        Assert.assertTrue(interpolatorFactory.getFeedback().isEmpty());
+
+        // Nothing of the first call is visible: not its values and not what it could not resolve.
+        Assert.assertEquals("2-3", interpolatorFactory.interpolate("#{x}-#{z}", IgnoreWarnFail.FAIL, second));
+        Assert.assertEquals("-2", interpolatorFactory.interpolate("#{y}-#{x}", IgnoreWarnFail.IGNORE, second));
+        Assert.assertTrue(interpolatorFactory.getFeedback().isEmpty());
+
+        try {
+            interpolatorFactory.interpolate("#{self}", IgnoreWarnFail.IGNORE, properties);
+            Assert.fail("Expected a cycle");
+        }
+        catch (final InterpolationCycleException e) {
+            // A failed call does not leave anything behind either.
+            Assert.assertTrue(interpolatorFactory.getFeedback().isEmpty());
+        }
+        Assert.assertEquals("1", interpolatorFactory.interpolate("#{y}", IgnoreWarnFail.FAIL, first));
+    }
+
+    private static final class BrokenModel extends Model
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public String getName()
+        {
+            throw new IllegalStateException("broken");
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissing() throws Exception
+    {
+        final InterpolatorFactory interpolatorFactory = new InterpolatorFactory(Optional.<Model>absent());
+        // b refers to the model, which is missing.
+        interpolatorFactory.interpolate("#{b}", IgnoreWarnFail.FAIL, properties);
+    }
+
+    @Test(expected = InterpolationCycleException.class)
+    public void testCycle() throws Exception
+    {
+        final InterpolatorFactory interpolatorFactory = new InterpolatorFactory(Optional.<Model>absent());
+        interpolatorFactory.interpolate("#{self}", IgnoreWarnFail.IGNORE, properties);
+    }
+}
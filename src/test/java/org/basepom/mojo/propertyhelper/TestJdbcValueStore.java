@@ -0,0 +1,169 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.basepom.mojo.propertyhelper.beans.NumberDefinition;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class TestJdbcValueStore
+{
+    private static final Set<String> NO_COUNTERS = ImmutableSet.of();
+
+    private static final int THREADS = 4;
+    private static final int INCREMENTS = 10;
+
+    private String url = null;
+    private ExecutorService executor = null;
+
+    @Before
+    public void setUp()
+    {
+        url = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000";
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testMissing()
+        throws IOException
+    {
+        try (JdbcValueStore store = new JdbcValueStore(url, new PersistOptions())) {
+            Assert.assertFalse(store.load().isPresent());
+        }
+    }
+
+    @Test
+    public void testStore()
+        throws IOException
+    {
+        try (JdbcValueStore store = new JdbcValueStore(url, new PersistOptions())) {
+            Assert.assertFalse(store.load().isPresent());
+            Assert.assertTrue(store.store(ImmutableMap.of("build", "1", "version", "1.0"), NO_COUNTERS));
+            Assert.assertFalse(store.store(ImmutableMap.of("build", "1", "version", "1.0"), NO_COUNTERS));
+            Assert.assertTrue(store.store(ImmutableMap.of("build", "2"), NO_COUNTERS));
+        }
+
+        try (JdbcValueStore store = new JdbcValueStore(url, new PersistOptions())) {
+            final Optional<Map<String, String>> values = store.load();
+            Assert.assertTrue(values.isPresent());
+            Assert.assertEquals(ImmutableMap.of("build", "2"), values.get());
+        }
+    }
+
+    @Test
+    public void testConcurrentIncrements()
+        throws Exception
+    {
+        Assert.assertEquals(Long.valueOf(0L), increment());
+
+        final List<Future<List<Long>>> futures = Lists.newArrayList();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(new Callable<List<Long>>() {
+                @Override
+                public List<Long> call() throws Exception
+                {
+                    final List<Long> result = Lists.newArrayList();
+                    for (int j = 0; j < INCREMENTS; j++) {
+                        result.add(increment());
+                    }
+                    return result;
+                }
+            }));
+        }
+
+        // Every build got its own number.
+        final Set<Long> values = Sets.newHashSet();
+        for (final Future<List<Long>> future : futures) {
+            for (final Long value : future.get()) {
+                Assert.assertTrue("duplicate value " + value, values.add(value));
+            }
+        }
+
+        Assert.assertEquals(THREADS * INCREMENTS, values.size());
+        Assert.assertEquals(Long.valueOf(THREADS * INCREMENTS + 1), increment());
+    }
+
+    @Test
+    public void testCountersAreMerged()
+        throws IOException
+    {
+        final Set<String> counters = ImmutableSet.of("build");
+        try (JdbcValueStore store = new JdbcValueStore(url, new PersistOptions())) {
+            store.load();
+            store.store(ImmutableMap.of("build", "1", "version", "1.0"), counters);
+        }
+
+        // Without locks, both builds read the same values.
+        try (JdbcValueStore first = new JdbcValueStore(url, new PersistOptions());
+             JdbcValueStore second = new JdbcValueStore(url, new PersistOptions())) {
+            first.load();
+            second.load();
+            Assert.assertFalse(first.lockValue("build"));
+            Assert.assertTrue(first.store(ImmutableMap.of("build", "2", "version", "1.1"), counters));
+            Assert.assertTrue(second.store(ImmutableMap.of("build", "2", "version", "1.2"), counters));
+        }
+
+        // The increments of the counter add up, the other value is overwritten.
+        try (JdbcValueStore store = new JdbcValueStore(url, new PersistOptions())) {
+            Assert.assertEquals(ImmutableMap.of("build", "3", "version", "1.2"), store.load().get());
+        }
+    }
+
+    private NumberDefinition definition()
+    {
+        final NumberDefinition definition = new NumberDefinition()
+            .setId("build")
+            .setOnMissingFile("CREATE")
+            .setOnMissingProperty("CREATE")
+            .setPropertyStore(url);
+        definition.check();
+        return definition;
+    }
+
+    private Long increment()
+        throws IOException
+    {
+        try (ValueCache valueCache = new ValueCache(new ValueFileCache(), new PersistOptions().setLock(true))) {
+            final NumberField numberField = new NumberField(definition(), valueCache.getValueProvider(definition()));
+            final Long value = numberField.getNumberValue();
+            numberField.increment();
+            valueCache.persist();
+            return value;
+        }
+    }
+}
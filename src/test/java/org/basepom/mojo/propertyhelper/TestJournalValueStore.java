@@ -0,0 +1,167 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.basepom.mojo.propertyhelper.beans.NumberDefinition;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitei.testing.lessio.AllowLocalFileAccess;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+@AllowLocalFileAccess(paths= {"*"})
+public class TestJournalValueStore
+{
+    private static final Set<String> NO_COUNTERS = ImmutableSet.of();
+    private static final Set<String> BUILD_COUNTER = ImmutableSet.of("build");
+
+    private File journalFile = null;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        journalFile = File.createTempFile("test", ".journal");
+        Assert.assertTrue(journalFile.delete());
+        journalFile.deleteOnExit();
+        new File(journalFile.getPath() + ".lock").deleteOnExit();
+    }
+
+    @Test
+    public void testRoundTrip()
+        throws IOException
+    {
+        final JournalValueStore store = new JournalValueStore(journalFile, new PersistOptions());
+        Assert.assertFalse(store.load().isPresent());
+
+        final Map<String, String> values = ImmutableMap.of("build", "1", "name", "a = b", "gone", "x");
+        Assert.assertTrue(store.store(values, BUILD_COUNTER));
+        Assert.assertFalse(store.store(values, BUILD_COUNTER));
+        Assert.assertTrue(store.store(ImmutableMap.of("build", "5", "name", "#c"), BUILD_COUNTER));
+
+        final Optional<Map<String, String>> loaded = new JournalValueStore(journalFile, new PersistOptions()).load();
+        Assert.assertTrue(loaded.isPresent());
+        Assert.assertEquals(ImmutableMap.of("build", "5", "name", "#c"), loaded.get());
+
+        final List<String> lines = Files.readAllLines(journalFile.toPath(), StandardCharsets.ISO_8859_1);
+        Assert.assertEquals("inc build=4", lines.get(4));
+    }
+
+    @Test
+    public void testConcurrentIncrements()
+        throws IOException
+    {
+        final JournalValueStore initial = new JournalValueStore(journalFile, new PersistOptions());
+        initial.load();
+        initial.store(ImmutableMap.of("build", "10", "version", "1"), BUILD_COUNTER);
+
+        final JournalValueStore first = new JournalValueStore(journalFile, new PersistOptions());
+        final JournalValueStore second = new JournalValueStore(journalFile, new PersistOptions());
+        Assert.assertEquals("10", first.load().get().get("build"));
+        Assert.assertEquals("10", second.load().get().get("build"));
+
+        first.store(ImmutableMap.of("build", "11", "version", "2"), BUILD_COUNTER);
+        second.store(ImmutableMap.of("build", "11", "version", "2"), BUILD_COUNTER);
+
+        // Only the counter adds up, other numbers are replaced.
+        Assert.assertEquals(ImmutableMap.of("build", "12", "version", "2"), new JournalValueStore(journalFile, new PersistOptions()).load().get());
+    }
+
+    @Test
+    public void testIncompleteRecord()
+        throws IOException
+    {
+        final JournalValueStore initial = new JournalValueStore(journalFile, new PersistOptions());
+        initial.load();
+        initial.store(ImmutableMap.of("build", "10", "name", "a"), NO_COUNTERS);
+
+        // A crash while appending.
+        Files.write(journalFile.toPath(), "inc build=1\nset name=b\ninc bui".getBytes(StandardCharsets.ISO_8859_1), StandardOpenOption.APPEND);
+
+        final JournalValueStore store = new JournalValueStore(journalFile, new PersistOptions());
+        Assert.assertEquals(ImmutableMap.of("build", "11", "name", "b"), store.load().get());
+
+        // The next write drops the incomplete record.
+        store.store(ImmutableMap.of("build", "12", "name", "b"), BUILD_COUNTER);
+        Assert.assertEquals(ImmutableMap.of("build", "12", "name", "b"), new JournalValueStore(journalFile, new PersistOptions()).load().get());
+
+        final List<String> lines = Files.readAllLines(journalFile.toPath(), StandardCharsets.ISO_8859_1);
+        Assert.assertEquals("inc build=1", lines.get(lines.size() - 1));
+    }
+
+    @Test
+    public void testZeroPadded()
+        throws IOException
+    {
+        final JournalValueStore store = new JournalValueStore(journalFile, new PersistOptions());
+        store.load();
+        store.store(ImmutableMap.of("id", "007", "build", "7"), NO_COUNTERS);
+        store.store(ImmutableMap.of("id", "008", "build", "008"), NO_COUNTERS);
+
+        Assert.assertEquals(ImmutableMap.of("id", "008", "build", "008"), new JournalValueStore(journalFile, new PersistOptions()).load().get());
+    }
+
+    @Test
+    public void testCompaction()
+        throws IOException
+    {
+        final PersistOptions persistOptions = new PersistOptions().setJournalCompactionSize(200L);
+        final NumberDefinition definition = new NumberDefinition()
+            .setId("build")
+            .setOnMissingFile("CREATE")
+            .setOnMissingProperty("CREATE")
+            .setPropertyFileFormat("journal")
+            .setPropertyFile(journalFile);
+        definition.check();
+
+        final boolean posix = Files.getFileAttributeView(journalFile.getParentFile().toPath(), PosixFileAttributeView.class) != null;
+        final Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-rw-r--");
+
+        for (long i = 0; i < 100; i++) {
+            try (ValueCache valueCache = new ValueCache(new ValueFileCache(), persistOptions)) {
+                final NumberField numberField = new NumberField(definition, valueCache.getValueProvider(definition));
+                Assert.assertEquals(Long.valueOf(i), numberField.getNumberValue());
+                numberField.increment();
+                valueCache.persist();
+            }
+
+            if (i == 0 && posix) {
+                Files.setPosixFilePermissions(journalFile.toPath(), permissions);
+            }
+        }
+
+        Assert.assertTrue(journalFile.length() <= 200L + 20L);
+        Assert.assertEquals("100", new JournalValueStore(journalFile, persistOptions).load().get().get("build"));
+
+        // Compaction replaces the file, but keeps its permissions.
+        if (posix) {
+            Assert.assertEquals(permissions, Files.getPosixFilePermissions(journalFile.toPath()));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import org.apache.maven.model.Model;
+import org.basepom.mojo.propertyhelper.beans.IgnoreWarnFail;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+public class TestLazyPropertyValues
+{
+    @Test
+    public void testDeferred() throws Exception
+    {
+        final LazyPropertyValues values = new LazyPropertyValues();
+        final CountingElement a = new CountingElement("a", "A");
+        final CountingElement b = new CountingElement("b", "#{a}-B");
+        final CountingElement unused = new CountingElement("unused", "U");
+
+        values.defer(a);
+        values.defer(b);
+        values.defer(unused);
+        Assert.assertEquals(0, values.getEvaluatedCount());
+
+        final InterpolatorFactory interpolatorFactory = new InterpolatorFactory(Optional.<Model>absent());
+        Assert.assertEquals("A-B", interpolatorFactory.interpolate("#{b}", IgnoreWarnFail.FAIL, values));
+        Assert.assertEquals("A-B", interpolatorFactory.interpolate("#{b}", IgnoreWarnFail.FAIL, values));
+
+        Assert.assertEquals(1, a.getCount());
+        Assert.assertEquals(1, b.getCount());
+        Assert.assertEquals(0, unused.getCount());
+        Assert.assertEquals(2, values.getEvaluatedCount());
+        Assert.assertEquals(1, values.getPendingCount());
+
+        // Iterating evaluates the remaining elements.
+        Assert.assertEquals(3, values.size());
+        Assert.assertEquals(1, unused.getCount());
+        Assert.assertEquals(0, values.getPendingCount());
+    }
+
+    private static final class CountingElement implements PropertyElement
+    {
+        private final String name;
+        private final String value;
+        private int count = 0;
+
+        private CountingElement(final String name, final String value)
+        {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public String getPropertyName()
+        {
+            return name;
+        }
+
+        @Override
+        public Optional<String> getPropertyValue()
+        {
+            count++;
+            return Optional.of(value);
+        }
+
+        @Override
+        public boolean isExport()
+        {
+            return false;
+        }
+
+        private int getCount()
+        {
+            return count;
+        }
+    }
+}
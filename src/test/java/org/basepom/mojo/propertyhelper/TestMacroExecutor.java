@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class TestMacroExecutor
+{
+    @Test
+    public void testLimit() throws Exception
+    {
+        // More threads than permits, so that the permits do the limiting.
+        final MacroExecutor macroExecutor = new MacroExecutor(2, Executors.newFixedThreadPool(8));
+        Assert.assertEquals(2, macroExecutor.getLimit());
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        final List<ListenableFuture<Integer>> futures = Lists.newArrayList();
+        for (int i = 0; i < 8; i++) {
+            final int value = i;
+            futures.add(macroExecutor.asListeningExecutor().submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception
+                {
+                    final int current = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), current));
+                    }
+                    Thread.sleep(20L);
+                    running.decrementAndGet();
+                    return value;
+                }
+            }));
+        }
+
+        Assert.assertEquals(28, sum(Futures.allAsList(futures).get()));
+        Assert.assertTrue(maxRunning.get() <= 2);
+        macroExecutor.shutdown();
+    }
+
+    @Test
+    public void testForkJoinPool()
+    {
+        final MacroExecutor macroExecutor = new MacroExecutor(3);
+        try {
+            // One pool for all macros, as large as the limit.
+            Assert.assertSame(macroExecutor.getForkJoinPool(), macroExecutor.getForkJoinPool());
+            Assert.assertEquals(3, macroExecutor.getForkJoinPool().getParallelism());
+        }
+        finally {
+            macroExecutor.shutdown();
+        }
+        Assert.assertTrue(macroExecutor.getForkJoinPool().isShutdown());
+    }
+
+    @Test
+    public void testCancelWaiting() throws Exception
+    {
+        final MacroExecutor macroExecutor = new MacroExecutor(1, Executors.newFixedThreadPool(2));
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean ran = new AtomicBoolean();
+
+        final ListenableFuture<?> running = macroExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception
+            {
+                release.await();
+                return null;
+            }
+        });
+
+        final ListenableFuture<?> waiting = macroExecutor.submit(new Runnable() {
+            @Override
+            public void run()
+            {
+                ran.set(true);
+            }
+        });
+
+        Thread.sleep(50L);
+        Assert.assertTrue(waiting.cancel(true));
+        release.countDown();
+        running.get();
+
+        // The permit is free again and the cancelled task never ran.
+        Assert.assertEquals(Integer.valueOf(3), macroExecutor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call()
+            {
+                return 3;
+            }
+        }).get(10, TimeUnit.SECONDS));
+        Assert.assertFalse(ran.get());
+        macroExecutor.shutdown();
+    }
+
+    private static int sum(final List<Integer> values)
+    {
+        int sum = 0;
+        for (final int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+}
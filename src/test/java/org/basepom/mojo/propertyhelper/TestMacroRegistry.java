@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import org.basepom.mojo.propertyhelper.beans.MacroDefinition;
+import org.basepom.mojo.propertyhelper.macros.DemoMacro;
+import org.basepom.mojo.propertyhelper.macros.MacroType;
+import org.basepom.mojo.propertyhelper.macros.Stateless;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+public class TestMacroRegistry
+{
+    @Test
+    public void testIndexedType() throws Exception
+    {
+        final MacroRegistry macroRegistry = new MacroRegistry(getClass().getClassLoader());
+        final MacroDefinition macroDefinition = new MacroDefinition().setMacroType("demo");
+
+        // Indexed macros need no container.
+        final MacroType macroType = macroRegistry.getMacroType(macroDefinition, null);
+        Assert.assertTrue(macroType instanceof DemoMacro);
+        Assert.assertSame(macroType, macroRegistry.getMacroType(macroDefinition, null));
+        Assert.assertEquals(2L, macroRegistry.getLookupCount());
+        Assert.assertEquals(0L, macroRegistry.getResolveCount());
+    }
+
+    @Test
+    public void testMacroClass() throws Exception
+    {
+        final MacroRegistry macroRegistry = new MacroRegistry(getClass().getClassLoader());
+        final MacroDefinition statefulDefinition = new MacroDefinition().setMacroClass(StatefulMacro.class.getName());
+        final MacroDefinition statelessDefinition = new MacroDefinition().setMacroClass(StatelessMacro.class.getName());
+
+        Assert.assertNotSame(macroRegistry.getMacroType(statefulDefinition, null), macroRegistry.getMacroType(statefulDefinition, null));
+        Assert.assertSame(macroRegistry.getMacroType(statelessDefinition, null), macroRegistry.getMacroType(statelessDefinition, null));
+        Assert.assertEquals(4L, macroRegistry.getLookupCount());
+        Assert.assertEquals(3L, macroRegistry.getResolveCount());
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void testMissingClass() throws Exception
+    {
+        final MacroRegistry macroRegistry = new MacroRegistry(getClass().getClassLoader());
+        macroRegistry.getMacroType(new MacroDefinition().setMacroClass("org.basepom.DoesNotExist"), null);
+    }
+
+    public static class StatefulMacro implements MacroType
+    {
+        @Override
+        public Optional<String> getValue(final MacroDefinition macroDefinition, final ValueProvider valueProvider, final AbstractPropertyHelperMojo mojo)
+        {
+            return Optional.absent();
+        }
+    }
+
+    @Stateless
+    public static class StatelessMacro extends StatefulMacro
+    {
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.codehaus.plexus.interpolation.ObjectBasedValueSource;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestModelValueSource
+{
+    @Test
+    public void testMatchesReflection()
+    {
+        final Model model = new Model();
+        model.setVersion("1.0");
+        model.setArtifactId("test");
+        final Build build = new Build();
+        build.setDirectory("/tmp/target");
+        model.setBuild(build);
+        final Dependency dependency = new Dependency();
+        dependency.setArtifactId("dep");
+        model.addDependency(dependency);
+
+        final ModelValueSource valueSource = new ModelValueSource(model);
+        final ObjectBasedValueSource reflection = new ObjectBasedValueSource(model);
+
+        for (final String expression : new String[] {"version", "artifactId", "build.directory", "build.finalName", "parent.version", "unknown", "build.unknown",
+                                                     "dependencies[0].artifactId", "dependencies"}) {
+            Assert.assertEquals(expression, reflection.getValue(expression), valueSource.getValue(expression));
+        }
+    }
+
+    @Test
+    public void testPerModel()
+    {
+        final Model first = new Model();
+        first.setVersion("1.0");
+        final Model second = new Model();
+        second.setVersion("2.0");
+
+        Assert.assertEquals("1.0", new ModelValueSource(first).getValue("version"));
+        Assert.assertEquals("2.0", new ModelValueSource(second).getValue("version"));
+    }
+}
@@ -13,6 +13,10 @@
  */
 package org.basepom.mojo.propertyhelper;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.List;
 import java.util.Properties;
 
 import org.basepom.mojo.propertyhelper.NumberField;
@@ -20,8 +24,9 @@ import org.basepom.mojo.propertyhelper.ValueProvider;
 import org.basepom.mojo.propertyhelper.beans.NumberDefinition;
 import org.junit.Assert;
 import org.junit.Test;
+import org.kitei.testing.lessio.AllowLocalFileAccess;
 
-
+@AllowLocalFileAccess(paths= {"*"})
 public class TestNumberField
 {
     @Test
@@ -210,5 +215,115 @@ public class TestNumberField
         Assert.assertEquals("6.8", nf1.getPropertyValue().get());
         Assert.assertEquals("6.8", nf2.getPropertyValue().get());
     }
-}
 
+    @Test
+    public void testFieldGrows()
+    {
+        final NumberDefinition f1 = new NumberDefinition()
+            .setId("hello")
+            .setFieldNumber(1);
+        final NumberDefinition f2 = new NumberDefinition()
+            .setId("hello")
+            .setFieldNumber(2);
+        f1.check();
+        f2.check();
+
+        final Properties props = new Properties();
+        props.setProperty("hello", "1.9-rc7");
+
+        final NumberValue.Cache numberCache = new NumberValue.Cache();
+        final NumberField nf1 = new NumberField(f1, new ValueProvider.PropertyProvider(props, f1.getPropertyName()), numberCache);
+        final NumberField nf2 = new NumberField(f2, new ValueProvider.PropertyProvider(props, f2.getPropertyName()), numberCache);
+
+        nf1.increment();
+        Assert.assertEquals("1.10-rc7", props.getProperty("hello"));
+        Assert.assertEquals(7L, nf2.getNumberValue().longValue());
+
+        nf2.setNumberValue(123L);
+        Assert.assertEquals("1.10-rc123", props.getProperty("hello"));
+        Assert.assertEquals(10L, nf1.getNumberValue().longValue());
+
+        // Changes from outside the fields are picked up.
+        props.setProperty("hello", "2.0-rc1");
+        Assert.assertEquals(0L, nf1.getNumberValue().longValue());
+        Assert.assertEquals(1L, nf2.getNumberValue().longValue());
+    }
+
+    @Test
+    public void testRememberedValues() throws Exception
+    {
+        final NumberDefinition f1 = new NumberDefinition()
+            .setId("hello")
+            .setInitialValue("1.2")
+            .setFieldNumber(0);
+        final NumberDefinition f2 = new NumberDefinition()
+            .setId("hello")
+            .setInitialValue("1.2")
+            .setFieldNumber(1);
+
+        final ValueCache valueCache = new ValueCache();
+        final List<NumberField> numberFields = NumberField.createNumbers(valueCache, new NumberDefinition[] {f1, f2}, false);
+        final NumberField nf1 = numberFields.get(0);
+        final NumberField nf2 = numberFields.get(1);
+
+        Assert.assertEquals("1.2", nf1.getPropertyValue().get());
+        Assert.assertEquals("1.2", nf1.toString());
+        Assert.assertEquals("1.2", nf2.getPropertyValue().get());
+        Assert.assertEquals(1L, valueCache.getTracker().getHitCount());
+        Assert.assertEquals(2L, valueCache.getTracker().getMissCount());
+
+        // Writing through one field invalidates all fields of the property.
+        nf2.increment();
+        Assert.assertEquals("1.3", nf1.getPropertyValue().get());
+        Assert.assertEquals("1.3", nf2.getPropertyValue().get());
+        Assert.assertEquals(4L, valueCache.getTracker().getMissCount());
+
+        // Writing the same value does not.
+        nf1.setNumberValue(1L);
+        Assert.assertEquals("1.3", nf1.getPropertyValue().get());
+        Assert.assertEquals(4L, valueCache.getTracker().getMissCount());
+    }
+
+    @Test
+    public void testSharedCacheFromPropertyFile() throws Exception
+    {
+        final File propFile = File.createTempFile("test", null);
+        propFile.deleteOnExit();
+
+        final Properties props = new Properties();
+        props.setProperty("hello", "1.9-rc7");
+        props.setProperty("world", "1.9-rc7");
+        try (OutputStream stream = new FileOutputStream(propFile)) {
+            props.store(stream, null);
+        }
+
+        final NumberDefinition f1 = fileDefinition("hello", 1, propFile);
+        final NumberDefinition f2 = fileDefinition("hello", 2, propFile);
+        final NumberDefinition f3 = fileDefinition("world", 1, propFile);
+
+        final ValueCache valueCache = new ValueCache();
+        final List<NumberField> numberFields = NumberField.createNumbers(valueCache, new NumberDefinition[] {f1, f2, f3}, false);
+        final NumberField nf1 = numberFields.get(0);
+        final NumberField nf2 = numberFields.get(1);
+        final NumberField nf3 = numberFields.get(2);
+
+        // The values of a file are always the same map, so fields of the same property share the parsed value.
+        Assert.assertSame(nf1.getNumberCache(), nf2.getNumberCache());
+        Assert.assertNotSame(nf1.getNumberCache(), nf3.getNumberCache());
+
+        nf1.increment();
+        Assert.assertEquals("1.10-rc7", nf2.getPropertyValue().get());
+        Assert.assertEquals("1.9-rc7", nf3.getPropertyValue().get());
+    }
+
+    private static NumberDefinition fileDefinition(final String propertyName, final int fieldNumber, final File propFile)
+    {
+        final NumberDefinition definition = new NumberDefinition()
+            .setId(propertyName + "-" + fieldNumber)
+            .setPropertyName(propertyName)
+            .setFieldNumber(fieldNumber)
+            .setPropertyFile(propFile);
+        definition.check();
+        return definition;
+    }
+}
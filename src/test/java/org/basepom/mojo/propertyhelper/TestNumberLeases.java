@@ -0,0 +1,231 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.basepom.mojo.propertyhelper.beans.NumberDefinition;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitei.testing.lessio.AllowLocalFileAccess;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+@AllowLocalFileAccess(paths= {"*"})
+public class TestNumberLeases
+{
+    private static final int THREADS = 4;
+    private static final int TAKES = 50;
+    private static final int LEASE_SIZE = 10;
+
+    private File propFile = null;
+    private ExecutorService executor = null;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        propFile = File.createTempFile("test", null);
+        Assert.assertTrue(propFile.delete());
+        propFile.deleteOnExit();
+        new File(propFile.getPath() + ".lock").deleteOnExit();
+        new File(propFile.getPath() + ".bak").deleteOnExit();
+
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLeaseBlocks()
+        throws IOException
+    {
+        final ValueFileCache valueFileCache = new ValueFileCache();
+        final NumberLeases numberLeases = new NumberLeases();
+
+        for (long i = 0; i < 12; i++) {
+            Assert.assertEquals(Long.valueOf(i), take(valueFileCache, numberLeases, "build-%s"));
+        }
+
+        // two blocks were reserved.
+        Assert.assertEquals("build-20", loadValue());
+    }
+
+    @Test
+    public void testLockedFile()
+        throws IOException
+    {
+        final NumberDefinition other = new NumberDefinition()
+            .setId("other")
+            .setOnMissingFile("CREATE")
+            .setOnMissingProperty("CREATE")
+            .setInitialValue("0")
+            .setPropertyFile(propFile);
+        final NumberDefinition leased = new NumberDefinition()
+            .setId("build")
+            .setOnMissingFile("CREATE")
+            .setOnMissingProperty("CREATE")
+            .setInitialValue("0")
+            .setLeaseSize(LEASE_SIZE)
+            .setPropertyFile(propFile);
+
+        // Loading "other" locks the file until the value cache is closed.
+        final PersistOptions persistOptions = new PersistOptions().setLock(true).setLockTimeout(1000L);
+        try (ValueCache valueCache = new ValueCache(new ValueFileCache(), persistOptions, new NumberLeases())) {
+            final List<NumberField> numberFields = NumberField.createNumbers(valueCache, new NumberDefinition[] {other, leased}, true);
+            Assert.assertEquals(Long.valueOf(0), numberFields.get(0).getNumberValue());
+            Assert.assertEquals(Long.valueOf(0), numberFields.get(1).getNumberValue());
+            numberFields.get(0).increment();
+            valueCache.persist();
+        }
+
+        final Properties props = loadProperties();
+        Assert.assertEquals("1", props.getProperty("other"));
+        Assert.assertEquals(Integer.toString(LEASE_SIZE), props.getProperty("build"));
+    }
+
+    @Test
+    public void testNoLeaseWithoutPersist()
+        throws IOException
+    {
+        final NumberDefinition leased = new NumberDefinition()
+            .setId("build")
+            .setOnMissingFile("CREATE")
+            .setOnMissingProperty("CREATE")
+            .setInitialValue("0")
+            .setLeaseSize(LEASE_SIZE)
+            .setPropertyFile(propFile);
+
+        Assert.assertEquals(Long.valueOf(0), take(new ValueFileCache(), new NumberLeases(), "%s"));
+        Assert.assertEquals(Integer.toString(LEASE_SIZE), loadValue());
+
+        // A goal that does not persist reads the current value and reserves nothing.
+        try (ValueCache valueCache = new ValueCache(new ValueFileCache(), new PersistOptions(), new NumberLeases())) {
+            final List<NumberField> numberFields = NumberField.createNumbers(valueCache, new NumberDefinition[] {leased}, false);
+            Assert.assertEquals(Long.valueOf(LEASE_SIZE), numberFields.get(0).getNumberValue());
+        }
+        Assert.assertEquals(Integer.toString(LEASE_SIZE), loadValue());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLeaseAfterLoad()
+        throws IOException
+    {
+        final NumberDefinition leased = new NumberDefinition()
+            .setId("build")
+            .setOnMissingFile("CREATE")
+            .setOnMissingProperty("CREATE")
+            .setInitialValue("0")
+            .setLeaseSize(LEASE_SIZE)
+            .setPropertyFile(propFile);
+        leased.check();
+
+        try (ValueCache valueCache = new ValueCache(new ValueFileCache(), new PersistOptions().setLock(true), new NumberLeases())) {
+            valueCache.getValueProvider(new NumberDefinition().setId("other").setOnMissingFile("CREATE").setPropertyFile(propFile));
+            valueCache.getLeasedValueProvider(leased);
+        }
+    }
+
+    @Test
+    public void testConcurrentTakes()
+        throws Exception
+    {
+        final ValueFileCache valueFileCache = new ValueFileCache();
+        final NumberLeases numberLeases = new NumberLeases();
+
+        final List<Future<List<Long>>> futures = Lists.newArrayList();
+        for (int i = 0; i < THREADS; i++) {
+            // Even threads share the session, odd ones behave like separate builds.
+            final boolean shared = (i % 2) == 0;
+            futures.add(executor.submit(new Callable<List<Long>>() {
+                @Override
+                public List<Long> call() throws Exception
+                {
+                    final ValueFileCache threadFileCache = shared ? valueFileCache : new ValueFileCache();
+                    final NumberLeases threadLeases = shared ? numberLeases : new NumberLeases();
+                    final List<Long> result = Lists.newArrayList();
+                    for (int j = 0; j < TAKES; j++) {
+                        result.add(take(threadFileCache, threadLeases, "%s"));
+                    }
+                    return result;
+                }
+            }));
+        }
+
+        final Set<Long> values = Sets.newHashSet();
+        for (final Future<List<Long>> future : futures) {
+            for (final Long value : future.get()) {
+                Assert.assertTrue("duplicate value " + value, values.add(value));
+            }
+        }
+
+        Assert.assertEquals(THREADS * TAKES, values.size());
+        Assert.assertEquals(Long.valueOf(THREADS * TAKES), Long.valueOf(loadValue()));
+    }
+
+    private Long take(final ValueFileCache valueFileCache, final NumberLeases numberLeases, final String format)
+        throws IOException
+    {
+        final NumberDefinition definition = new NumberDefinition()
+            .setId("build")
+            .setOnMissingFile("CREATE")
+            .setOnMissingProperty("CREATE")
+            .setInitialValue(String.format(format, 0))
+            .setLeaseSize(LEASE_SIZE)
+            .setPropertyFile(propFile);
+        definition.check();
+
+        try (ValueCache valueCache = new ValueCache(valueFileCache, new PersistOptions(), numberLeases)) {
+            final List<NumberField> numberFields = NumberField.createNumbers(valueCache, new NumberDefinition[] {definition}, true);
+            final NumberField numberField = numberFields.get(0);
+            final Long value = numberField.getNumberValue();
+            Assert.assertEquals(String.format(format, value), numberField.getPropertyValue().get());
+            numberField.increment();
+            valueCache.persist();
+            return value;
+        }
+    }
+
+    private String loadValue()
+        throws IOException
+    {
+        return loadProperties().getProperty("build");
+    }
+
+    private Properties loadProperties()
+        throws IOException
+    {
+        final Properties props = new Properties();
+        try (FileReader reader = new FileReader(propFile)) {
+            props.load(reader);
+        }
+        return props;
+    }
+}
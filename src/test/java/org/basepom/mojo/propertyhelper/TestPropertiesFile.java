@@ -0,0 +1,161 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class TestPropertiesFile
+{
+    private static final String CONTENTS = "# build numbers\n"
+        + "\n"
+        + "build=1\n"
+        + "  ! an old style comment\n"
+        + "version : 1.2-beta-3\n"
+        + "multi = first \\\n"
+        + "        second\n"
+        + "key\\ with\\ spaces\\=x value\n"
+        + "unicode=\\u00e9t\\u00E9\n"
+        + "empty\n"
+        + "build=2\n"
+        + "last\tvalue";
+
+    @Test
+    public void testParseLikeProperties()
+        throws IOException
+    {
+        final Properties props = new Properties();
+        props.load(new StringReader(CONTENTS));
+
+        final PropertiesFile propertiesFile = PropertiesFile.read(new StringReader(CONTENTS));
+        Assert.assertEquals(Maps.fromProperties(props), propertiesFile.getValues());
+        Assert.assertEquals(ImmutableList.of("build", "version", "multi", "key with spaces=x", "unicode", "empty", "last"),
+                            ImmutableList.copyOf(propertiesFile.getValues().keySet()));
+    }
+
+    @Test
+    public void testUnchanged()
+        throws IOException
+    {
+        final PropertiesFile propertiesFile = PropertiesFile.read(new StringReader(CONTENTS));
+        final StringWriter writer = new StringWriter();
+        propertiesFile.write(writer, propertiesFile.getValues());
+        Assert.assertEquals(CONTENTS, writer.toString());
+    }
+
+    @Test
+    public void testChanges()
+        throws IOException
+    {
+        final PropertiesFile propertiesFile = PropertiesFile.read(new StringReader("# comment\r\na=1\r\nb = 2\r\nc=3\r\n"));
+
+        final Map<String, String> values = Maps.newLinkedHashMap(propertiesFile.getValues());
+        values.put("b", "x y");
+        values.remove("c");
+        values.put("d", "#1");
+
+        final StringWriter writer = new StringWriter();
+        final PropertiesFile newPropertiesFile = propertiesFile.write(writer, values);
+        Assert.assertEquals("# comment\r\na=1\r\nb=x y\r\nd=\\#1\r\n", writer.toString());
+        Assert.assertEquals(values, newPropertiesFile.getValues());
+        Assert.assertEquals(newPropertiesFile, PropertiesFile.read(new StringReader(writer.toString())));
+    }
+
+    @Test
+    public void testDuplicateKeys()
+        throws IOException
+    {
+        final PropertiesFile propertiesFile = PropertiesFile.read(new StringReader("a=1\na=2\n"));
+        Assert.assertEquals(ImmutableMap.of("a", "2"), propertiesFile.getValues());
+
+        final StringWriter writer = new StringWriter();
+        propertiesFile.write(writer, ImmutableMap.of("a", "3"));
+        Assert.assertEquals("a=1\na=3\n", writer.toString());
+    }
+
+    @Test
+    public void testAppendWithoutLineSeparator()
+        throws IOException
+    {
+        final PropertiesFile propertiesFile = PropertiesFile.read(new StringReader("a=1\nb=2"));
+
+        final StringWriter writer = new StringWriter();
+        propertiesFile.write(writer, ImmutableMap.of("a", "1", "b", "2", "c", "3"));
+        Assert.assertEquals("a=1\nb=2\nc=3\n", writer.toString());
+    }
+
+    @Test
+    public void testAppendAfterContinuation()
+        throws IOException
+    {
+        final PropertiesFile propertiesFile = PropertiesFile.read(new StringReader("a=1\nb=2\\"));
+        Assert.assertEquals(ImmutableMap.of("a", "1", "b", "2"), propertiesFile.getValues());
+
+        final StringWriter writer = new StringWriter();
+        final Map<String, String> values = ImmutableMap.of("a", "1", "b", "2", "c", "3");
+        final PropertiesFile newPropertiesFile = propertiesFile.write(writer, values);
+        Assert.assertEquals(values, parse(writer.toString()));
+        Assert.assertEquals(values, PropertiesFile.read(new StringReader(writer.toString())).getValues());
+        Assert.assertEquals(newPropertiesFile, PropertiesFile.read(new StringReader(writer.toString())));
+    }
+
+    @Test
+    public void testContinuedEmptyLine()
+        throws IOException
+    {
+        final String contents = "\\\n#x=1\n  \\\n\n\\\n  !y=2\n\\\nz=3\na=\\\n\\\n#b\n";
+        final PropertiesFile propertiesFile = PropertiesFile.read(new StringReader(contents));
+
+        // Same as java.util.Properties since Java 9. Older versions read "#x" and "!y" as keys.
+        Assert.assertEquals(ImmutableMap.of("z", "3", "a", "#b"), propertiesFile.getValues());
+
+        final StringWriter writer = new StringWriter();
+        propertiesFile.write(writer, propertiesFile.getValues());
+        Assert.assertEquals(contents, writer.toString());
+    }
+
+    @Test
+    public void testEscapes()
+        throws IOException
+    {
+        final Map<String, String> values = ImmutableMap.of(" key:1 ", " value=\u00e9\t\n\\ ", "x", "");
+        final StringWriter writer = new StringWriter();
+        PropertiesFile.create("test").write(writer, values);
+
+        final Properties props = new Properties();
+        props.load(new StringReader(writer.toString()));
+        Assert.assertEquals(values, Maps.fromProperties(props));
+        Assert.assertEquals(Lists.newArrayList(values.keySet()),
+                            Lists.newArrayList(PropertiesFile.read(new StringReader(writer.toString())).getValues().keySet()));
+    }
+
+    private static Map<String, String> parse(final String contents)
+        throws IOException
+    {
+        final Properties props = new Properties();
+        props.load(new StringReader(contents));
+        return Maps.fromProperties(props);
+    }
+}
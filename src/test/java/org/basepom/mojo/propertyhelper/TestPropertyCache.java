@@ -14,15 +14,30 @@
 package org.basepom.mojo.propertyhelper;
 
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.io.Closer;
 
 import org.basepom.mojo.propertyhelper.beans.NumberDefinition;
+import org.basepom.mojo.propertyhelper.beans.UuidDefinition;
 import org.junit.After;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.kitei.testing.lessio.AllowLocalFileAccess;
@@ -32,6 +47,8 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 @AllowLocalFileAccess(paths= {"*"})
 public class TestPropertyCache
 {
+    private static final Set<String> NO_COUNTERS = ImmutableSet.of();
+
     private ValueCache pc = null;
     private File propFile = null;
     private FileWriter writer = null;
@@ -216,4 +233,159 @@ public class TestPropertyCache
 
         Assert.assertSame(pc.getValues(n1), pc.getValues(n2));
     }
+
+    @Test
+    public void testMergeUnchanged()
+    {
+        final Map<String, String> base = ImmutableMap.of("hello", "1", "world", "2");
+        final Map<String, String> target = ImmutableMap.of("hello", "1", "world", "3");
+
+        Assert.assertEquals(target, FileValueStore.mergeChanges(target, base, base, NO_COUNTERS));
+    }
+
+    @Test
+    public void testMergeOtherKeys()
+    {
+        final Map<String, String> base = ImmutableMap.of("hello", "1", "world", "2");
+        final Map<String, String> target = ImmutableMap.of("hello", "1", "world", "3");
+        final Map<String, String> current = ImmutableMap.of("hello", "2", "world", "2", "new", "value");
+
+        Assert.assertEquals(ImmutableMap.of("hello", "2", "world", "3", "new", "value"), FileValueStore.mergeChanges(target, base, current, NO_COUNTERS));
+    }
+
+    @Test
+    public void testMergeConcurrentIncrement()
+    {
+        final Map<String, String> base = ImmutableMap.of("hello", "1.2-beta-3");
+        final Map<String, String> target = ImmutableMap.of("hello", "1.3-beta-3");
+        final Map<String, String> current = ImmutableMap.of("hello", "1.3-beta-4");
+
+        Assert.assertEquals(ImmutableMap.of("hello", "1.4-beta-4"), FileValueStore.mergeChanges(target, base, current, ImmutableSet.of("hello")));
+    }
+
+    @Test
+    public void testMergeOnlyCounters()
+    {
+        final Map<String, String> base = ImmutableMap.of("date", "2026-10-17", "id", "007");
+        final Map<String, String> target = ImmutableMap.of("date", "2026-10-18", "id", "008");
+        final Map<String, String> current = ImmutableMap.of("date", "2026-10-20", "id", "008");
+
+        // Values that are not counters are replaced, not added up.
+        Assert.assertEquals(current, FileValueStore.mergeChanges(target, base, current, NO_COUNTERS));
+    }
+
+    @Test
+    public void testMergeConflict()
+    {
+        final Map<String, String> base = ImmutableMap.of("hello", "alpha");
+        final Map<String, String> target = ImmutableMap.of("hello", "beta");
+        final Map<String, String> current = ImmutableMap.of("hello", "gamma");
+
+        Assert.assertEquals(current, FileValueStore.mergeChanges(target, base, current, ImmutableSet.of("hello")));
+    }
+
+    @Test
+    public void testPersistWithBackup()
+            throws IOException
+    {
+        final File backupFile = new File(propFile.getPath() + ".bak");
+        backupFile.deleteOnExit();
+
+        persistIncrement(new PersistOptions().setFsyncPolicy(PersistOptions.FsyncPolicy.DIRECTORY));
+
+        Assert.assertEquals("11", loadProperties(propFile).getProperty("hello"));
+        Assert.assertEquals("10", loadProperties(backupFile).getProperty("hello"));
+        Assert.assertEquals(ImmutableList.of(propFile.getName(), backupFile.getName()), listFolder());
+    }
+
+    @Test
+    public void testPersistWithoutBackup()
+            throws IOException
+    {
+        persistIncrement(new PersistOptions().setBackup(false));
+
+        Assert.assertEquals("11", loadProperties(propFile).getProperty("hello"));
+        Assert.assertEquals(ImmutableList.of(propFile.getName()), listFolder());
+    }
+
+    @Test
+    public void testPersistKeepsPermissions()
+            throws IOException
+    {
+        Assume.assumeNotNull(Files.getFileAttributeView(propFile.toPath(), PosixFileAttributeView.class));
+        final Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-rw-r--");
+        Files.setPosixFilePermissions(propFile.toPath(), permissions);
+
+        persistIncrement(new PersistOptions().setBackup(false));
+
+        Assert.assertEquals("11", loadProperties(propFile).getProperty("hello"));
+        Assert.assertEquals(permissions, Files.getPosixFilePermissions(propFile.toPath()));
+    }
+
+    @Test
+    public void testPersistUnchanged()
+            throws IOException
+    {
+        final File backupFile = new File(propFile.getPath() + ".bak");
+
+        props.setProperty("hello", "10");
+        props.store(writer, null);
+        writer.close();
+        final long lastModified = propFile.lastModified();
+
+        final UuidDefinition fileBacked = new UuidDefinition()
+                .setId("hello")
+                .setOnMissingProperty("CREATE")
+                .setPropertyFile(propFile);
+        fileBacked.check();
+
+        final ValueCache valueCache = new ValueCache();
+        final ValueProvider valueProvider = valueCache.getValueProvider(fileBacked);
+        valueProvider.setValue("11");
+        valueProvider.setValue("10");
+        valueCache.persist();
+
+        Assert.assertEquals(lastModified, propFile.lastModified());
+        Assert.assertFalse(backupFile.exists());
+    }
+
+    private void persistIncrement(final PersistOptions persistOptions)
+            throws IOException
+    {
+        props.setProperty("hello", "10");
+        props.store(writer, null);
+        writer.close();
+
+        final NumberDefinition fileBacked = new NumberDefinition()
+                .setId("hello")
+                .setPropertyFile(propFile);
+        fileBacked.check();
+
+        final ValueCache valueCache = new ValueCache(new ValueFileCache(), persistOptions);
+        final NumberField numberField = new NumberField(fileBacked, valueCache.getValueProvider(fileBacked));
+        numberField.increment();
+        valueCache.persist();
+    }
+
+    private List<String> listFolder()
+    {
+        final List<String> result = Lists.newArrayList();
+        for (final String name : propFile.getParentFile().list()) {
+            if (name.startsWith(propFile.getName())) {
+                result.add(name);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static Properties loadProperties(final File file)
+            throws IOException
+    {
+        final Properties result = new Properties();
+        try (FileReader reader = new FileReader(file)) {
+            result.load(reader);
+        }
+        return result;
+    }
 }
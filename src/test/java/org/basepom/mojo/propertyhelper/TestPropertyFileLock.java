@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.basepom.mojo.propertyhelper.beans.NumberDefinition;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitei.testing.lessio.AllowLocalFileAccess;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+@AllowLocalFileAccess(paths= {"*"})
+public class TestPropertyFileLock
+{
+    private static final int THREADS = 4;
+    private static final int INCREMENTS = 25;
+
+    private File propFile = null;
+    private ExecutorService executor = null;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        propFile = File.createTempFile("test", null);
+        Assert.assertTrue(propFile.delete());
+        propFile.deleteOnExit();
+        new File(propFile.getPath() + ".lock").deleteOnExit();
+        new File(propFile.getPath() + ".bak").deleteOnExit();
+
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testTimeout()
+        throws Exception
+    {
+        final PropertyFileLock lock = PropertyFileLock.acquire(propFile, 100L, 10L);
+        try {
+            final Future<?> future = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception
+                {
+                    PropertyFileLock.acquire(propFile, 50L, 10L).close();
+                    return null;
+                }
+            });
+
+            try {
+                future.get();
+                Assert.fail();
+            }
+            catch (final Exception e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        finally {
+            lock.close();
+        }
+    }
+
+    @Test
+    public void testUnrelatedFiles()
+        throws Exception
+    {
+        final PropertyFileLock lock = PropertyFileLock.acquire(propFile, 100L, 10L);
+        try {
+            // Other files can be locked at once from another thread, no matter how many.
+            final Future<?> future = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception
+                {
+                    final File folder = propFile.getParentFile();
+                    for (int i = 0; i < 200; i++) {
+                        final File file = new File(folder, propFile.getName() + "-" + i);
+                        try {
+                            PropertyFileLock.acquire(file, 0L, 10L).close();
+                        }
+                        finally {
+                            new File(file.getPath() + ".lock").delete();
+                        }
+                    }
+                    return null;
+                }
+            });
+            future.get();
+
+            // The same file through another path is still excluded.
+            final File samePath = new File(new File(propFile.getParentFile(), "."), propFile.getName());
+            try {
+                executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        PropertyFileLock.acquire(samePath, 0L, 10L).close();
+                        return null;
+                    }
+                }).get();
+                Assert.fail();
+            }
+            catch (final Exception e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        finally {
+            lock.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentIncrements()
+        throws Exception
+    {
+        final List<Future<List<Long>>> futures = Lists.newArrayList();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(new Callable<List<Long>>() {
+                @Override
+                public List<Long> call() throws Exception
+                {
+                    final List<Long> result = Lists.newArrayList();
+                    for (int j = 0; j < INCREMENTS; j++) {
+                        result.add(increment());
+                    }
+                    return result;
+                }
+            }));
+        }
+
+        final Set<Long> values = Sets.newHashSet();
+        for (final Future<List<Long>> future : futures) {
+            for (final Long value : future.get()) {
+                Assert.assertTrue("duplicate value " + value, values.add(value));
+            }
+        }
+
+        Assert.assertEquals(THREADS * INCREMENTS, values.size());
+        Assert.assertEquals(Long.valueOf(THREADS * INCREMENTS), increment());
+    }
+
+    private Long increment()
+        throws IOException
+    {
+        final NumberDefinition definition = new NumberDefinition()
+            .setId("build")
+            .setOnMissingFile("CREATE")
+            .setOnMissingProperty("CREATE")
+            .setPropertyFile(propFile);
+        definition.check();
+
+        // Every execution gets its own session cache, just like separate processes.
+        try (ValueCache valueCache = new ValueCache(new ValueFileCache(), new PersistOptions().setLock(true))) {
+            final NumberField numberField = new NumberField(definition, valueCache.getValueProvider(definition));
+            final Long value = numberField.getNumberValue();
+            numberField.increment();
+            valueCache.persist();
+            return value;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.maven.model.Model;
+import org.basepom.mojo.propertyhelper.beans.PropertyGroup;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class TestPropertyGroups
+{
+    private static final Map<String, String> VALUES = ImmutableMap.of("present", "value");
+
+    @Test
+    public void testInactiveGroup() throws Exception
+    {
+        // Fails if it is evaluated, "missing" has no value.
+        final PropertyGroup inactive = new PropertyGroup()
+            .setId("inactive")
+            .setOnMissingProperty("fail")
+            .setProperties(ImmutableMap.of("b", "#{missing}"));
+        final PropertyGroup active = new PropertyGroup()
+            .setId("active")
+            .setProperties(ImmutableMap.of("a", "#{present}"));
+
+        final Properties properties = new Properties();
+        Assert.assertEquals(ImmutableSet.of("active"), evaluate(new String[] {"active"}, false, properties, inactive, active));
+        Assert.assertEquals(ImmutableMap.of("a", "value"), properties);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testActiveGroupMissingProperty() throws Exception
+    {
+        final PropertyGroup group = new PropertyGroup()
+            .setId("group")
+            .setOnMissingProperty("fail")
+            .setProperties(ImmutableMap.of("b", "#{missing}"));
+
+        evaluate(new String[] {"group"}, false, new Properties(), group);
+    }
+
+    @Test
+    public void testSnapshotAndRelease() throws Exception
+    {
+        final PropertyGroup releaseOnly = new PropertyGroup()
+            .setId("release")
+            .setActiveOnSnapshot(false)
+            .setOnMissingProperty("fail")
+            .setProperties(ImmutableMap.of("r", "#{missing}"));
+        final PropertyGroup snapshotOnly = new PropertyGroup()
+            .setId("snapshot")
+            .setActiveOnRelease(false)
+            .setProperties(ImmutableMap.of("s", "#{present}"));
+
+        final String[] activeGroups = {"release", "snapshot"};
+
+        final Properties snapshotProperties = new Properties();
+        Assert.assertEquals(ImmutableSet.of("snapshot"), evaluate(activeGroups, true, snapshotProperties, releaseOnly, snapshotOnly));
+        Assert.assertEquals(ImmutableMap.of("s", "value"), snapshotProperties);
+
+        snapshotOnly.setActiveOnSnapshot(false);
+        Assert.assertEquals(ImmutableSet.of(), evaluate(activeGroups, true, new Properties(), releaseOnly, snapshotOnly));
+    }
+
+    private static Set<String> evaluate(final String[] activeGroups, final boolean isSnapshot, final Properties properties, final PropertyGroup ... groups)
+        throws Exception
+    {
+        final ImmutableMap.Builder<String, PropertyGroup> builder = ImmutableMap.builder();
+        for (final PropertyGroup group : groups) {
+            builder.put(group.getId(), group);
+        }
+        return new TestMojo().evaluatePropertyGroups(builder.build(), activeGroups, isSnapshot, new Model(), VALUES, properties);
+    }
+
+    private static final class TestMojo extends AbstractPropertyHelperMojo
+    {
+        @Override
+        protected void doExecute()
+        {
+        }
+
+        @Override
+        protected boolean isPersist()
+        {
+            return false;
+        }
+    }
+}
@@ -14,10 +14,15 @@
 package org.basepom.mojo.propertyhelper;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
 
 import org.junit.Test;
 
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
 
 public class TestTransformerRegistry
 {
@@ -84,4 +89,89 @@ public class TestTransformerRegistry
 
         assertEquals("Hello, World!", transformer.apply(" Hello, World! "));
     }
+
+    @Test
+    public void testCompiledMatchesChained()
+    {
+        final List<String> names = ImmutableList.of("lowercase", "uppercase", "remove_whitespace", "underscore_for_whitespace",
+                                                    "dash_for_whitespace", "use_underscore", "use_dash", "trim");
+        final List<String> values = ImmutableList.of("", " ", " Hello,  World! ", "\t-_This: Is_a- test!\n ", "__x__", "Stra\u00dfe \u0130stanbul \u03a3\u03a3 ");
+
+        for (final String first : names) {
+            for (final String second : names) {
+                for (final String third : names) {
+                    final String spec = first + "," + second + "," + third;
+                    for (final String value : values) {
+                        String expected = value;
+                        for (final Function<String, String> transformer : TransformerRegistry.getTransformers(spec)) {
+                            expected = transformer.apply(expected);
+                        }
+                        assertEquals(spec + " on '" + value + "'", expected, TransformerRegistry.compile(spec).apply(value));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCompiledUnchanged()
+    {
+        final String value = "hello-world";
+        assertSame(value, TransformerRegistry.compile("lowercase,use_dash,trim").apply(value));
+        assertSame(value, TransformerRegistry.compile("").apply(value));
+        assertSame(TransformerRegistry.compile("trim,lowercase"), TransformerRegistry.compile("trim,lowercase"));
+        assertNull(TransformerRegistry.compile("trim").apply(null));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCompileUnknown()
+    {
+        TransformerRegistry.compile("trim,unknown");
+    }
+
+    @Test
+    public void testSplit()
+    {
+        assertEquals(ImmutableList.of("trim", "replace(/[,(]/,_)", "substring(0,8)"), TransformerRegistry.splitTransformers("trim,,replace(/[,(]/,_),substring(0,8),"));
+        assertEquals(ImmutableList.of("replace(/a\\/b/,c/d)", "lowercase"), TransformerRegistry.splitTransformers("replace(/a\\/b/,c/d),lowercase"));
+    }
+
+    @Test
+    public void testReplace()
+    {
+        assertEquals("feature_foo_bar", TransformerRegistry.applyTransformers("replace(/[^A-Za-z0-9]+/,_),lowercase", "feature/Foo-bar"));
+        assertEquals("b-a", TransformerRegistry.applyTransformers("replace(/(a),(b)/,$2-$1)", "a,b"));
+        assertEquals("ab", TransformerRegistry.applyTransformers("replace(/\\//,)", "a/b"));
+        assertEquals("x,y", TransformerRegistry.applyTransformers("replace(/-/,,)", "x-y"));
+    }
+
+    @Test
+    public void testSubstring()
+    {
+        assertEquals("0123abcd", TransformerRegistry.applyTransformers("substring(0,8)", "0123abcd4567"));
+        assertEquals("abc", TransformerRegistry.applyTransformers("SUBSTRING(4, 8)", "0123abc"));
+        assertEquals("", TransformerRegistry.applyTransformers("substring(10)", "0123abc"));
+        assertEquals("0123", TransformerRegistry.applyTransformers("trim,truncate(4)", " 0123abc"));
+    }
+
+    @Test
+    public void testPad()
+    {
+        assertEquals("00042", TransformerRegistry.applyTransformers("pad_left(5,0)", "42"));
+        assertEquals("42..", TransformerRegistry.applyTransformers("pad_right(4,.)", "42"));
+        final String value = "123456";
+        assertSame(value, TransformerRegistry.applyTransformers("pad_left(5,0)", value));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidArguments()
+    {
+        TransformerRegistry.compile("substring(a,b)");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRegex()
+    {
+        TransformerRegistry.compile("replace(/[/,x)");
+    }
 }
@@ -0,0 +1,115 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.basepom.mojo.propertyhelper.beans.NumberDefinition;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitei.testing.lessio.AllowLocalFileAccess;
+
+@AllowLocalFileAccess(paths= {"*"})
+public class TestValueFileCache
+{
+    private final ValueFileCache valueFileCache = new ValueFileCache();
+    private File propFile = null;
+    private NumberDefinition definition = null;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        propFile = File.createTempFile("test", null);
+        propFile.deleteOnExit();
+
+        final Properties props = new Properties();
+        props.setProperty("hello", "1");
+        try (FileWriter writer = new FileWriter(propFile)) {
+            props.store(writer, null);
+        }
+
+        definition = new NumberDefinition()
+            .setId("hello")
+            .setOnMissingFile("FAIL")
+            .setOnMissingProperty("FAIL")
+            .setPropertyFile(propFile);
+        definition.check();
+    }
+
+    @Test
+    public void testLoadOnce()
+        throws IOException
+    {
+        final ValueCache first = new ValueCache(valueFileCache);
+        final ValueCache second = new ValueCache(valueFileCache);
+
+        Assert.assertEquals("1", first.getValueProvider(definition).getValue().get());
+        Assert.assertEquals("1", second.getValueProvider(definition).getValue().get());
+
+        Assert.assertEquals(1, valueFileCache.getStats().loadSuccessCount());
+        Assert.assertEquals(1, valueFileCache.getStats().hitCount());
+    }
+
+    @Test
+    public void testStatOnce()
+        throws IOException
+    {
+        for (int i = 0; i < 5; i++) {
+            final ValueCache valueCache = new ValueCache(valueFileCache);
+            Assert.assertEquals("1", valueCache.getValueProvider(definition).getValue().get());
+        }
+
+        // one to resolve the canonical file, one to read the file attributes.
+        Assert.assertEquals(2, valueFileCache.getStatCalls());
+    }
+
+    @Test
+    public void testMissingFile()
+        throws IOException
+    {
+        Assert.assertTrue(propFile.delete());
+        Assert.assertFalse(valueFileCache.getFile(valueFileCache.getCanonicalFile(propFile)).isPresent());
+    }
+
+    @Test
+    public void testViewsAreIndependent()
+        throws IOException
+    {
+        final ValueCache first = new ValueCache(valueFileCache);
+        final ValueCache second = new ValueCache(valueFileCache);
+
+        first.getValueProvider(definition).setValue("2");
+
+        Assert.assertEquals("2", first.getValueProvider(definition).getValue().get());
+        Assert.assertEquals("1", second.getValueProvider(definition).getValue().get());
+    }
+
+    @Test
+    public void testPersistUpdatesCache()
+        throws IOException
+    {
+        final ValueCache first = new ValueCache(valueFileCache);
+        first.getValueProvider(definition).setValue("2");
+        first.persist();
+
+        final ValueCache second = new ValueCache(valueFileCache);
+        Assert.assertEquals("2", second.getValueProvider(definition).getValue().get());
+        Assert.assertEquals(1, valueFileCache.getStats().loadSuccessCount());
+    }
+}
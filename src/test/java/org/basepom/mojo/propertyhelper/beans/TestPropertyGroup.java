@@ -16,6 +16,7 @@ package org.basepom.mojo.propertyhelper.beans;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.maven.model.Model;
 import org.basepom.mojo.propertyhelper.InterpolatorFactory;
@@ -154,4 +155,56 @@ public class TestPropertyGroup
         Assert.assertEquals("nice-strange-hat", propValue);
     }
 
+    @Test
+    public void testMultipleProperties() throws Exception
+    {
+        final PropertyGroup pg = new PropertyGroup()
+            .setId("hello")
+            .setProperties(ImmutableMap.of("a", "1", "b", "#{a}2"));
+
+        Assert.assertEquals(ImmutableMap.of("a", "1", "b", "#{a}2"), pg.getProperties());
+        Assert.assertEquals("12", pg.getPropertyValue(interpolatorFactory, "b", ImmutableMap.of("a", "1")));
+        Assert.assertEquals("", pg.getPropertyValue(interpolatorFactory, "c", ImmutableMap.<String, String>of()));
+    }
+
+    @Test
+    public void testLinearLookups() throws Exception
+    {
+        // Looking up every property of a group reads each definition name a constant number of times.
+        final long small = countNameLookups(1000);
+        final long large = countNameLookups(10000);
+
+        Assert.assertTrue("lookups: " + small, small <= 2 * 1000);
+        Assert.assertEquals(10 * small, large);
+    }
+
+    private long countNameLookups(final int size) throws Exception
+    {
+        final AtomicLong lookups = new AtomicLong();
+        final PropertyDefinition[] definitions = new PropertyDefinition[size];
+        for (int i = 0; i < size; i++) {
+            definitions[i] = new PropertyDefinition("prop" + i, "value-#{x}-" + i) {
+                @Override
+                public String getName()
+                {
+                    lookups.incrementAndGet();
+                    return super.getName();
+                }
+            };
+        }
+
+        final PropertyGroup pg = new PropertyGroup()
+            .setId("large")
+            .setPropertyDefinitions(definitions);
+
+        final Map<String, String> values = ImmutableMap.of("x", "y");
+        final Map<String, String> properties = pg.getProperties();
+        Assert.assertEquals(size, properties.size());
+        for (final String name : properties.keySet()) {
+            Assert.assertTrue(pg.getPropertyValue(interpolatorFactory, name, values).startsWith("value-y-"));
+        }
+        Assert.assertEquals(size, pg.getPropertyNames().size());
+
+        return lookups.get();
+    }
 }
@@ -0,0 +1,270 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper.macros;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitei.testing.lessio.AllowExternalProcess;
+import org.kitei.testing.lessio.AllowLocalFileAccess;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+/**
+ * Compares what {@link GitRepository} reads with what git reports. Skipped if git is not installed.
+ */
+@AllowLocalFileAccess(paths= {"*"})
+@AllowExternalProcess
+public class TestGitRepository
+{
+    private File repository = null;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        Assume.assumeTrue(hasGit());
+
+        repository = Files.createTempDir();
+        git("init", "-q");
+        git("checkout", "-q", "-b", "main");
+        for (int i = 0; i < 20; i++) {
+            Files.write("file " + i + "\n" + Joiner.on('\n').join(ImmutableList.of("a", "b", "c", "d")) + "\n", new File(repository, "file" + i + ".txt"), Charsets.UTF_8);
+        }
+        new File(repository, "dir/sub").mkdirs();
+        Files.write("nested\n", new File(repository, "dir/sub/nested.txt"), Charsets.UTF_8);
+        git("add", ".");
+        git("commit", "-q", "-m", "first");
+    }
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        if (repository != null) {
+            deleteRecursively(repository);
+        }
+    }
+
+    @Test
+    public void testLooseObjects()
+        throws Exception
+    {
+        final GitRepository gitRepository = find();
+        Assert.assertEquals("refs/heads/main", gitRepository.getHeadRef().get());
+        Assert.assertEquals(git("rev-parse", "HEAD"), gitRepository.getCommitId().get());
+
+        final Map.Entry<Long, String> commitTime = gitRepository.getCommitTime().get();
+        Assert.assertEquals(git("log", "-1", "--format=%ct"), commitTime.getKey().toString());
+        Assert.assertFalse(gitRepository.isDirty());
+    }
+
+    @Test
+    public void testPackedObjects()
+        throws Exception
+    {
+        // A second commit that is stored as a delta against the first.
+        Files.append("e\n", new File(repository, "file3.txt"), Charsets.UTF_8);
+        git("commit", "-q", "-a", "-m", "second");
+        git("gc", "-q", "--aggressive");
+        git("update-index", "--index-version", "4");
+
+        Assert.assertTrue(new File(repository, ".git/packed-refs").isFile());
+        Assert.assertFalse(new File(repository, ".git/refs/heads/main").isFile());
+
+        final GitRepository gitRepository = find();
+        Assert.assertEquals(git("rev-parse", "HEAD"), gitRepository.getCommitId().get());
+        Assert.assertEquals(git("log", "-1", "--format=%ct"), gitRepository.getCommitTime().get().getKey().toString());
+        Assert.assertFalse(gitRepository.isDirty());
+    }
+
+    @Test
+    public void testDetached()
+        throws Exception
+    {
+        git("checkout", "-q", "--detach");
+        final GitRepository gitRepository = find();
+        Assert.assertFalse(gitRepository.getHeadRef().isPresent());
+        Assert.assertEquals(git("rev-parse", "HEAD"), gitRepository.getCommitId().get());
+    }
+
+    @Test
+    public void testDirty()
+        throws Exception
+    {
+        // Untracked files do not count.
+        Files.write("untracked\n", new File(repository, "untracked.txt"), Charsets.UTF_8);
+        Assert.assertFalse(find().isDirty());
+
+        Files.write("changed\n", new File(repository, "dir/sub/nested.txt"), Charsets.UTF_8);
+        Assert.assertTrue(find().isDirty());
+
+        git("add", "dir/sub/nested.txt");
+        Assert.assertTrue(find().isDirty());
+
+        git("commit", "-q", "-m", "third");
+        Assert.assertFalse(find().isDirty());
+
+        Assert.assertTrue(new File(repository, "file0.txt").delete());
+        Assert.assertTrue(find().isDirty());
+    }
+
+    @Test
+    public void testExecutable()
+        throws Exception
+    {
+        Assume.assumeTrue(new File(repository, "file0.txt").setExecutable(true));
+        Assert.assertTrue(find().isDirty());
+        Assert.assertEquals("M file0.txt", git("status", "--porcelain"));
+    }
+
+    @Test
+    public void testFileModeIgnored()
+        throws Exception
+    {
+        git("config", "core.fileMode", "false");
+        Assume.assumeTrue(new File(repository, "file0.txt").setExecutable(true));
+        Assert.assertFalse(find().isDirty());
+        Assert.assertEquals("", git("status", "--porcelain"));
+    }
+
+    @Test
+    public void testLineEndings()
+        throws Exception
+    {
+        final File file = new File(repository, "file0.txt");
+        final String crlf = Files.toString(file, Charsets.UTF_8).replace("\n", "\r\n");
+        Files.write(crlf, file, Charsets.UTF_8);
+        Assert.assertTrue(find().isDirty());
+
+        // With autocrlf, git would store the file with LF line endings, so it is unchanged. "git diff --quiet" fails otherwise.
+        git("config", "core.autocrlf", "true");
+        Assert.assertFalse(find().isDirty());
+        git("diff", "--quiet");
+
+        // Same for the text attribute.
+        git("config", "core.autocrlf", "false");
+        Files.write("*.txt text\n", new File(repository, ".git/info/attributes"), Charsets.UTF_8);
+        Assert.assertFalse(find().isDirty());
+        git("diff", "--quiet");
+
+        // Unless the file is binary.
+        Files.write("*.txt text\nfile0.txt -text\n", new File(repository, ".git/info/attributes"), Charsets.UTF_8);
+        Assert.assertTrue(find().isDirty());
+    }
+
+    @Test
+    public void testFilter()
+        throws Exception
+    {
+        Files.write("*.txt filter=unknown\n", new File(repository, "dir/.gitattributes"), Charsets.UTF_8);
+        git("add", "dir/.gitattributes");
+        git("commit", "-q", "-m", "attributes");
+
+        // Unchanged files do not need the filter.
+        Assert.assertFalse(find().isDirty());
+
+        // The attributes only apply in their folder.
+        final File file = new File(repository, "file0.txt");
+        final String content = Files.toString(file, Charsets.UTF_8);
+        Files.write("changed\n", file, Charsets.UTF_8);
+        Assert.assertTrue(find().isDirty());
+        Files.write(content, file, Charsets.UTF_8);
+
+        Files.write("changed\n", new File(repository, "dir/sub/nested.txt"), Charsets.UTF_8);
+        try {
+            find().isDirty();
+            Assert.fail();
+        }
+        catch (final IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("dir/sub/nested.txt"));
+        }
+    }
+
+    @Test
+    public void testRacilyClean()
+        throws Exception
+    {
+        final File file = new File(repository, "file3.txt");
+        final long mtime = (System.currentTimeMillis() / 1000L - 60L) * 1000L;
+        Assert.assertTrue(file.setLastModified(mtime));
+        git("update-index", "--refresh");
+        Assert.assertFalse(find().isDirty());
+
+        // Same size and modification time as in the index, but the index was written in the same second.
+        Files.write("FILE 3\na\nb\nc\nd\n", file, Charsets.UTF_8);
+        Assert.assertTrue(file.setLastModified(mtime));
+        Assert.assertTrue(new File(repository, ".git/index").setLastModified(mtime));
+        Assert.assertTrue(find().isDirty());
+    }
+
+    @Test
+    public void testFromSubdirectory()
+        throws Exception
+    {
+        final GitRepository gitRepository = GitRepository.find(new File(repository, "dir/sub")).get();
+        Assert.assertEquals(repository.getCanonicalFile(), gitRepository.getWorkTree());
+    }
+
+    private GitRepository find()
+        throws IOException
+    {
+        return GitRepository.find(repository).get();
+    }
+
+    private String git(final String ... args)
+        throws Exception
+    {
+        final List<String> command = ImmutableList.<String>builder()
+            .add("git", "-c", "user.name=Test", "-c", "user.email=test@example.com", "-c", "commit.gpgsign=false")
+            .add(args)
+            .build();
+        final Process process = new ProcessBuilder(command).directory(repository).redirectErrorStream(true).start();
+        final String output = new String(ByteStreams.toByteArray(process.getInputStream()), Charsets.UTF_8).trim();
+        Assert.assertEquals(output, 0, process.waitFor());
+        return output;
+    }
+
+    private static boolean hasGit()
+    {
+        try {
+            return new ProcessBuilder("git", "--version").redirectErrorStream(true).start().waitFor() == 0;
+        }
+        catch (final Exception e) {
+            return false;
+        }
+    }
+
+    private static void deleteRecursively(final File file)
+    {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper.macros;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitei.testing.lessio.AllowLocalFileAccess;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+@AllowLocalFileAccess(paths= {"*"})
+public class TestHashMacro
+{
+    private static final List<String> ALL = ImmutableList.of("**");
+    private static final List<String> NONE = ImmutableList.of();
+    private static final int THREADS = 2;
+
+    private File directory = null;
+    private ForkJoinPool pool = null;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        pool = new ForkJoinPool(THREADS);
+        directory = Files.createTempDir();
+        new File(directory, "src/main").mkdirs();
+        new File(directory, "target").mkdirs();
+        Files.write("hello\n", new File(directory, "src/main/a.txt"), Charsets.UTF_8);
+        Files.write("world\n", new File(directory, "src/b.txt"), Charsets.UTF_8);
+        Files.write("output\n", new File(directory, "target/c.txt"), Charsets.UTF_8);
+
+        // Large enough to be memory mapped.
+        final byte[] large = new byte[1024 * 1024];
+        Arrays.fill(large, (byte) 'x');
+        Files.write(large, new File(directory, "src/large.bin"));
+    }
+
+    @After
+    public void tearDown()
+    {
+        pool.shutdown();
+        deleteRecursively(directory);
+    }
+
+    @Test
+    public void testDeterministic()
+        throws IOException
+    {
+        final String first = new HashMacro().hash(directory, ALL, NONE, "SHA-256", pool);
+        final String second = new HashMacro().hash(directory, ALL, NONE, "SHA-256", pool);
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(64, first.length());
+
+        Assert.assertEquals(32, new HashMacro().hash(directory, ALL, NONE, "MD5", pool).length());
+    }
+
+    @Test
+    public void testContentChanges()
+        throws IOException
+    {
+        final HashMacro hashMacro = new HashMacro();
+        final String before = hashMacro.hash(directory, ALL, NONE, "SHA-256", pool);
+
+        final File file = new File(directory, "src/main/a.txt");
+        Files.write("hello!\n", file, Charsets.UTF_8);
+        Assert.assertNotEquals(before, hashMacro.hash(directory, ALL, NONE, "SHA-256", pool));
+
+        // A renamed file changes the result, even with the same contents.
+        Files.write("hello\n", file, Charsets.UTF_8);
+        Assert.assertTrue(file.renameTo(new File(directory, "src/main/renamed.txt")));
+        Assert.assertNotEquals(before, hashMacro.hash(directory, ALL, NONE, "SHA-256", pool));
+    }
+
+    @Test
+    public void testIncludesExcludes()
+        throws IOException
+    {
+        final HashMacro hashMacro = new HashMacro();
+        final String all = hashMacro.hash(directory, ALL, NONE, "SHA-256", pool);
+        final String withoutTarget = hashMacro.hash(directory, ALL, ImmutableList.of("target"), "SHA-256", pool);
+        Assert.assertNotEquals(all, withoutTarget);
+
+        // Output changes do not change the result if the directory is excluded.
+        Files.write("other output\n", new File(directory, "target/c.txt"), Charsets.UTF_8);
+        Assert.assertEquals(withoutTarget, hashMacro.hash(directory, ALL, ImmutableList.of("target"), "SHA-256", pool));
+
+        Assert.assertEquals(hashMacro.hash(directory, ImmutableList.of("src/**"), NONE, "SHA-256", pool),
+                            hashMacro.hash(directory, ALL, ImmutableList.of("target/**"), "SHA-256", pool));
+    }
+
+    @Test
+    public void testCachedDigests()
+        throws IOException
+    {
+        final HashMacro hashMacro = new HashMacro();
+        hashMacro.hash(directory, ALL, NONE, "SHA-256", pool);
+        Assert.assertEquals(4L, hashMacro.getFilesRead());
+
+        hashMacro.hash(directory, ALL, NONE, "SHA-256", pool);
+        Assert.assertEquals(4L, hashMacro.getFilesRead());
+
+        // Only the changed file is read again.
+        final File file = new File(directory, "src/b.txt");
+        Files.write("changed contents\n", file, Charsets.UTF_8);
+        hashMacro.hash(directory, ALL, NONE, "SHA-256", pool);
+        Assert.assertEquals(5L, hashMacro.getFilesRead());
+    }
+
+    private static void deleteRecursively(final File file)
+    {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.basepom.mojo.propertyhelper.macros;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kitei.testing.lessio.AllowLocalFileAccess;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+
+@AllowLocalFileAccess(paths= {"*"})
+public class TestRegexMacro
+{
+    private static final String VERSION_PATTERN = "^#define\\s+VERSION\\s+\"([^\"]*)\"";
+
+    private File directory = null;
+    private File header = null;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        directory = Files.createTempDir();
+        header = new File(directory, "version.h");
+
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append("#define CONSTANT_").append(i).append(' ').append(i).append('\n');
+        }
+        sb.append("#define VERSION \"1.2.3\"\n");
+        sb.append("#define VERSION \"4.5.6\"\n");
+        Files.write(sb.toString(), header, Charsets.UTF_8);
+    }
+
+    @After
+    public void tearDown()
+    {
+        header.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testFirstMatch()
+        throws IOException
+    {
+        Assert.assertEquals("1.2.3", new RegexMacro().extract(header, VERSION_PATTERN, 1, Charsets.UTF_8).get());
+        Assert.assertEquals("1.2.3", new RegexMacro().extract(header, VERSION_PATTERN, 1, Charsets.ISO_8859_1).get());
+        Assert.assertEquals("#define VERSION \"1.2.3\"", new RegexMacro().extract(header, VERSION_PATTERN, 0, Charsets.US_ASCII).get());
+    }
+
+    @Test
+    public void testNoMatch()
+        throws IOException
+    {
+        Assert.assertEquals(Optional.absent(), new RegexMacro().extract(header, "^#define\\s+MISSING\\s+(\\S+)", 1, Charsets.UTF_8));
+    }
+
+    @Test
+    public void testEncoding()
+        throws IOException
+    {
+        Files.write("name = \"Grüße\"\n", header, Charsets.UTF_8);
+        Assert.assertEquals("Grüße", new RegexMacro().extract(header, "name = \"(.*)\"", 1, Charsets.UTF_8).get());
+
+        Files.write("name = \"Grüße\"\n", header, Charsets.ISO_8859_1);
+        Assert.assertEquals("Grüße", new RegexMacro().extract(header, "name = \"(.*)\"", 1, Charsets.ISO_8859_1).get());
+
+        // Same as String#String(byte[], Charset): bytes above 0x7f are not ASCII.
+        Files.write("name = \"Grüße\"\n", header, Charsets.UTF_8);
+        Assert.assertEquals("Gr\ufffd\ufffd\ufffd\ufffde", new RegexMacro().extract(header, "name = \"(.*)\"", 1, Charsets.US_ASCII).get());
+    }
+
+    @Test
+    public void testCachedMatches()
+        throws IOException
+    {
+        final RegexMacro regexMacro = new RegexMacro();
+        Assert.assertEquals("1.2.3", regexMacro.extract(header, VERSION_PATTERN, 1, Charsets.UTF_8).get());
+        Assert.assertEquals("1.2.3", regexMacro.extract(header, VERSION_PATTERN, 1, Charsets.UTF_8).get());
+        Assert.assertEquals(1L, regexMacro.getFilesScanned());
+
+        // A different pattern scans again.
+        Assert.assertEquals("0", regexMacro.extract(header, "CONSTANT_0 (\\d+)", 1, Charsets.UTF_8).get());
+        Assert.assertEquals(2L, regexMacro.getFilesScanned());
+
+        // So does a changed file.
+        Files.write("#define VERSION \"2.0\"\n" + Strings.repeat(" ", 100), header, Charsets.UTF_8);
+        Assert.assertEquals("2.0", regexMacro.extract(header, VERSION_PATTERN, 1, Charsets.UTF_8).get());
+        Assert.assertEquals(3L, regexMacro.getFilesScanned());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissingGroup()
+        throws IOException
+    {
+        new RegexMacro().extract(header, VERSION_PATTERN, 2, Charsets.UTF_8);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNegativeGroup()
+        throws IOException
+    {
+        new RegexMacro().extract(header, VERSION_PATTERN, -1, Charsets.UTF_8);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissingFile()
+        throws IOException
+    {
+        new RegexMacro().extract(new File(directory, "missing.h"), VERSION_PATTERN, 1, Charsets.UTF_8);
+    }
+}